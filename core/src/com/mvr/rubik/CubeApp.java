@@ -1,5 +1,7 @@
 package com.mvr.rubik;
 
+import com.mvr.rubik.cube.CubeMesh;
+import com.mvr.rubik.cube.PruningTableStore;
 import com.mvr.rubik.cube.RubiksCube;
 import com.mvr.rubik.cube.Square;
 import com.mvr.rubik.graphics.CubeRenderer;
@@ -7,6 +9,7 @@ import com.badlogic.gdx.Application;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.InputMultiplexer;
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
 import com.badlogic.gdx.graphics.g3d.Environment;
@@ -23,11 +26,12 @@ public class CubeApp extends ApplicationAdapter {
     ModelBatch batch;
     PerspectiveCamera camera;
     Environment env;
-    CameraInputController cameraController;
+    CameraController cameraController;
 
     @Override
     public void create () {
         Gdx.app.setLogLevel(Application.LOG_DEBUG);
+        PruningTableStore.setDirectory(Gdx.files.local("tables").file());
 
         batch = new ModelBatch();
 
@@ -41,12 +45,18 @@ public class CubeApp extends ApplicationAdapter {
         camera.near = 1;
         camera.far = 300;
         camera.update();
-        cameraController = new CameraInputController(camera);
+        cameraController = new CameraController(camera);
         cube = new RubiksCube(3);
         cube.setSpeed(1);
         cube.setRenderer(new Renderer());
+        cube.setMergedMesh(true);
         Gdx.input.setInputProcessor(
                 new InputMultiplexer(new InputHandler(cube, camera), cameraController));
+
+        // Frames are drawn on input events and posted runnables, such as solver results, and
+        // while something moves. An idle cube doesn't keep the GPU busy.
+        Gdx.graphics.setContinuousRendering(false);
+        Gdx.graphics.requestRendering();
     }
 
     @Override
@@ -58,14 +68,35 @@ public class CubeApp extends ApplicationAdapter {
         cube.draw();
         batch.end();
 
-        cube.onNextFrame();
+        boolean animating = cube.isAnimating();
+        cube.onNextFrame(Gdx.graphics.getDeltaTime());
+        // One more frame after a rotation ends, to show its final state
+        if (animating || cube.isAnimating() || cameraController.isMoving()) {
+            Gdx.graphics.requestRendering();
+        }
     }
 
     @Override
     public void dispose () {
+        cube.dispose();
         batch.dispose();
     }
 
+    /**
+     * Camera keys move the camera in update() as long as they are held, without further input
+     * events, so frames must keep coming meanwhile
+     * */
+    static class CameraController extends CameraInputController {
+
+        CameraController(Camera camera) {
+            super(camera);
+        }
+
+        boolean isMoving() {
+            return rotateLeftPressed || rotateRightPressed || forwardPressed || backwardPressed;
+        }
+    }
+
     class Renderer implements CubeRenderer {
 
         @Override
@@ -75,8 +106,13 @@ public class CubeApp extends ApplicationAdapter {
 
         @Override
         public void drawSquare(Square square, float angle, float x, float y, float z) {
-            square.getModelInstance().transform.setToRotation(x, y, z, angle);
+            square.rotateCoordinates(x, y, z, angle);
             batch.render(square.getModelInstance(), env);
         }
+
+        @Override
+        public void drawMesh(CubeMesh mesh) {
+            batch.render(mesh, env);
+        }
     }
 }
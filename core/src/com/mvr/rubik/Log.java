@@ -8,15 +8,26 @@ import com.badlogic.gdx.Gdx;
 
 public class Log {
 
+    /**
+     * Headless users (solvers, benchmarks) run without a libgdx application
+     * */
+    private static void log(String tag, String msg) {
+        if (Gdx.app != null) {
+            Gdx.app.log(tag, msg);
+        } else {
+            System.out.println("[" + tag + "] " + msg);
+        }
+    }
+
     public static void w(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
     }
 
     public static void d(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
     }
 
     public static void e(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
     }
 }
@@ -53,6 +53,34 @@ public class Algorithm {
         addStep(steps.get(steps.size() - 1).duplicate());
     }
 
+    /**
+     * Number of steps, including the ones already played
+     * */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Number of steps not played yet
+     * */
+    public int getRemainingSteps() {
+        return steps.size() - currentPosition;
+    }
+
+    Rotation getStep(int index) {
+        return steps.get(index);
+    }
+
+    /**
+     * Shorter algorithm with the same effect on a cube of the given dimensions. Whole cube
+     * rotations are moved to the end; they are dropped unless @keepOrientation is set.
+     *
+     * @see AlgorithmOptimizer
+     * */
+    public Algorithm optimize(int sizeX, int sizeY, int sizeZ, boolean keepOrientation) {
+        return AlgorithmOptimizer.optimize(this, sizeX, sizeY, sizeZ, keepOrientation);
+    }
+
     public boolean isDone() {
         return currentPosition >= steps.size();
     }
@@ -65,6 +93,18 @@ public class Algorithm {
         return steps.get(currentPosition++).duplicate();
     }
 
+    /**
+     * Same as getNextStep(), but copies the step into @rotation instead of allocating a new one
+     * */
+    public boolean getNextStep(Rotation rotation) {
+        if (currentPosition >= steps.size()) {
+            Log.w(tag, "No more steps: " + currentPosition + ", " + steps.size());
+            return false;
+        }
+        rotation.set(steps.get(currentPosition++));
+        return true;
+    }
+
     public static Algorithm rotateWhole (Axis axis, Direction direction,
                                          int cubeSize, int count) {
         Algorithm algo = new Algorithm();
@@ -0,0 +1,333 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.util.ArrayList;
+
+/**
+ * Peephole pass that makes an Algorithm shorter without changing its effect on the cube.
+ *
+ * Turns of the same axis commute, so a run of them is kept as the net number of quarter turns
+ * of every layer: inverse turns cancel, three quarter turns become one reverse turn and layers
+ * turned together become a single step again. When a run cancels out completely, the runs on
+ * both sides of it are merged too. A run whose net turns take as many steps as it had is
+ * played as it was.
+ *
+ * On a cube with equal sides, whole cube rotations are moved to the end: the steps after a
+ * rotation are relabelled to the axis, layer and direction they had before it. The rotations
+ * can then be dropped when only the solved state matters. On other cuboids a rotation that
+ * reorients the cube is kept in place.
+ */
+class AlgorithmOptimizer {
+
+    // Quarter turns around +X, +Y and +Z, the way a CLOCKWISE rotation turns the cube
+    private static final int[][][] sClockwise = {
+            {{1, 0, 0}, {0, 0, 1}, {0, -1, 0}},
+            {{0, 0, -1}, {0, 1, 0}, {1, 0, 0}},
+            {{0, 1, 0}, {-1, 0, 0}, {0, 0, 1}}
+    };
+
+    /**
+     * Net quarter turns of every layer of one axis, clockwise. A reorienting rotation is kept as
+     * a run of its own that never merges.
+     * */
+    private static class Run {
+        final int axis;
+        final int[] turns;
+        final boolean halfTurns;
+        final Rotation rotation;
+        // The steps merged into the run, relabelled
+        final ArrayList<Rotation> steps;
+
+        Run(int axis, int size, boolean halfTurns) {
+            this.axis = axis;
+            this.turns = new int[size];
+            this.halfTurns = halfTurns;
+            this.rotation = null;
+            this.steps = new ArrayList<>();
+        }
+
+        Run(Rotation rotation) {
+            this.axis = rotation.axis.ordinal();
+            this.turns = null;
+            this.halfTurns = false;
+            this.rotation = rotation;
+            this.steps = null;
+        }
+
+        boolean isEmpty() {
+            for (int turn : turns) {
+                if (turn != 0) return false;
+            }
+            return true;
+        }
+    }
+
+    private final int[] mSizes;
+    private final boolean mRelabel;
+    private final ArrayList<Run> mRuns = new ArrayList<>();
+
+    // Maps a turn after the rotations seen so far to the same turn before them
+    private int[][] mFrame = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+    private final ArrayList<Rotation> mWholeRotations = new ArrayList<>();
+
+    private AlgorithmOptimizer(int sizeX, int sizeY, int sizeZ) {
+        mSizes = new int[]{sizeX, sizeY, sizeZ};
+        mRelabel = sizeX == sizeY && sizeY == sizeZ;
+    }
+
+    static Algorithm optimize(Algorithm algorithm, int sizeX, int sizeY, int sizeZ,
+                              boolean keepOrientation) {
+        return optimize(algorithm, sizeX, sizeY, sizeZ, keepOrientation, null);
+    }
+
+    /**
+     * @marks: step indices in @algorithm, replaced by the matching indices in the result. Steps
+     * of the result between two marks come from the steps between them in @algorithm, or from
+     * turns merged with them.
+     * */
+    static Algorithm optimize(Algorithm algorithm, int sizeX, int sizeY, int sizeZ,
+                              boolean keepOrientation, int[] marks) {
+        AlgorithmOptimizer optimizer = new AlgorithmOptimizer(sizeX, sizeY, sizeZ);
+        int[] markRuns = marks == null ? new int[0] : new int[marks.length];
+        int mark = 0;
+        for (int i = 0; i < algorithm.size(); i++) {
+            for (; mark < markRuns.length && marks[mark] <= i; mark++) {
+                markRuns[mark] = optimizer.mRuns.size();
+            }
+            optimizer.add(algorithm.getStep(i));
+            for (int j = 0; j < mark; j++) {
+                markRuns[j] = Math.min(markRuns[j], optimizer.mRuns.size());
+            }
+        }
+        for (; mark < markRuns.length; mark++) {
+            markRuns[mark] = optimizer.mRuns.size();
+        }
+
+        Algorithm result = new Algorithm();
+        int[] runStarts = optimizer.emit(result);
+        for (int i = 0; i < markRuns.length; i++) {
+            marks[i] = runStarts[markRuns[i]];
+        }
+
+        if (keepOrientation && optimizer.mWholeRotations.size() > 0) {
+            AlgorithmOptimizer rotations = new AlgorithmOptimizer(sizeX, sizeY, sizeZ);
+            for (Rotation rotation : optimizer.mWholeRotations) {
+                rotations.merge(rotation.axis.ordinal(), 0, rotation.faceCount,
+                        rotation.direction);
+            }
+            rotations.emit(result);
+        }
+        return result;
+    }
+
+    private boolean isSymmetric(int axis) {
+        return mSizes[(axis + 1) % 3] == mSizes[(axis + 2) % 3];
+    }
+
+    private void add(Rotation rotation) {
+        int axis = rotation.axis.ordinal();
+        int size = mSizes[axis];
+        int start = rotation.startFace;
+        int count = Math.min(rotation.faceCount, size - start);
+        if (count <= 0) return;
+
+        if (count == size && mRelabel) {
+            mWholeRotations.add(rotation.duplicate());
+            int[][] turn = sClockwise[axis];
+            // The inverse of a quarter turn is its transpose
+            mFrame = multiply(mFrame, rotation.direction == Direction.CLOCKWISE ?
+                    transpose(turn) : turn);
+            return;
+        }
+        if (count == size && !isSymmetric(axis)) {
+            mRuns.add(new Run(rotation.duplicate()));
+            int other1 = (axis + 1) % 3;
+            int other2 = (axis + 2) % 3;
+            int temp = mSizes[other1];
+            mSizes[other1] = mSizes[other2];
+            mSizes[other2] = temp;
+            return;
+        }
+
+        Direction direction = rotation.direction;
+        if (mRelabel) {
+            int target = 0;
+            int sign = 0;
+            for (int a = 0; a < 3; a++) {
+                if (mFrame[a][axis] != 0) {
+                    target = a;
+                    sign = mFrame[a][axis];
+                }
+            }
+            if (sign < 0) {
+                start = size - start - count;
+                direction = FaceletCube.reverse(direction);
+            }
+            axis = target;
+        }
+        merge(axis, start, count, direction);
+    }
+
+    private void merge(int axis, int start, int count, Direction direction) {
+        boolean halfTurns = !isSymmetric(axis);
+        int quarters = halfTurns ? 2 : direction == Direction.CLOCKWISE ? 1 : 3;
+
+        Run run = mRuns.isEmpty() ? null : mRuns.get(mRuns.size() - 1);
+        if (run == null || run.rotation != null || run.axis != axis) {
+            run = new Run(axis, mSizes[axis], halfTurns);
+            mRuns.add(run);
+        }
+        for (int layer = start; layer < start + count; layer++) {
+            run.turns[layer] = (run.turns[layer] + quarters) % 4;
+        }
+        run.steps.add(new Rotation(Axis.values()[axis], direction, start, count));
+        if (run.isEmpty()) {
+            mRuns.remove(mRuns.size() - 1);
+        }
+    }
+
+    /**
+     * Append the steps of all runs to @algorithm
+     * @return index of the first step of every run in @algorithm, and its final size
+     * */
+    private int[] emit(Algorithm algorithm) {
+        int[] runStarts = new int[mRuns.size() + 1];
+        for (int r = 0; r < mRuns.size(); r++) {
+            runStarts[r] = algorithm.size();
+            Run run = mRuns.get(r);
+            if (run.rotation != null) {
+                algorithm.addStep(run.rotation);
+                continue;
+            }
+            Algorithm steps = new Algorithm();
+            if (run.halfTurns) {
+                emitHalfTurns(run, steps);
+            } else {
+                emitQuarterTurns(run, steps);
+            }
+            if (steps.size() < run.steps.size()) {
+                algorithm.append(steps);
+            } else {
+                for (Rotation step : run.steps) {
+                    algorithm.addStep(step);
+                }
+            }
+        }
+        runStarts[mRuns.size()] = algorithm.size();
+        return runStarts;
+    }
+
+    /**
+     * On an asymmetric axis every step is a half turn: one step per range of turned layers
+     * */
+    private static void emitHalfTurns(Run run, Algorithm algorithm) {
+        Axis axis = Axis.values()[run.axis];
+        for (int start = 0; start < run.turns.length; ) {
+            int turn = run.turns[start];
+            int end = start + 1;
+            // Turning all layers at once would reorient the cube
+            int maxEnd = start == 0 ? run.turns.length - 1 : run.turns.length;
+            while (end < maxEnd && run.turns[end] == turn) {
+                end++;
+            }
+            if (turn != 0) {
+                algorithm.addStep(axis, Direction.CLOCKWISE, start, end - start);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Each step adds or takes one quarter turn to a range of layers. With the net turns as
+     * signed numbers, the fewest steps is half the sum of the jumps between neighbour layers
+     * and the zeros beyond both ends. That is reached by turning the longest range of same sign
+     * layers from the first turned one, over and over.
+     * */
+    private static void emitQuarterTurns(Run run, Algorithm algorithm) {
+        Axis axis = Axis.values()[run.axis];
+        int[] turns = signedTurns(run.turns);
+        for (int start = 0; start < turns.length; ) {
+            if (turns[start] == 0) {
+                start++;
+                continue;
+            }
+            int sign = turns[start] > 0 ? 1 : -1;
+            int end = start + 1;
+            while (end < turns.length && turns[end] * sign > 0) {
+                end++;
+            }
+            algorithm.addStep(axis, sign > 0 ? Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE,
+                    start, end - start);
+            for (int layer = start; layer < end; layer++) {
+                turns[layer] -= sign;
+            }
+        }
+    }
+
+    /**
+     * Clockwise quarter turns of every layer from -2 to 2, a half turn being taken either
+     * way so that the sum of the jumps between layers is the smallest
+     * */
+    private static int[] signedTurns(int[] turns) {
+        int size = turns.length;
+        // Both choices of every layer, and the least sum of jumps up to it for each
+        int[][] cost = new int[size][2];
+        int[][] previous = new int[size][2];
+        for (int layer = 0; layer < size; layer++) {
+            for (int c = 0; c < 2; c++) {
+                int value = signedTurn(turns[layer], c);
+                if (layer == 0) {
+                    cost[layer][c] = Math.abs(value);
+                    continue;
+                }
+                cost[layer][c] = Integer.MAX_VALUE;
+                for (int p = 0; p < 2; p++) {
+                    int jump = Math.abs(value - signedTurn(turns[layer - 1], p));
+                    if (cost[layer - 1][p] + jump < cost[layer][c]) {
+                        cost[layer][c] = cost[layer - 1][p] + jump;
+                        previous[layer][c] = p;
+                    }
+                }
+            }
+        }
+        int last = size - 1;
+        int c = cost[last][0] + Math.abs(signedTurn(turns[last], 0)) <=
+                cost[last][1] + Math.abs(signedTurn(turns[last], 1)) ? 0 : 1;
+        int[] result = new int[size];
+        for (int layer = last; layer >= 0; layer--) {
+            result[layer] = signedTurn(turns[layer], c);
+            c = previous[layer][c];
+        }
+        return result;
+    }
+
+    private static int signedTurn(int turn, int choice) {
+        if (turn == 3) return -1;
+        if (turn == 2 && choice == 1) return -2;
+        return turn;
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] result = new int[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    result[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int[][] transpose(int[][] m) {
+        int[][] result = new int[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                result[i][j] = m[j][i];
+            }
+        }
+        return result;
+    }
+}
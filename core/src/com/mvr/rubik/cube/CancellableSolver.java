@@ -0,0 +1,14 @@
+package com.mvr.rubik.cube;
+
+/**
+ * A CubeSolver whose search can be stopped from another thread, such as the UI thread when
+ * the user cancels a solve running in the background.
+ */
+public interface CancellableSolver extends CubeSolver {
+
+    /**
+     * Stop the running search, or the next one if none is running yet. solve() throws
+     * IllegalStateException.
+     * */
+    void cancel();
+}
@@ -0,0 +1,570 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Pure 3-cycles of the center pieces and of the edge wings of a NxNxN cube, the building blocks
+ * of ReductionSolver.
+ *
+ * Every 3-cycle is a commutator A B A' B' of layer turns, where A and B overlap on a single
+ * piece. For the centers A is an inner slice and B an inner slice conjugated by an outer layer
+ * turn. For the wings A is an inner slice and B an outer layer turn conjugated by another outer
+ * layer turn, so the centers are left alone. All combinations of layers and directions are
+ * played on a numbered cube and the ones that move exactly three pieces are kept.
+ *
+ * The facelets of a wing are ordered so that every turn takes the first facelet of a wing to the
+ * first facelet of another wing: a wing can't be flipped in place. Wings at the same distance
+ * from the nearest corner, on either end of an edge, make up an orbit. The middle edge piece of
+ * an odd cube is not a wing.
+ *
+ * Tables are immutable and shared by all solvers of the same cube size.
+ */
+class CommutatorTable {
+
+    private static final HashMap<Integer, CommutatorTable> sTables = new HashMap<>();
+
+    static CommutatorTable get(int size) {
+        synchronized (sTables) {
+            CommutatorTable table = sTables.get(size);
+            if (table == null) {
+                table = new CommutatorTable(size);
+                sTables.put(size, table);
+            }
+            return table;
+        }
+    }
+
+    final int size;
+    final MoveTable moves;
+
+    // Center facelets of every face, without the fixed center of an odd cube
+    final int[][] centerFacelets = new int[Cube.FACE_COUNT][];
+
+    final int wingCount;
+    final int orbitCount;
+    final int[] wingFirst;
+    final int[] wingSecond;
+    final int[][] orbitWings;
+    // Distance of the wings of each orbit from the nearest corner
+    final int[] orbitDistance;
+    // Wing of every facelet, -1 if the facelet is not on a wing
+    final int[] faceletWing;
+    // Edge of every wing, as the faces of its facelets
+    final int[] wingEdge;
+
+    /**
+     * Commutators by index. The piece at cycle[i * 3] goes to cycle[i * 3 + 1], that one to
+     * cycle[i * 3 + 2] and that one back to cycle[i * 3]. Centers are cycled as facelets and
+     * wings as wing numbers. @centerIndex and @wingIndex list the commutators touching each
+     * facelet and each wing.
+     * */
+    final int[][] centerMoves;
+    final int[] centerCycles;
+    final int[][] centerIndex;
+    final int[][] wingMoves;
+    final int[] wingCycles;
+    final int[][] wingIndex;
+
+    /**
+     * Outer layer turns that can be made before a wing commutator and undone after it, with the
+     * wing each wing goes to.
+     * */
+    final int[][] outerTurns;
+    final int[][] outerTurnWingTargets;
+
+    private final int mFaceArea;
+    private final int[] mPieceSize;
+    private final int[] mCells;
+    private final int[] mScratch;
+    // Facelets changed by a commutator, enough for three wings
+    private static final int MAX_CHANGED = 8;
+    private final int[] mChanged = new int[MAX_CHANGED];
+
+    private CommutatorTable(int size) {
+        this.size = size;
+        moves = MoveTable.get(size, size, size);
+        mFaceArea = size * size;
+        int faceletCount = moves.getFaceletCount();
+        mCells = new int[faceletCount];
+        for (int i = 0; i < faceletCount; i++) {
+            mCells[i] = i;
+        }
+        mScratch = new int[moves.getMaxMoveLength()];
+
+        mPieceSize = new int[size * size * size];
+        for (int facelet = 0; facelet < faceletCount; facelet++) {
+            mPieceSize[piecePosition(facelet)]++;
+        }
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            ArrayList<Integer> facelets = new ArrayList<>();
+            for (int i = 0; i < mFaceArea; i++) {
+                if (isCenter(face * mFaceArea + i)) {
+                    facelets.add(face * mFaceArea + i);
+                }
+            }
+            centerFacelets[face] = toArray(facelets);
+        }
+
+        faceletWing = new int[faceletCount];
+        int[] pieceWing = new int[mPieceSize.length];
+        ArrayList<Integer> firsts = new ArrayList<>();
+        ArrayList<Integer> seconds = new ArrayList<>();
+        for (int facelet = 0; facelet < faceletCount; facelet++) {
+            faceletWing[facelet] = -1;
+            if (!isWing(facelet)) continue;
+            int piece = piecePosition(facelet);
+            if (pieceWing[piece] == 0) {
+                pieceWing[piece] = firsts.size() + 1;
+                firsts.add(facelet);
+                seconds.add(-1);
+            } else {
+                seconds.set(pieceWing[piece] - 1, facelet);
+            }
+            faceletWing[facelet] = pieceWing[piece] - 1;
+        }
+        wingCount = firsts.size();
+        wingFirst = toArray(firsts);
+        wingSecond = toArray(seconds);
+        orbitCount = (size - 2) / 2;
+        orbitWings = new int[orbitCount][];
+        orbitDistance = new int[orbitCount];
+        orientWings();
+        wingEdge = new int[wingCount];
+        for (int wing = 0; wing < wingCount; wing++) {
+            int face1 = faceOf(wingFirst[wing]);
+            int face2 = faceOf(wingSecond[wing]);
+            wingEdge[wing] = Math.min(face1, face2) * Cube.FACE_COUNT + Math.max(face1, face2);
+        }
+
+        outerTurns = createOuterTurns();
+        outerTurnWingTargets = new int[outerTurns.length][];
+        for (int i = 0; i < outerTurns.length; i++) {
+            outerTurnWingTargets[i] = wingTargets(outerTurns[i]);
+        }
+
+        ArrayList<int[]> commutators = new ArrayList<>();
+        ArrayList<int[]> cycles = new ArrayList<>();
+        createCenterCommutators(commutators, cycles);
+        centerMoves = commutators.toArray(new int[commutators.size()][]);
+        centerCycles = flatten(cycles);
+        centerIndex = index(centerCycles, faceletCount);
+
+        commutators.clear();
+        cycles.clear();
+        createWingCommutators(commutators, cycles);
+        wingMoves = commutators.toArray(new int[commutators.size()][]);
+        wingCycles = flatten(cycles);
+        wingIndex = index(wingCycles, wingCount);
+    }
+
+    int faceOf(int facelet) {
+        return facelet / mFaceArea;
+    }
+
+    /**
+     * Move turning the outer layer of @face
+     * */
+    int faceMove(int face, Direction direction) {
+        int layer = face == Cube.FACE_FRONT || face == Cube.FACE_RIGHT ||
+                face == Cube.FACE_TOP ? size - 1 : 0;
+        return moves.encode(Cube.face2axis(face), direction, layer);
+    }
+
+    /**
+     * Position (x, y, z) of the piece holding @facelet, as (x * size + y) * size + z.
+     * Layers are numbered like the layers of Cube, rows of a face like Cube :: createFaces().
+     * */
+    private int piecePosition(int facelet) {
+        int face = facelet / mFaceArea;
+        int row = facelet % mFaceArea / size;
+        int column = facelet % size;
+        int last = size - 1;
+        int y = last - row;
+        int x, z;
+        switch (face) {
+            case Cube.FACE_FRONT:
+                x = column;
+                z = last;
+                break;
+            case Cube.FACE_RIGHT:
+                x = last;
+                z = last - column;
+                break;
+            case Cube.FACE_BACK:
+                x = last - column;
+                z = 0;
+                break;
+            case Cube.FACE_LEFT:
+                x = 0;
+                z = column;
+                break;
+            case Cube.FACE_TOP:
+                x = column;
+                y = last;
+                z = row;
+                break;
+            default:
+                x = column;
+                y = 0;
+                z = last - row;
+                break;
+        }
+        return (x * size + y) * size + z;
+    }
+
+    private boolean isCenter(int facelet) {
+        if (mPieceSize[piecePosition(facelet)] != 1) return false;
+        int middle = size / 2;
+        int index = facelet % mFaceArea;
+        return size % 2 == 0 || index != middle * size + middle;
+    }
+
+    private boolean isWing(int facelet) {
+        if (mPieceSize[piecePosition(facelet)] != 2) return false;
+        return size % 2 == 0 || distance(facelet) != size / 2;
+    }
+
+    /**
+     * Distance of an edge facelet from the nearest corner
+     * */
+    private int distance(int facelet) {
+        int index = facelet % mFaceArea;
+        int row = index / size;
+        int column = index % size;
+        int distance = row == 0 || row == size - 1 ? column : row;
+        return Math.min(distance, size - 1 - distance);
+    }
+
+    /**
+     * Order the facelets of the wings by following every turn from one wing of each orbit,
+     * and group the wings by orbit.
+     * */
+    private void orientWings() {
+        boolean[] oriented = new boolean[wingCount];
+        int[] queue = new int[wingCount];
+        ArrayList<ArrayList<Integer>> orbits = new ArrayList<>();
+        for (int start = 0; start < wingCount; start++) {
+            if (oriented[start]) continue;
+            ArrayList<Integer> orbit = new ArrayList<>();
+            oriented[start] = true;
+            queue[0] = start;
+            int head = 0;
+            int tail = 1;
+            while (head < tail) {
+                int wing = queue[head++];
+                orbit.add(wing);
+                for (int move = 0; move < moves.getMoveCount(); move++) {
+                    int first = target(move, wingFirst[wing]);
+                    int next = faceletWing[first];
+                    if (oriented[next]) {
+                        if (wingFirst[next] != first) {
+                            throw new AssertionError("Wing " + next + " flipped in place");
+                        }
+                        continue;
+                    }
+                    wingSecond[next] = target(move, wingSecond[wing]);
+                    wingFirst[next] = first;
+                    oriented[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+            orbits.add(orbit);
+        }
+        if (orbits.size() != orbitCount) {
+            throw new AssertionError("Orbits: " + orbits.size());
+        }
+        for (int i = 0; i < orbitCount; i++) {
+            orbitWings[i] = toArray(orbits.get(i));
+            orbitDistance[i] = distance(wingFirst[orbitWings[i][0]]);
+        }
+    }
+
+    /**
+     * Facelet that the color of @facelet goes to with @move
+     * */
+    private int target(int move, int facelet) {
+        int[] sources = moves.getSources(move);
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == facelet) return moves.getTargets(move)[i];
+        }
+        return facelet;
+    }
+
+    /**
+     * Quarter turns both ways and half turns of every face, three per face
+     * */
+    private int[][] createOuterTurns() {
+        int[][] turns = new int[Cube.FACE_COUNT * 3][];
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            int move = faceMove(face, Direction.CLOCKWISE);
+            turns[face * 3] = new int[]{move};
+            turns[face * 3 + 1] = new int[]{MoveTable.inverse(move)};
+            turns[face * 3 + 2] = new int[]{move, move};
+        }
+        return turns;
+    }
+
+    private int[] wingTargets(int[] sequence) {
+        play(sequence);
+        int[] targets = new int[wingCount];
+        for (int wing = 0; wing < wingCount; wing++) {
+            targets[wing] = wing;
+        }
+        for (int i = 0; i < mCells.length; i++) {
+            if (mCells[i] != i && faceletWing[i] >= 0 && wingFirst[faceletWing[i]] == i) {
+                targets[faceletWing[mCells[i]]] = faceletWing[i];
+            }
+        }
+        undo(sequence);
+        return targets;
+    }
+
+    private void createCenterCommutators(ArrayList<int[]> commutators, ArrayList<int[]> cycles) {
+        HashSet<Long> found = new HashSet<>();
+        int last = size - 1;
+        for (Axis slice : Axis.values()) {
+            for (Axis outer : Axis.values()) {
+                if (outer == slice) continue;
+                for (int outerLayer = 0; outerLayer <= last; outerLayer += last) {
+                    for (int a = 1; a < last; a++) {
+                        for (int b = 1; b < last; b++) {
+                            if (a == b) continue;
+                            for (int turns = 0; turns < 8; turns++) {
+                                int[] sequence = commutator(
+                                        turn(slice, a, turns % 2),
+                                        turn(outer, outerLayer, turns / 2 % 2),
+                                        turn(slice, b, turns / 4));
+                                int[] cycle = centerCycle(sequence);
+                                if (cycle != null && found.add(key(cycle))) {
+                                    commutators.add(sequence);
+                                    cycles.add(cycle);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The outer layer turns of these commutators may also be half turns
+     * */
+    private void createWingCommutators(ArrayList<int[]> commutators, ArrayList<int[]> cycles) {
+        HashSet<Long> found = new HashSet<>();
+        int last = size - 1;
+        for (Axis slice : Axis.values()) {
+            for (int a = 1; a < last; a++) {
+                if (size % 2 == 1 && a == size / 2) continue;
+                for (Axis outer : Axis.values()) {
+                    if (outer == slice) continue;
+                    for (int layers = 0; layers < 4; layers++) {
+                        int outerLayer = layers % 2 == 0 ? 0 : last;
+                        int faceLayer = layers / 2 == 0 ? 0 : last;
+                        for (int turns = 0; turns < 18; turns++) {
+                            int[] sequence = commutator(
+                                    turn(slice, a, turns % 2),
+                                    turn(outer, outerLayer, turns / 2 % 3),
+                                    turn(slice, faceLayer, turns / 6));
+                            int[] cycle = wingCycle(sequence);
+                            if (cycle != null && found.add(key(cycle))) {
+                                commutators.add(sequence);
+                                cycles.add(cycle);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @kind: 0 for a clockwise quarter turn, 1 for a counter clockwise one, 2 for a half turn
+     * */
+    private int[] turn(Axis axis, int layer, int kind) {
+        int move = moves.encode(axis, kind == 1 ? Direction.COUNTER_CLOCKWISE :
+                Direction.CLOCKWISE, layer);
+        return kind == 2 ? new int[]{move, move} : new int[]{move};
+    }
+
+    /**
+     * @a, @conjugate @b @conjugate', @a', @conjugate @b' @conjugate'
+     * */
+    private static int[] commutator(int[] a, int[] conjugate, int[] b) {
+        int[][] parts = {
+                a, conjugate, b, inverse(conjugate), inverse(a), conjugate, inverse(b),
+                inverse(conjugate)
+        };
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] sequence = new int[length];
+        length = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, sequence, length, part.length);
+            length += part.length;
+        }
+        return sequence;
+    }
+
+    private static int[] inverse(int[] sequence) {
+        int[] inverse = new int[sequence.length];
+        for (int i = 0; i < sequence.length; i++) {
+            inverse[i] = MoveTable.inverse(sequence[sequence.length - 1 - i]);
+        }
+        return inverse;
+    }
+
+    private int[] centerCycle(int[] sequence) {
+        int changed = play(sequence);
+        int[] cycle = null;
+        if (changed == 3 && isCenter(mChanged[0]) && isCenter(mChanged[1]) &&
+                isCenter(mChanged[2])) {
+            cycle = new int[3];
+            cycle[0] = mChanged[0];
+            cycle[1] = destination(cycle[0], changed);
+            cycle[2] = destination(cycle[1], changed);
+        }
+        undo(sequence);
+        return cycle;
+    }
+
+    private int[] wingCycle(int[] sequence) {
+        int changed = play(sequence);
+        int[] cycle = null;
+        if (changed == 6) {
+            // Three wings of two facelets each
+            cycle = new int[3];
+            int count = 0;
+            for (int i = 0; i < changed && cycle != null; i++) {
+                int wing = faceletWing[mChanged[i]];
+                if (wing < 0) {
+                    cycle = null;
+                } else if (wingFirst[wing] == mChanged[i]) {
+                    cycle[count++] = wing;
+                }
+            }
+            if (cycle != null && count == 3) {
+                cycle[1] = faceletWing[destination(wingFirst[cycle[0]], changed)];
+                cycle[2] = faceletWing[destination(wingFirst[cycle[1]], changed)];
+            } else {
+                cycle = null;
+            }
+        }
+        undo(sequence);
+        return cycle;
+    }
+
+    /**
+     * Play @sequence on the numbered cube
+     * @return number of facelets it changed, up to MAX_CHANGED of them are in mChanged
+     * */
+    private int play(int[] sequence) {
+        for (int move : sequence) {
+            int[] sources = moves.getSources(move);
+            int[] targets = moves.getTargets(move);
+            for (int i = 0; i < sources.length; i++) {
+                mScratch[i] = mCells[sources[i]];
+            }
+            for (int i = 0; i < targets.length; i++) {
+                mCells[targets[i]] = mScratch[i];
+            }
+        }
+        int changed = 0;
+        for (int move : sequence) {
+            for (int facelet : moves.getTargets(move)) {
+                if (mCells[facelet] == facelet || isListed(facelet, changed)) continue;
+                if (changed < MAX_CHANGED) {
+                    mChanged[changed] = facelet;
+                }
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isListed(int facelet, int changed) {
+        for (int i = 0; i < Math.min(changed, MAX_CHANGED); i++) {
+            if (mChanged[i] == facelet) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bring the numbered cube back after play(@sequence)
+     * */
+    private void undo(int[] sequence) {
+        for (int move : sequence) {
+            for (int facelet : moves.getTargets(move)) {
+                mCells[facelet] = facelet;
+            }
+        }
+    }
+
+    /**
+     * Where the piece at @facelet went, among the changed facelets
+     * */
+    private int destination(int facelet, int changed) {
+        for (int i = 0; i < changed; i++) {
+            if (mCells[mChanged[i]] == facelet) return mChanged[i];
+        }
+        throw new AssertionError("Facelet " + facelet + " didn't move");
+    }
+
+    /**
+     * Same key for all rotations of a cycle
+     * */
+    private static long key(int[] cycle) {
+        int start = 0;
+        for (int i = 1; i < 3; i++) {
+            if (cycle[i] < cycle[start]) start = i;
+        }
+        long key = 0;
+        for (int i = 0; i < 3; i++) {
+            key = (key << 21) | cycle[(start + i) % 3];
+        }
+        return key;
+    }
+
+    private static int[] flatten(ArrayList<int[]> cycles) {
+        int[] flat = new int[cycles.size() * 3];
+        for (int i = 0; i < cycles.size(); i++) {
+            System.arraycopy(cycles.get(i), 0, flat, i * 3, 3);
+        }
+        return flat;
+    }
+
+    /**
+     * Commutators touching each piece
+     * */
+    private static int[][] index(int[] cycles, int pieceCount) {
+        int[] counts = new int[pieceCount];
+        for (int piece : cycles) {
+            counts[piece]++;
+        }
+        int[][] index = new int[pieceCount][];
+        for (int i = 0; i < pieceCount; i++) {
+            index[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < cycles.length; i++) {
+            int piece = cycles[i];
+            index[piece][counts[piece]++] = i / 3;
+        }
+        return index;
+    }
+
+    private static int[] toArray(ArrayList<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
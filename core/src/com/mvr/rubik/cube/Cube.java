@@ -1,5 +1,6 @@
 package com.mvr.rubik.cube;
 
+import com.badlogic.gdx.graphics.g3d.Model;
 import com.mvr.rubik.Log;
 import com.mvr.rubik.graphics.Axis;
 import com.mvr.rubik.graphics.Direction;
@@ -9,9 +10,9 @@ import java.util.ArrayList;
 
 /**
  * This class handles cube's definition. It creates all squares, faces and puts them in appropriate
- * lists for each axes. It also takes care of updating the colors of squares according to user
- * specified rotation. It doesn't care about drawing the cube. You should extend this class
- * rather than using it directly.
+ * lists for each axes. The colors are owned by a headless FaceletCube and the squares are only a
+ * view over it; rotations update the facelets first and then the colors of squares. It doesn't
+ * care about drawing the cube. You should extend this class rather than using it directly.
  */
 public class Cube {
     private static final String tag = "rubik-struct";
@@ -67,6 +68,8 @@ public class Cube {
     private int mSizeY;
     private int mSizeZ;
     private float squareSize;
+    // Rectangle drawn by every square
+    private Model mSquareModel;
 
     ArrayList<Square> mAllSquares;
     ArrayList<Square> mFrontSquares;
@@ -77,6 +80,14 @@ public class Cube {
     ArrayList<Square> mRightSquares;
     ArrayList<Square>[] mAllFaces;
 
+    /**
+     * The actual state of the cube. Square at index i of mAllFaces[f] shows facelet i of face f.
+     * */
+    FaceletCube mFacelets;
+
+    // The square showing each facelet, in the order of the facelet array
+    private Square[] mFaceletSquares;
+
     /**
      * Pieces are used to draw squares during animation. We keep separate sets of layers for each
      * axis and animate pieces from the selected layer of the appropriate set during rotation.
@@ -98,6 +109,8 @@ public class Cube {
         Log.w(tag, String.format("Cube Dimen: %d %d %d", sizeX, sizeY, sizeZ));
         int maxSize = Math.max(Math.max(sizeX, sizeY), sizeZ);
         squareSize = (TOTAL_SIZE - PADDING - GAP * (maxSize + 1)) / maxSize;
+        mSquareModel = Square.createModel(squareSize);
+        mFacelets = new FaceletCube(sizeX, sizeY, sizeZ);
         cube();
     }
 
@@ -173,7 +186,7 @@ public class Cube {
                 vertices[5] = vertices[2];
                 vertices[8] = vertices[2] + squareSize;
                 vertices[11] = vertices[2] + squareSize;
-                Square sq = new Square(vertices, color, FACE_LEFT);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_LEFT);
                 mAllSquares.add(sq);
                 mLeftSquares.add(sq);
             }
@@ -210,7 +223,7 @@ public class Cube {
                 vertices[5] = vertices[2];
                 vertices[8] = vertices[2] - squareSize;
                 vertices[11] = vertices[2] - squareSize;
-                Square sq = new Square(vertices, color, FACE_RIGHT);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_RIGHT);
                 mAllSquares.add(sq);
                 mRightSquares.add(sq);
             }
@@ -247,7 +260,7 @@ public class Cube {
                 vertices[3] = vertices[0];
                 vertices[6] = vertices[0] + squareSize;
                 vertices[9] = vertices[0] + squareSize;
-                Square sq = new Square(vertices, color, FACE_TOP);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_TOP);
                 mAllSquares.add(sq);
                 mTopSquares.add(sq);
             }
@@ -284,7 +297,7 @@ public class Cube {
                 vertices[3] = vertices[0];
                 vertices[6] = vertices[0] + squareSize;
                 vertices[9] = vertices[0] + squareSize;
-                Square sq = new Square(vertices, color, FACE_BOTTOM);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_BOTTOM);
                 mAllSquares.add(sq);
                 mBottomSquares.add(sq);
             }
@@ -320,7 +333,7 @@ public class Cube {
                 vertices[3] = vertices[0];
                 vertices[6] = vertices[0] + squareSize;
                 vertices[9] = vertices[0] + squareSize;
-                Square sq = new Square(vertices, color, FACE_FRONT);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_FRONT);
                 mAllSquares.add(sq);
                 mFrontSquares.add(sq);
             }
@@ -356,7 +369,7 @@ public class Cube {
                 vertices[3] = vertices[0];
                 vertices[6] = vertices[0] - squareSize;
                 vertices[9] = vertices[0] - squareSize;
-                Square sq = new Square(vertices, color, FACE_BACK);
+                Square sq = new Square(mSquareModel, vertices, color, FACE_BACK);
                 mAllSquares.add(sq);
                 mBackSquares.add(sq);
             }
@@ -406,6 +419,13 @@ public class Cube {
         mAllFaces[FACE_LEFT] = mLeftSquares;
         mAllFaces[FACE_TOP] = mTopSquares;
         mAllFaces[FACE_BOTTOM] = mBottomSquares;
+        mFaceletSquares = new Square[mFacelets.getFaceletCount()];
+        for (int face = 0; face < FACE_COUNT; face++) {
+            int offset = mFacelets.getFaceOffset(face);
+            for (int i = 0; i < mAllFaces[face].size(); i++) {
+                mFaceletSquares[offset + i] = mAllFaces[face].get(i);
+            }
+        }
         mAllPieces = new ArrayList<>();
 
         mXaxisLayers = new ArrayList<>(mSizeX);
@@ -616,101 +636,6 @@ public class Cube {
         Log.w(tag, "total pieces: " + mAllPieces.size());
     }
 
-    /**
-     * Rotate the colors in the border. This is the first part of rotating a layer.
-     * */
-    private static void rotateRingColors(ArrayList<ArrayList<Square>> squareList, Direction dir, int size) {
-        ArrayList<ArrayList<Square>> workingCopy;
-        ArrayList<Integer> tempColors = new ArrayList<>(size);
-        ArrayList<Square> dst;
-        ArrayList<Square> src;
-
-        if (dir == Direction.COUNTER_CLOCKWISE) {
-            // input is in clockwise order
-            workingCopy = squareList;
-        } else {
-            // reverse and rotate
-            workingCopy = new ArrayList<>(size);
-            for (int i = 0; i < CUBE_SIDES; i++) {
-                workingCopy.add(squareList.get(CUBE_SIDES - 1 - i));
-            }
-        }
-
-        src = workingCopy.get(0);
-        for (int i = 0; i < size; i++) {
-            tempColors.add(src.get(i).getColor());
-        }
-
-        for (int i = 0; i < CUBE_SIDES - 1; i++) {
-            dst = workingCopy.get(i);
-            src = workingCopy.get(i + 1);
-            for (int j = 0; j < size; j++) {
-                dst.get(j).setColor(src.get(j).getColor());
-            }
-        }
-
-        dst = workingCopy.get(CUBE_SIDES-1);
-        for (int i = 0; i < size; i++) {
-            dst.get(i).setColor(tempColors.get(i));
-        }
-    }
-
-    /**
-     * Rotate colors of a given face. This is the second part of rotating a face.
-     * This function calls itself recursively to rotate inner squares.
-     *
-     * We cannot use rotateMatrix functions here as we need an in-place update of colors.
-     * */
-    private void rotateFaceColors(ArrayList<Square> squares, Direction direction, int size) {
-        ArrayList<Integer> tempColors = new ArrayList<>(size);
-        if (direction == Direction.COUNTER_CLOCKWISE) {
-            for (int i = 0; i < size - 1; i++) {
-                tempColors.add(squares.get(i).getColor());
-                squares.get(i).setColor(squares.get(i * size + size - 1).getColor());
-            }
-
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(i * size + size - 1).setColor(
-                        squares.get(size * size - 1 - i).getColor());
-            }
-
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * size - 1 - i).setColor(
-                        squares.get(size * (size - 1 - i)).getColor());
-            }
-
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * (size - 1 - i)).setColor(tempColors.get(i));
-            }
-        } else {
-            for (int i = 0; i < size - 1; i++) {
-                tempColors.add(squares.get(i).getColor());
-                squares.get(i).setColor(squares.get(size * (size - 1 - i)).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * (size - 1 - i)).setColor(
-                        squares.get(size * size - 1 - i).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * size - 1 - i).setColor(
-                        squares.get(i * size + size - 1).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(i * size + size - 1).setColor(tempColors.get(i));
-            }
-        }
-
-        if (size > 3) {
-            ArrayList<Square> subset = new ArrayList<>(size - 2);
-            for (int i = 1; i < size - 1; i++) {
-                for (int j = 1; j < size - 1; j++) {
-                    subset.add(squares.get(i * size + j));
-                }
-            }
-            rotateFaceColors(subset, direction, size - 2);
-        }
-    }
-
     public float getFrontFaceZ() {
         return (squareSize + GAP) * (mSizeZ / 2.0f);
     }
@@ -789,194 +714,33 @@ public class Cube {
                     mSizeX, mSizeY, mSizeZ, axis.toString(), face));
         }
 
-        int w = 0, h = 0;
-
-        // The face to be rotated (in case we are rotating an edge layer.
-        ArrayList<Square> faceSquares = null;
-
-        // Additional face to be rotated if the dimension along the axis of rotation is 1
-        ArrayList<Square> oppositeFace = null;
-
-        // This list holds the squares from the sides of the layer being rotated
-        ArrayList<ArrayList<Square>> squareList = new ArrayList<>(CUBE_SIDES);
-
-        for (int i = 0; i < CUBE_SIDES; i++) {
-            squareList.add(new ArrayList<Square>());
-        }
-        switch (axis) {
-            case X_AXIS:
-                for (int i = 0; i < mSizeY; i++) {
-                    squareList.get(0).add(mFrontSquares.get(mSizeX * i + face));
-                    squareList.get(2).add(mBackSquares.get((mSizeY - 1 - i) * mSizeX +
-                            (mSizeX - 1 - face)));
-                }
-                for (int i = 0; i < mSizeZ; i++) {
-                    squareList.get(1).add(mTopSquares.get(mSizeX * i + face));
-                    squareList.get(3).add(mBottomSquares.get(mSizeX * i + face));
-                }
-
-                if (face == 0) {
-                    faceSquares = mLeftSquares;
-                } else if (face == mSizeX - 1) {
-                    faceSquares = mRightSquares;
-                }
-                if (mSizeX == 1)
-                    oppositeFace = mRightSquares;
-                w = mSizeZ;
-                h = mSizeY;
-                break;
-
-            case Y_AXIS:
-                for (int i = 0; i < mSizeX; i++) {
-                    squareList.get(0).add(
-                            mFrontSquares.get((mSizeY - 1 - face) * mSizeX + i));
-                    squareList.get(2).add(
-                            mBackSquares.get((mSizeY - 1 - face) * mSizeX + i));
-                }
-                for (int i = 0; i < mSizeZ; i++) {
-                    squareList.get(1).add(
-                            mLeftSquares.get((mSizeY - 1 - face) * mSizeZ + i));
-                    squareList.get(3).add(
-                            mRightSquares.get((mSizeY - 1 - face) * mSizeZ + i));
-                }
-
-                if (face == 0) {
-                    faceSquares = mBottomSquares;
-                } else if (face == mSizeY - 1) {
-                    faceSquares = mTopSquares;
-                }
-                if (mSizeY == 1)
-                    oppositeFace = mTopSquares;
-                w = mSizeX;
-                h = mSizeZ;
-                break;
-
-            case Z_AXIS:
-                for (int i = 0; i < mSizeX; i++) {
-                    squareList.get(0).add(mTopSquares.get(mSizeX * face + i));
-                    squareList.get(2).add(mBottomSquares.get(
-                            mSizeX * (mSizeZ - 1 - face) + mSizeX - 1 - i));
-                }
-                for (int i = 0; i < mSizeY; i++) {
-                    squareList.get(1).add(
-                            mRightSquares.get(mSizeZ * i + mSizeZ - 1 - face));
-                    squareList.get(3).add(
-                            mLeftSquares.get(mSizeZ * (mSizeY - 1 - i) + face));
-                }
-
-                if (face == 0) {
-                    faceSquares = mBackSquares;
-                } else if (face == mSizeZ - 1) {
-                    faceSquares = mFrontSquares;
-                }
-                if (mSizeZ == 1)
-                    oppositeFace = mFrontSquares;
-                w = mSizeX;
-                h = mSizeY;
-                break;
-        }
-
-        boolean symmetric = isSymmetricAroundAxis(axis);
-        if (symmetric) {
-            int size = axis == Axis.X_AXIS ? mSizeY : mSizeX;
-            rotateRingColors(squareList, direction, size);
-
-            if (faceSquares != null) {
-                if (face == 0) {
-                    /**
-                     * Lower layers store colors in opposite direction, and needs to be rotated
-                     * in the opposite direction
-                     * */
-                    rotateFaceColors(faceSquares,
-                            direction == Direction.CLOCKWISE ?
-                                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE, size);
-                } else {
-                    // Rotate a face that is on the positive edge of the
-                    // corresponding axis (front, top or right).
-                    // As squares are stored in clockwise order, rotation is straightforward.
-                    rotateFaceColors(faceSquares, direction, size);
-                }
-            }
-
-            /**
-             * "Opposite face" will be always on the positive edge of the axis
-             * */
-            if (oppositeFace != null) {
-                rotateFaceColors(oppositeFace, direction, size);
-            }
-        } else {
-            /**
-             * If not symmetric, rotate 180' along the given axis
-             * */
-            skewedRotateRingColors(squareList);
-            if (faceSquares != null)
-                skewedRotateFaceColors(faceSquares, w, h);
-            if (oppositeFace != null)
-                skewedRotateFaceColors(oppositeFace, w, h);
+        mFacelets.rotate(axis, direction, face);
+        // Only the squares the turn writes to can change color
+        MoveTable moves = mFacelets.getMoveTable();
+        for (int index : moves.getTargets(moves.encode(axis, direction, face))) {
+            mFaceletSquares[index].setColor(mFacelets.getColor(index));
         }
     }
 
-    private static void skewedRotateFaceColors(ArrayList<Square> squares, int w, int h) {
-        /**
-         * If its a single row/column, just reverse the list.
-         * */
-        if (w == 1 || h == 1) {
-            int len = Math.max(w, h);
-            for (int i = 0; i < len / 2; i++) {
-                Square src = squares.get(i);
-                Square dst = squares.get(len - 1 - i);
-                int color = src.getColor();
-                src.setColor(dst.getColor());
-                dst.setColor(color);
-            }
-            return;
-        }
-
-        for (int i = 0; i < w - 1; i++) {
-            Square src = squares.get(i);
-            Square dst = squares.get(w*h - 1 - i);
-            int color = src.getColor();
-            src.setColor(dst.getColor());
-            dst.setColor(color);
-        }
-        for (int i = 1; i < h; i++) {
-            Square src = squares.get(i*w);
-            Square dst = squares.get(w* (h-i) - 1);
-            int color = src.getColor();
-            src.setColor(dst.getColor());
-            dst.setColor(color);
-        }
-        if (w + h <= 6 || w < 3 || h < 3) return;
-        ArrayList<Square> subset = new ArrayList<>();
-        for (int i = 1; i < w - 1; i++) {
-            for (int j = 1; j < h -1; j++) {
-                subset.add(squares.get(j*w + i));
+    /**
+     * Squares are just a view of the facelets. Update their colors after changing the facelets
+     * directly.
+     * */
+    protected void updateSquareColors() {
+        for (int face = 0; face < FACE_COUNT; face++) {
+            ArrayList<Square> squares = mAllFaces[face];
+            for (int i = 0; i < squares.size(); i++) {
+                squares.get(i).setColor(mFacelets.getColor(face, i));
             }
         }
-        skewedRotateFaceColors(subset, w-2, h-2);
     }
 
-    private static void skewedRotateRingColors(ArrayList<ArrayList<Square>> squareList) {
-        ArrayList<ArrayList<Square>> workingCopy;
-        ArrayList<Integer> tempColors = new ArrayList<>();
-        ArrayList<Square> dst;
-        ArrayList<Square> src;
-
-        src = squareList.get(0);
-        dst = squareList.get(2);
-        for (int i = 0; i < src.size(); i++) {
-            int color = src.get(i).getColor();
-            src.get(i).setColor(dst.get(i).getColor());
-            dst.get(i).setColor(color);
-        }
-
-        src = squareList.get(1);
-        dst = squareList.get(3);
-        for (int i = 0; i < src.size(); i++) {
-            int color = src.get(i).getColor();
-            src.get(i).setColor(dst.get(i).getColor());
-            dst.get(i).setColor(color);
-        }
+    /**
+     * A headless copy of the current state, for solvers and anything else that doesn't need
+     * the squares.
+     * */
+    public FaceletCube copyFacelets() {
+        return new FaceletCube(mFacelets);
     }
 
     public int getSizeX() {
@@ -991,6 +755,13 @@ public class Cube {
         return mSizeZ;
     }
 
+    /**
+     * Release the geometry shared by the squares
+     * */
+    public void dispose() {
+        mSquareModel.dispose();
+    }
+
     public float getSquareSize() {
         return squareSize;
     }
@@ -1041,8 +812,10 @@ public class Cube {
                     break;
             }
         }
+        mFacelets.rotate(axis, direction);
         createFaces();
         updateSquareFaces();
+        updateSquareColors();
 
         for (Square sq: mAllSquares) {
             sq.rotateCoordinates(x, y, z, angle);
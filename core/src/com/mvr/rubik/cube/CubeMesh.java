@@ -0,0 +1,222 @@
+package com.mvr.rubik.cube;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.RenderableProvider;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.Pool;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+
+/**
+ * All the squares of a cube in a single Mesh, the color of each square being a vertex
+ * attribute. The cube is drawn in one draw call, or two while a layer turns: the squares that
+ * stay in place, then the turning ones with the rotation as world transform.
+ *
+ * The split between the two is made once, when a turn of other layers starts: the index buffer
+ * is sorted so each part is a single range. The frames of the turn then only change the angle
+ * of one shared matrix, whatever the size of the cube.
+ *
+ * Squares attached to the mesh patch their 4 colors in the vertex data when their color
+ * changes, and the changed range is uploaded once before the next draw.
+ */
+public class CubeMesh implements RenderableProvider, Disposable {
+
+    private static final String tag = "rubik-mesh";
+
+    private static final int VERTEX_SIZE = 4;
+    private static final int COLOR_OFFSET = 3;
+    private static final int SQUARE_VERTICES = 4;
+    private static final int SQUARE_INDICES = 6;
+    private static final int MAX_VERTICES = 1 << 16;
+
+    private final Mesh mMesh;
+    private final Material mMaterial = new Material();
+    private final float[] mVertices;
+    private final short[] mIndices;
+    private final boolean[] mMoving;
+    private final int mSquareCount;
+
+    // Range of vertex data changed since the last upload, empty if mDirtyStart >= mDirtyEnd
+    private int mDirtyStart;
+    private int mDirtyEnd;
+    private boolean mIndicesDirty;
+
+    // The rotated squares are the last mMovingCount ones of mIndices, those of layers mStart to
+    // mStart + mCount - 1 of mLayers
+    private int mMovingCount;
+    private ArrayList<ArrayList<Piece>> mLayers;
+    private int mStart;
+    private int mCount;
+    private float mAngle;
+    private float mAxisX;
+    private float mAxisY;
+    private float mAxisZ;
+
+    public CubeMesh(ArrayList<Square> squares) {
+        mSquareCount = squares.size();
+        if (mSquareCount * SQUARE_VERTICES > MAX_VERTICES) {
+            throw new InvalidParameterException("Too many squares: " + mSquareCount);
+        }
+        mVertices = new float[mSquareCount * SQUARE_VERTICES * VERTEX_SIZE];
+        mIndices = new short[mSquareCount * SQUARE_INDICES];
+        mMoving = new boolean[mSquareCount];
+        for (int i = 0; i < mSquareCount; i++) {
+            Square square = squares.get(i);
+            float[] corners = square.getVertices();
+            for (int v = 0; v < SQUARE_VERTICES; v++) {
+                int offset = (i * SQUARE_VERTICES + v) * VERTEX_SIZE;
+                System.arraycopy(corners, v * 3, mVertices, offset, 3);
+            }
+            writeColor(i, square.getColor());
+            square.attach(this, i);
+        }
+        writeIndices();
+        mMesh = new Mesh(false, mSquareCount * SQUARE_VERTICES, mIndices.length,
+                VertexAttribute.Position(), VertexAttribute.ColorPacked());
+        mMesh.setVertices(mVertices);
+        mMesh.setIndices(mIndices);
+        mIndicesDirty = false;
+    }
+
+    /**
+     * Called by the square at @index when its color changes
+     * */
+    void setColor(int index, int color) {
+        writeColor(index, color);
+        int start = index * SQUARE_VERTICES * VERTEX_SIZE;
+        int end = start + SQUARE_VERTICES * VERTEX_SIZE;
+        if (mDirtyStart >= mDirtyEnd) {
+            mDirtyStart = start;
+            mDirtyEnd = end;
+        } else {
+            mDirtyStart = Math.min(mDirtyStart, start);
+            mDirtyEnd = Math.max(mDirtyEnd, end);
+        }
+    }
+
+    /**
+     * Draw every square in place
+     * */
+    public void clearRotation() {
+        mLayers = null;
+        if (mMovingCount == 0) return;
+        for (int i = 0; i < mSquareCount; i++) {
+            mMoving[i] = false;
+        }
+        mMovingCount = 0;
+        mIndicesDirty = true;
+    }
+
+    /**
+     * Draw the squares of @layers rotated by @angle degrees around (@x, @y, @z), and the other
+     * squares in place. The squares are only looked up when the layers change, @layers being
+     * replaced by a new list whenever the cube rebuilds them.
+     * */
+    public void setRotation(ArrayList<ArrayList<Piece>> layers, int start, int count,
+                            float angle, float x, float y, float z) {
+        if (layers != mLayers || start != mStart || count != mCount) {
+            setMovingLayers(layers, start, count);
+        }
+        mAngle = angle;
+        mAxisX = x;
+        mAxisY = y;
+        mAxisZ = z;
+    }
+
+    private void setMovingLayers(ArrayList<ArrayList<Piece>> layers, int start, int count) {
+        for (int i = 0; i < mSquareCount; i++) {
+            mMoving[i] = false;
+        }
+        mMovingCount = 0;
+        for (int layer = start; layer < start + count; layer++) {
+            for (Piece piece : layers.get(layer)) {
+                for (Square square : piece.mSquares) {
+                    if (!mMoving[square.getMeshIndex()]) {
+                        mMoving[square.getMeshIndex()] = true;
+                        mMovingCount++;
+                    }
+                }
+            }
+        }
+        mLayers = layers;
+        mStart = start;
+        mCount = count;
+        mIndicesDirty = true;
+    }
+
+    @Override
+    public void getRenderables(Array<Renderable> renderables, Pool<Renderable> pool) {
+        upload();
+        int movingStart = (mSquareCount - mMovingCount) * SQUARE_INDICES;
+        if (movingStart > 0) {
+            Renderable renderable = obtain(pool, 0, movingStart);
+            renderable.worldTransform.idt();
+            renderables.add(renderable);
+        }
+        if (mMovingCount > 0) {
+            Renderable renderable = obtain(pool, movingStart, mMovingCount * SQUARE_INDICES);
+            renderable.worldTransform.setToRotation(mAxisX, mAxisY, mAxisZ, mAngle);
+            renderables.add(renderable);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        mMesh.dispose();
+    }
+
+    private Renderable obtain(Pool<Renderable> pool, int offset, int count) {
+        Renderable renderable = pool.obtain();
+        renderable.material = mMaterial;
+        renderable.meshPart.set(tag, mMesh, offset, count, GL20.GL_TRIANGLES);
+        return renderable;
+    }
+
+    private void upload() {
+        if (mDirtyStart < mDirtyEnd) {
+            mMesh.updateVertices(mDirtyStart, mVertices, mDirtyStart, mDirtyEnd - mDirtyStart);
+            mDirtyStart = 0;
+            mDirtyEnd = 0;
+        }
+        if (mIndicesDirty) {
+            writeIndices();
+            mMesh.setIndices(mIndices);
+            mIndicesDirty = false;
+        }
+    }
+
+    private void writeColor(int index, int color) {
+        float bits = Color.toFloatBits(color >>> 24, (color >>> 16) & 0xFF,
+                (color >>> 8) & 0xFF, color & 0xFF);
+        int offset = index * SQUARE_VERTICES * VERTEX_SIZE + COLOR_OFFSET;
+        for (int v = 0; v < SQUARE_VERTICES; v++) {
+            mVertices[offset + v * VERTEX_SIZE] = bits;
+        }
+    }
+
+    /**
+     * Two triangles per square, the squares in place first and the moving ones after them
+     * */
+    private void writeIndices() {
+        int position = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < mSquareCount; i++) {
+                if (mMoving[i] != (pass == 1)) continue;
+                short first = (short) (i * SQUARE_VERTICES);
+                mIndices[position++] = first;
+                mIndices[position++] = (short) (first + 1);
+                mIndices[position++] = (short) (first + 2);
+                mIndices[position++] = (short) (first + 2);
+                mIndices[position++] = (short) (first + 3);
+                mIndices[position++] = first;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.mvr.rubik.cube;
+
+/**
+ * Computes the complete solution of a cube state up front, without any graphics context.
+ * The returned Algorithm can be played on the cube with RubiksCube :: setAlgo(Algorithm algo).
+ */
+public interface CubeSolver {
+
+    /**
+     * @return steps that solve @cube; empty if it is already solved
+     * @throws java.security.InvalidParameterException if the cube can't be solved
+     * */
+    Algorithm solve(FaceletCube cube);
+}
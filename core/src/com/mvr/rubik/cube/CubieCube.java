@@ -0,0 +1,739 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * 3x3x3 cube on the cubie level: permutation and orientation of the 8 corners and 12 edges.
+ * Centers are fixed, so the cube is always seen relative to its center colors.
+ *
+ * Positions and pieces use the usual solver numbering,
+ * corners: URF, UFL, ULB, UBR, DFR, DLF, DBL, DRB
+ * edges: UR, UF, UL, UB, DR, DF, DL, DB, FR, FL, BL, BR
+ *
+ * cp[i] is the corner sitting at position i and co[i] its twist. A twist of 0 means the U or D
+ * colored square of the corner is on the U or D face, 1 means it is one step clockwise from
+ * there. eo[i] is 1 if the edge at position i is flipped.
+ *
+ * Moves are numbered face * 3 + (quarter turns - 1), faces in the order U, R, F, D, L, B.
+ * The basic moves are derived from the MoveTable of a 3x3x3 FaceletCube, so they always agree
+ * with Cube :: rotate(Axis axis, Direction direction, int face).
+ */
+public class CubieCube {
+
+    public static final int URF = 0;
+    public static final int UFL = 1;
+    public static final int ULB = 2;
+    public static final int UBR = 3;
+    public static final int DFR = 4;
+    public static final int DLF = 5;
+    public static final int DBL = 6;
+    public static final int DRB = 7;
+    public static final int CORNER_COUNT = 8;
+
+    public static final int UR = 0;
+    public static final int UF = 1;
+    public static final int UL = 2;
+    public static final int UB = 3;
+    public static final int DR = 4;
+    public static final int DF = 5;
+    public static final int DL = 6;
+    public static final int DB = 7;
+    public static final int FR = 8;
+    public static final int FL = 9;
+    public static final int BL = 10;
+    public static final int BR = 11;
+    public static final int EDGE_COUNT = 12;
+
+    // Faces in move order
+    public static final int U = 0;
+    public static final int R = 1;
+    public static final int F = 2;
+    public static final int D = 3;
+    public static final int L = 4;
+    public static final int B = 5;
+    public static final int MOVE_COUNT = 18;
+
+    private static final String faceNames = "URFDLB";
+    private static final int[] sCubeFaces = {
+            Cube.FACE_TOP, Cube.FACE_RIGHT, Cube.FACE_FRONT,
+            Cube.FACE_BOTTOM, Cube.FACE_LEFT, Cube.FACE_BACK
+    };
+
+    private static final int SIZE = 3;
+    private static final int FACE_SIZE = SIZE * SIZE;
+    private static final int CENTER = 4;
+
+    // First facelet of each face in a 3x3x3 FaceletCube
+    private static final int F_U = Cube.FACE_TOP * FACE_SIZE;
+    private static final int F_R = Cube.FACE_RIGHT * FACE_SIZE;
+    private static final int F_F = Cube.FACE_FRONT * FACE_SIZE;
+    private static final int F_D = Cube.FACE_BOTTOM * FACE_SIZE;
+    private static final int F_L = Cube.FACE_LEFT * FACE_SIZE;
+    private static final int F_B = Cube.FACE_BACK * FACE_SIZE;
+
+    /**
+     * Facelets of each corner position, starting with the U/D facelet and going clockwise.
+     * Faces are stored in the FaceletCube order, i.e., as seen when looking at that face.
+     * */
+    static final int[][] cornerFacelet = {
+            {F_U + 8, F_R + 0, F_F + 2},  // URF
+            {F_U + 6, F_F + 0, F_L + 2},  // UFL
+            {F_U + 0, F_L + 0, F_B + 2},  // ULB
+            {F_U + 2, F_B + 0, F_R + 2},  // UBR
+            {F_D + 2, F_F + 8, F_R + 6},  // DFR
+            {F_D + 0, F_L + 8, F_F + 6},  // DLF
+            {F_D + 6, F_B + 8, F_L + 6},  // DBL
+            {F_D + 8, F_R + 8, F_B + 6},  // DRB
+    };
+
+    /**
+     * Facelets of each edge position, starting with the U/D facelet (F/B for middle layer)
+     * */
+    static final int[][] edgeFacelet = {
+            {F_U + 5, F_R + 1},  // UR
+            {F_U + 7, F_F + 1},   // UF
+            {F_U + 3, F_L + 1},  // UL
+            {F_U + 1, F_B + 1},   // UB
+            {F_D + 5, F_R + 7},  // DR
+            {F_D + 1, F_F + 7},   // DF
+            {F_D + 3, F_L + 7},  // DL
+            {F_D + 7, F_B + 7},   // DB
+            {F_F + 5, F_R + 3},  // FR
+            {F_F + 3, F_L + 5},  // FL
+            {F_B + 5, F_L + 3},  // BL
+            {F_B + 3, F_R + 5},  // BR
+    };
+
+    public final byte[] cp = new byte[CORNER_COUNT];
+    public final byte[] co = new byte[CORNER_COUNT];
+    public final byte[] ep = new byte[EDGE_COUNT];
+    public final byte[] eo = new byte[EDGE_COUNT];
+
+    /**
+     * Basic moves U, R, F, D, L, B (one clockwise quarter turn each)
+     * */
+    static final CubieCube[] sMoveCube = new CubieCube[6];
+
+    /**
+     * All 18 moves, indexed by move number
+     * */
+    static final CubieCube[] sMoves = new CubieCube[MOVE_COUNT];
+
+    static {
+        FaceletCube facelets = new FaceletCube(SIZE);
+        for (int face = 0; face < 6; face++) {
+            facelets.reset();
+            facelets.rotate(faceAxis(face), faceDirection(face), faceLayer(face));
+            sMoveCube[face] = fromFacelets(facelets);
+        }
+        for (int face = 0; face < 6; face++) {
+            CubieCube cube = new CubieCube();
+            for (int power = 0; power < 3; power++) {
+                cube.multiply(sMoveCube[face]);
+                sMoves[face * 3 + power] = new CubieCube(cube);
+            }
+        }
+    }
+
+    /**
+     * Solved cube
+     * */
+    public CubieCube() {
+        reset();
+    }
+
+    public CubieCube(CubieCube that) {
+        set(that);
+    }
+
+    public void reset() {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            cp[i] = (byte) i;
+            co[i] = 0;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            ep[i] = (byte) i;
+            eo[i] = 0;
+        }
+    }
+
+    public void set(CubieCube that) {
+        System.arraycopy(that.cp, 0, cp, 0, CORNER_COUNT);
+        System.arraycopy(that.co, 0, co, 0, CORNER_COUNT);
+        System.arraycopy(that.ep, 0, ep, 0, EDGE_COUNT);
+        System.arraycopy(that.eo, 0, eo, 0, EDGE_COUNT);
+    }
+
+    public boolean isSolved() {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            if (cp[i] != i || co[i] != 0) return false;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            if (ep[i] != i || eo[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Axis of rotation of a face in move order
+     * */
+    static Axis faceAxis(int face) {
+        return Cube.face2axis(sCubeFaces[face]);
+    }
+
+    /**
+     * Layer of a face along its axis in a 3x3x3 cube
+     * */
+    static int faceLayer(int face) {
+        return face < D ? SIZE - 1 : 0;
+    }
+
+    /**
+     * Direction (relative to the positive axis) of a clockwise turn of a face
+     * @see Cube :: rotate(Axis axis, Direction direction, int face)
+     * */
+    static Direction faceDirection(int face) {
+        return face < D ? Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+    }
+
+    /**
+     * Append a move as quarter turns, which is what the animation plays.
+     * A half turn is added as two clockwise turns.
+     * */
+    public static void addMove(Algorithm algo, int move) {
+        int face = move / 3;
+        int power = move % 3 + 1;
+        Direction direction = faceDirection(face);
+        if (power == 3) {
+            power = 1;
+            direction = FaceletCube.reverse(direction);
+        }
+        for (int i = 0; i < power; i++) {
+            algo.addStep(faceAxis(face), direction, faceLayer(face));
+        }
+    }
+
+    public static Algorithm toAlgorithm(int[] moves, int length) {
+        Algorithm algo = new Algorithm();
+        for (int i = 0; i < length; i++) {
+            addMove(algo, moves[i]);
+        }
+        return algo;
+    }
+
+    public static String moveName(int move) {
+        String name = String.valueOf(faceNames.charAt(move / 3));
+        switch (move % 3) {
+            case 1: return name + "2";
+            case 2: return name + "'";
+            default: return name;
+        }
+    }
+
+    /**
+     * The sequence undoing @moves
+     * */
+    public static int[] inverseMoves(int[] moves) {
+        int[] inverse = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            int move = moves[moves.length - 1 - i];
+            inverse[i] = move - move % 3 + 2 - move % 3;
+        }
+        return inverse;
+    }
+
+    /**
+     * Moves of a sequence written as by moveName, separated by spaces, like "R U2 F' D"
+     * @throws InvalidParameterException on anything else
+     * */
+    public static int[] parseMoves(String sequence) {
+        String[] names = sequence.trim().split("\\s+");
+        if (names.length == 1 && names[0].isEmpty()) {
+            return new int[0];
+        }
+        int[] moves = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int face = faceNames.indexOf(name.charAt(0));
+            // Quarter turn, then the suffixes of moveName
+            int power = name.length() == 1 ? 0 :
+                    name.length() == 2 ? " 2'".indexOf(name.charAt(1)) : -1;
+            if (face < 0 || power <= 0 && name.length() > 1) {
+                throw new InvalidParameterException("Unknown move: " + name);
+            }
+            moves[i] = face * 3 + power;
+        }
+        return moves;
+    }
+
+    /**
+     * Read the cubies from a 3x3x3 FaceletCube. Colors are identified by the centers, so any
+     * color scheme and orientation of the cube works.
+     *
+     * Throws InvalidParameterException if the squares don't form valid cubies.
+     * */
+    public static CubieCube fromFacelets(FaceletCube facelets) {
+        if (facelets.getSizeX() != SIZE || facelets.getSizeY() != SIZE ||
+                facelets.getSizeZ() != SIZE) {
+            throw new InvalidParameterException("Not a 3x3x3 cube");
+        }
+
+        // Palette index to face, as defined by the centers
+        int[] colorFace = new int[facelets.getPaletteSize()];
+        Arrays.fill(colorFace, -1);
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            colorFace[facelets.get(face, CENTER)] = face;
+        }
+
+        CubieCube cube = new CubieCube();
+        int[] faces = new int[3];
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            int ori;
+            for (ori = 0; ori < 3; ori++) {
+                int face = colorFace[facelets.get(cornerFacelet[i][ori])];
+                if (face == Cube.FACE_TOP || face == Cube.FACE_BOTTOM) break;
+            }
+            if (ori == 3) {
+                throw new InvalidParameterException("Corner " + i + " has no U/D color");
+            }
+            for (int k = 0; k < 3; k++) {
+                faces[k] = colorFace[facelets.get(cornerFacelet[i][(ori + k) % 3])];
+            }
+            int j;
+            for (j = 0; j < CORNER_COUNT; j++) {
+                if (faces[0] == cornerFacelet[j][0] / FACE_SIZE &&
+                        faces[1] == cornerFacelet[j][1] / FACE_SIZE &&
+                        faces[2] == cornerFacelet[j][2] / FACE_SIZE) {
+                    break;
+                }
+            }
+            if (j == CORNER_COUNT) {
+                throw new InvalidParameterException("Invalid corner at " + i);
+            }
+            cube.cp[i] = (byte) j;
+            cube.co[i] = (byte) ori;
+        }
+
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            int face0 = colorFace[facelets.get(edgeFacelet[i][0])];
+            int face1 = colorFace[facelets.get(edgeFacelet[i][1])];
+            int j;
+            for (j = 0; j < EDGE_COUNT; j++) {
+                int a = edgeFacelet[j][0] / FACE_SIZE;
+                int b = edgeFacelet[j][1] / FACE_SIZE;
+                if (face0 == a && face1 == b) {
+                    cube.eo[i] = 0;
+                    break;
+                }
+                if (face0 == b && face1 == a) {
+                    cube.eo[i] = 1;
+                    break;
+                }
+            }
+            if (j == EDGE_COUNT) {
+                throw new InvalidParameterException("Invalid edge at " + i);
+            }
+            cube.ep[i] = (byte) j;
+        }
+        return cube;
+    }
+
+    /**
+     * Write the cubies to a 3x3x3 FaceletCube, keeping its center colors.
+     * */
+    public void toFacelets(FaceletCube facelets) {
+        byte[] faceColor = new byte[Cube.FACE_COUNT];
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            faceColor[face] = (byte) facelets.get(face, CENTER);
+        }
+        byte[] squares = facelets.mFacelets;
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            for (int k = 0; k < 3; k++) {
+                squares[cornerFacelet[i][(k + co[i]) % 3]] =
+                        faceColor[cornerFacelet[cp[i]][k] / FACE_SIZE];
+            }
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            for (int k = 0; k < 2; k++) {
+                squares[edgeFacelet[i][(k + eo[i]) % 2]] =
+                        faceColor[edgeFacelet[ep[i]][k] / FACE_SIZE];
+            }
+        }
+    }
+
+    public FaceletCube toFacelets() {
+        FaceletCube facelets = new FaceletCube(SIZE);
+        toFacelets(facelets);
+        return facelets;
+    }
+
+    /**
+     * this = this * b for corners. Apply b after this.
+     * */
+    public void cornerMultiply(CubieCube b) {
+        byte[] perm = new byte[CORNER_COUNT];
+        byte[] ori = new byte[CORNER_COUNT];
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            perm[i] = cp[b.cp[i]];
+            ori[i] = (byte) ((co[b.cp[i]] + b.co[i]) % 3);
+        }
+        System.arraycopy(perm, 0, cp, 0, CORNER_COUNT);
+        System.arraycopy(ori, 0, co, 0, CORNER_COUNT);
+    }
+
+    /**
+     * this = this * b for edges. Apply b after this.
+     * */
+    public void edgeMultiply(CubieCube b) {
+        byte[] perm = new byte[EDGE_COUNT];
+        byte[] ori = new byte[EDGE_COUNT];
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            perm[i] = ep[b.ep[i]];
+            ori[i] = (byte) ((eo[b.ep[i]] + b.eo[i]) & 1);
+        }
+        System.arraycopy(perm, 0, ep, 0, EDGE_COUNT);
+        System.arraycopy(ori, 0, eo, 0, EDGE_COUNT);
+    }
+
+    public void multiply(CubieCube b) {
+        cornerMultiply(b);
+        edgeMultiply(b);
+    }
+
+    public void move(int move) {
+        multiply(sMoves[move]);
+    }
+
+    public void move(int[] moves, int length) {
+        for (int i = 0; i < length; i++) {
+            multiply(sMoves[moves[i]]);
+        }
+    }
+
+    /**
+     * The cube that undoes this one
+     * */
+    public CubieCube inverse() {
+        CubieCube inv = new CubieCube();
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            inv.ep[ep[i]] = (byte) i;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            inv.eo[i] = eo[inv.ep[i]];
+        }
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            inv.cp[cp[i]] = (byte) i;
+        }
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            inv.co[i] = (byte) ((3 - co[inv.cp[i]]) % 3);
+        }
+        return inv;
+    }
+
+    /**
+     * Position of a corner piece
+     * */
+    public int findCorner(int corner) {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            if (cp[i] == corner) return i;
+        }
+        throw new AssertionError("Corner not found " + corner);
+    }
+
+    /**
+     * Position of an edge piece
+     * */
+    public int findEdge(int edge) {
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            if (ep[i] == edge) return i;
+        }
+        throw new AssertionError("Edge not found " + edge);
+    }
+
+    /**
+     * Coordinates used by the two phase solver.
+     * twist: orientation of the corners, 0 to 3^7 - 1
+     * flip: orientation of the edges, 0 to 2^11 - 1
+     * slice: positions (not order) of the FR, FL, BL, BR edges, 0 to 12C4 - 1; 0 when they
+     *      are in the middle layer
+     * cornerPerm: permutation of the corners, 0 to 8! - 1
+     * udEdgePerm: permutation of the U and D layer edges, valid only if the middle layer edges
+     *      are in the middle layer, 0 to 8! - 1
+     * slicePerm: permutation of the middle layer edges within the middle layer, 0 to 4! - 1
+     *
+     * All of them are 0 for a solved cube.
+     * */
+    static final int N_TWIST = 2187;
+    static final int N_FLIP = 2048;
+    static final int N_SLICE = 495;
+    static final int N_CORNER_PERM = 40320;
+    static final int N_UD_EDGE_PERM = 40320;
+    static final int N_SLICE_PERM = 24;
+
+    /**
+     * Access to the coordinates by name, used to build move tables
+     * */
+    enum Coordinate {
+        TWIST(N_TWIST),
+        FLIP(N_FLIP),
+        SLICE(N_SLICE),
+        CORNER_PERM(N_CORNER_PERM),
+        UD_EDGE_PERM(N_UD_EDGE_PERM),
+        SLICE_PERM(N_SLICE_PERM);
+
+        final int size;
+
+        Coordinate(int size) {
+            this.size = size;
+        }
+
+        int get(CubieCube cube) {
+            switch (this) {
+                case TWIST: return cube.getTwist();
+                case FLIP: return cube.getFlip();
+                case SLICE: return cube.getSlice();
+                case CORNER_PERM: return cube.getCornerPerm();
+                case UD_EDGE_PERM: return cube.getUDEdgePerm();
+                case SLICE_PERM: return cube.getSlicePerm();
+                default: throw new AssertionError();
+            }
+        }
+
+        void set(CubieCube cube, int value) {
+            switch (this) {
+                case TWIST: cube.setTwist(value); break;
+                case FLIP: cube.setFlip(value); break;
+                case SLICE: cube.setSlice(value); break;
+                case CORNER_PERM: cube.setCornerPerm(value); break;
+                case UD_EDGE_PERM: cube.setUDEdgePerm(value); break;
+                case SLICE_PERM: cube.setSlicePerm(value); break;
+                default: throw new AssertionError();
+            }
+        }
+
+        /**
+         * new value = table[value * moves.length + i] after applying moves[i]
+         * */
+        char[] moveTable(int[] moves) {
+            char[] table = new char[size * moves.length];
+            CubieCube cube = new CubieCube();
+            for (int i = 0; i < size; i++) {
+                for (int m = 0; m < moves.length; m++) {
+                    set(cube, i);
+                    cube.multiply(sMoves[moves[m]]);
+                    table[i * moves.length + m] = (char) get(cube);
+                }
+            }
+            return table;
+        }
+    }
+
+    int getTwist() {
+        int twist = 0;
+        for (int i = 0; i < CORNER_COUNT - 1; i++) {
+            twist = twist * 3 + co[i];
+        }
+        return twist;
+    }
+
+    void setTwist(int twist) {
+        int sum = 0;
+        for (int i = CORNER_COUNT - 2; i >= 0; i--) {
+            co[i] = (byte) (twist % 3);
+            sum += co[i];
+            twist /= 3;
+        }
+        co[CORNER_COUNT - 1] = (byte) ((3 - sum % 3) % 3);
+    }
+
+    int getFlip() {
+        int flip = 0;
+        for (int i = 0; i < EDGE_COUNT - 1; i++) {
+            flip = flip * 2 + eo[i];
+        }
+        return flip;
+    }
+
+    void setFlip(int flip) {
+        int sum = 0;
+        for (int i = EDGE_COUNT - 2; i >= 0; i--) {
+            eo[i] = (byte) (flip & 1);
+            sum += eo[i];
+            flip >>= 1;
+        }
+        eo[EDGE_COUNT - 1] = (byte) (sum & 1);
+    }
+
+    int getSlice() {
+        int slice = 0;
+        int found = 0;
+        for (int j = EDGE_COUNT - 1; j >= 0; j--) {
+            if (ep[j] >= FR) {
+                slice += binomial(EDGE_COUNT - 1 - j, found + 1);
+                found++;
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Places the middle layer edges as per @slice and the other edges in order around them
+     * */
+    void setSlice(int slice) {
+        int left = 4;
+        int other = UR;
+        int middle = FR;
+        for (int j = 0; j < EDGE_COUNT; j++) {
+            int count = binomial(EDGE_COUNT - 1 - j, left);
+            if (left > 0 && slice >= count) {
+                ep[j] = (byte) middle++;
+                slice -= count;
+                left--;
+            } else {
+                ep[j] = (byte) other++;
+            }
+        }
+    }
+
+    int getCornerPerm() {
+        return permutationIndex(cp, 0, CORNER_COUNT);
+    }
+
+    void setCornerPerm(int index) {
+        setPermutation(index, cp, 0, CORNER_COUNT);
+    }
+
+    int getUDEdgePerm() {
+        return permutationIndex(ep, 0, FR);
+    }
+
+    void setUDEdgePerm(int index) {
+        setPermutation(index, ep, 0, FR);
+    }
+
+    int getSlicePerm() {
+        return permutationIndex(ep, FR, EDGE_COUNT - FR);
+    }
+
+    void setSlicePerm(int index) {
+        setPermutation(index, ep, FR, EDGE_COUNT - FR);
+    }
+
+    static int binomial(int n, int k) {
+        if (k < 0 || k > n) return 0;
+        int result = 1;
+        for (int i = 0; i < k; i++) {
+            result = result * (n - i) / (i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Rank of the permutation of @count elements starting at @offset, whose values are
+     * offset to offset + count - 1. Identity is 0.
+     * */
+    static int permutationIndex(byte[] perm, int offset, int count) {
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < count; j++) {
+                if (perm[offset + j] < perm[offset + i]) smaller++;
+            }
+            index = index * (count - i) + smaller;
+        }
+        return index;
+    }
+
+    static void setPermutation(int index, byte[] perm, int offset, int count) {
+        int[] digits = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            digits[i] = index % (count - i);
+            index /= count - i;
+        }
+        boolean[] used = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int k = digits[i];
+            int value = 0;
+            while (used[value] || k > 0) {
+                if (!used[value]) k--;
+                value++;
+            }
+            used[value] = true;
+            perm[offset + i] = (byte) (offset + value);
+        }
+    }
+
+    static int permutationParity(byte[] perm) {
+        int parity = 0;
+        for (int i = perm.length - 1; i > 0; i--) {
+            for (int j = i - 1; j >= 0; j--) {
+                if (perm[j] > perm[i]) parity++;
+            }
+        }
+        return parity & 1;
+    }
+
+    public int cornerParity() {
+        return permutationParity(cp);
+    }
+
+    public int edgeParity() {
+        return permutationParity(ep);
+    }
+
+    /**
+     * Check that the cube can be solved
+     * @return 0 if the cube is fine, or a negative value describing the problem:
+     *      -1: an edge is missing or duplicated
+     *      -2: one edge has to be flipped
+     *      -3: a corner is missing or duplicated
+     *      -4: one corner has to be twisted
+     *      -5: two pieces have to be exchanged
+     * */
+    public int verify() {
+        boolean[] found = new boolean[EDGE_COUNT];
+        int sum = 0;
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            if (ep[i] < 0 || ep[i] >= EDGE_COUNT || found[ep[i]]) return -1;
+            found[ep[i]] = true;
+            sum += eo[i];
+        }
+        if (sum % 2 != 0) return -2;
+
+        found = new boolean[CORNER_COUNT];
+        sum = 0;
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            if (cp[i] < 0 || cp[i] >= CORNER_COUNT || found[cp[i]]) return -3;
+            found[cp[i]] = true;
+            sum += co[i];
+        }
+        if (sum % 3 != 0) return -4;
+
+        if (edgeParity() != cornerParity()) return -5;
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CubieCube)) return false;
+        CubieCube that = (CubieCube) obj;
+        return Arrays.equals(cp, that.cp) && Arrays.equals(co, that.co) &&
+                Arrays.equals(ep, that.ep) && Arrays.equals(eo, that.eo);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(cp) * 31 + Arrays.hashCode(ep) * 7 +
+                Arrays.hashCode(co) * 3 + Arrays.hashCode(eo);
+    }
+
+    @Override
+    public String toString() {
+        return "cp " + Arrays.toString(cp) + " co " + Arrays.toString(co) +
+                " ep " + Arrays.toString(ep) + " eo " + Arrays.toString(eo);
+    }
+}
@@ -0,0 +1,862 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Iterative deepening A* for cuboids like 2x3x3 or 3x3x4, where the layers around an axis
+ * whose cross section is not square only turn by 180'.
+ *
+ * The piece at the corner DRB is never turned, so the solved state has a single orientation:
+ * any other layer turn takes its place, turning that layer is the same as turning the rest of
+ * the cuboid the other way. The moves are quarter and half turns of every other layer, or just
+ * the half turn on the restricted axes, each counted as one move.
+ *
+ * A piece is followed by the facelet where its first square is, which also gives its
+ * orientation. Pieces that can take each other's place form an orbit. The heuristic is the
+ * largest of the pattern databases over the pieces of every orbit: each database holds the
+ * exact distance to bring a group of pieces home, and an orbit is split into as many groups as
+ * needed to keep the databases within MAX_TABLE_SIZE entries. Pieces with the same colors, like
+ * the centers of a face, may end up in each other's place, so the databases are filled from all
+ * such goal states. They are built once per cuboid and kept by PruningTableStore.
+ *
+ * Solutions are optimal among the moves that keep DRB in place when one is found within
+ * OPTIMAL_TIME_LIMIT_MS. Otherwise the groups are brought home one after the other, each
+ * search keeping the groups before in place. A group that takes more than STAGE_NODE_LIMIT
+ * nodes is brought home a few pieces at a time, with the tables of the first pieces of the
+ * group, halving the pieces until the search fits: solutions get longer, but searches stay
+ * short. Big cuboids may still take too long; the search stops after mTimeLimit and can be
+ * cancelled from another thread.
+ */
+public class CuboidSolver implements CancellableSolver {
+
+    private static final String tag = "rubik-cuboid";
+
+    public static final long DEFAULT_TIME_LIMIT_MS = 30000;
+    // Time spent looking for an optimal solution before going group by group, at most
+    static final int OPTIMAL_SHARE_PERCENT = 20;
+    static final long OPTIMAL_TIME_LIMIT_MS = 300;
+    // Nodes a stage may take before it is split, as checked every 4096 nodes
+    static final long STAGE_NODE_LIMIT = 20000;
+
+    static final int MAX_DEPTH = 40;
+    static final int MAX_TABLE_SIZE = 1 << 23;
+
+    /**
+     * Version of the pattern databases in PruningTableStore, to be bumped whenever the way
+     * they are indexed or filled changes
+     * */
+    private static final int TABLE_VERSION = 2;
+
+    private static final HashMap<String, Model> sModels = new HashMap<>();
+
+    private long mTimeLimit = DEFAULT_TIME_LIMIT_MS;
+    private volatile boolean mCancelled;
+
+    private Model mModel;
+    private long mDeadline;
+    private boolean mStopped;
+    private long mNodes;
+    private long mNodeLimit;
+    private int[][] mLocations;
+    private int[] mPath;
+
+    public CuboidSolver() {
+    }
+
+    public void setTimeLimit(long millis) {
+        mTimeLimit = millis;
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @throws IllegalStateException if the search was cancelled or ran out of time
+     * */
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        try {
+            return search(cube);
+        } finally {
+            // Only once the search is over, so a cancel() made before it started isn't lost
+            mCancelled = false;
+        }
+    }
+
+    private Algorithm search(FaceletCube cube) {
+        if (mCancelled) {
+            throw new IllegalStateException("Search cancelled");
+        }
+        mModel = getModel(cube.getSizeX(), cube.getSizeY(), cube.getSizeZ());
+        long start = System.currentTimeMillis();
+        mStopped = false;
+        mNodes = 0;
+        mLocations = new int[MAX_DEPTH + 1][];
+        mLocations[0] = mModel.locate(cube);
+        mPath = new int[MAX_DEPTH];
+        int groupCount = mModel.groupCount;
+        int[] allTables = stageTables(groupCount - 1, mModel.groups[groupCount - 1].length);
+        if (mModel.distance(mLocations[0], allTables) >= PruningTable.UNKNOWN) {
+            throw new InvalidParameterException("Unsolvable cuboid");
+        }
+
+        ArrayList<Integer> solution = new ArrayList<>();
+        mDeadline = start + Math.min(mTimeLimit * OPTIMAL_SHARE_PERCENT / 100,
+                OPTIMAL_TIME_LIMIT_MS);
+        mNodeLimit = Long.MAX_VALUE;
+        if (!search(allTables, solution)) {
+            Log.w(tag, "No optimal solution after " + mNodes + " nodes, going by groups");
+            mDeadline = start + mTimeLimit;
+            for (int group = 0; group < groupCount; group++) {
+                solveGroup(group, solution, start);
+            }
+        }
+        Log.w(tag, "Solution: " + solution.size() + " moves, " + mNodes + " nodes in " +
+                (System.currentTimeMillis() - start) + "ms");
+
+        Algorithm algo = new Algorithm();
+        FaceletCube check = new FaceletCube(cube);
+        for (int move : solution) {
+            for (int layerMove : mModel.moves[move]) {
+                algo.addStep(mModel.table.getAxis(layerMove), MoveTable.getDirection(layerMove),
+                        mModel.table.getLayer(layerMove));
+                check.rotate(layerMove);
+            }
+        }
+        // Pieces are followed by one square, mirrored pieces still look wrong at the end
+        if (!check.isSolved()) {
+            throw new InvalidParameterException("Invalid pieces");
+        }
+        return algo;
+    }
+
+    /**
+     * Bring home the pieces of @group, keeping the groups before it in place. As many pieces
+     * as possible are added at once, halving them whenever a search goes past
+     * STAGE_NODE_LIMIT nodes; a single piece is searched until the deadline.
+     * */
+    private void solveGroup(int group, ArrayList<Integer> solution, long start) {
+        int count = mModel.groups[group].length;
+        int done = 0;
+        int step = count;
+        while (done < count) {
+            mStopped = false;
+            mNodeLimit = step == 1 ? Long.MAX_VALUE : mNodes + STAGE_NODE_LIMIT;
+            if (search(stageTables(group, done + step), solution)) {
+                done += step;
+                step = count - done;
+            } else if (step > 1 && !mCancelled && System.currentTimeMillis() <= mDeadline) {
+                step = (step + 1) / 2;
+            } else {
+                throw new IllegalStateException("No solution after " + mNodes + " nodes in " +
+                        (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+    }
+
+    /**
+     * Tables of the groups before @group and of the first @count pieces of @group
+     * */
+    private int[] stageTables(int group, int count) {
+        int[] tables = new int[group + 1];
+        for (int g = 0; g < group; g++) {
+            tables[g] = g;
+        }
+        tables[group] = mModel.prefixTables[group][count];
+        return tables;
+    }
+
+    /**
+     * Shortest sequence from mLocations[0] that brings home the pieces of @tables. The moves
+     * are added to @solution and mLocations[0] is updated.
+     * @return false if the search was stopped
+     * */
+    private boolean search(int[] tables, ArrayList<Integer> solution) {
+        int bound = mModel.distance(mLocations[0], tables);
+        for (; bound <= MAX_DEPTH; bound++) {
+            if (bound == 0 || search(0, bound, tables)) break;
+            if (mStopped) return false;
+            Log.d(tag, "Tables " + Arrays.toString(tables) + ", depth " + bound + " done, " +
+                    mNodes + " nodes");
+        }
+        if (bound > MAX_DEPTH) {
+            throw new IllegalStateException("No solution within " + MAX_DEPTH + " moves");
+        }
+        for (int i = 0; i < bound; i++) {
+            solution.add(mPath[i]);
+        }
+        if (bound > 0) {
+            System.arraycopy(mLocations[bound], 0, mLocations[0], 0, mLocations[0].length);
+        }
+        return true;
+    }
+
+    private boolean search(int depth, int bound, int[] tables) {
+        if ((++mNodes & 0xFFF) == 0 && (mCancelled || mNodes > mNodeLimit ||
+                System.currentTimeMillis() > mDeadline)) {
+            mStopped = true;
+        }
+        if (mStopped) return false;
+
+        int[] locations = mLocations[depth];
+        if (mLocations[depth + 1] == null) {
+            mLocations[depth + 1] = new int[locations.length];
+        }
+        int[] next = mLocations[depth + 1];
+        for (int move = 0; move < mModel.moves.length; move++) {
+            if (depth > 0 && mModel.isRedundant(mPath[depth - 1], move)) continue;
+
+            int[] targets = mModel.faceletTargets[move];
+            for (int i = 0; i < locations.length; i++) {
+                next[i] = targets[locations[i]];
+            }
+            int distance = mModel.distance(next, tables);
+            if (depth + 1 + distance > bound) continue;
+
+            mPath[depth] = move;
+            if (distance == 0) return true;
+            if (search(depth + 1, bound, tables)) return true;
+            if (mStopped) return false;
+        }
+        return false;
+    }
+
+    private static Model getModel(int sizeX, int sizeY, int sizeZ) {
+        if (sizeX < 2 || sizeY < 2 || sizeZ < 2) {
+            throw new InvalidParameterException("Too thin: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        String key = sizeX + "x" + sizeY + "x" + sizeZ;
+        synchronized (sModels) {
+            Model model = sModels.get(key);
+            if (model == null) {
+                long start = System.currentTimeMillis();
+                model = new Model(sizeX, sizeY, sizeZ);
+                sModels.put(key, model);
+                Log.w(tag, key + ": " + model.moves.length + " moves, " + model.tables.length +
+                        " tables ready in " + (System.currentTimeMillis() - start) + "ms");
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Pieces, moves and pattern databases of a cuboid, shared by all solvers of that size
+     * */
+    private static class Model {
+
+        final MoveTable table;
+
+        // Layer turns of every move, in MoveTable encoding
+        final int[][] moves;
+        final Axis[] moveAxis;
+        final int[] moveLayer;
+        // Where the square at each facelet goes with each move
+        final int[][] faceletTargets;
+
+        private final int mSizeX;
+        private final int mSizeY;
+        private final int mSizeZ;
+        private final int[] mFaceOffsets = new int[Cube.FACE_COUNT];
+        private final int mFaceletCount;
+
+        // Facelets of every piece, in increasing order. The first one follows the piece.
+        private final int[][] mPieceFacelets;
+        private final int[] mFaceletPiece;
+        private final int[] mFaceletOrientation;
+
+        private final int[] mPieceOrbit;
+        // Place of a piece among the pieces of its orbit
+        private final int[] mPieceSlot;
+        private final int[][] mOrbitPieces;
+        // Facelets a piece can take its first square to
+        private final boolean[][] mReachable;
+        /**
+         * Orientations told apart in every orbit. Often a piece fits a place in a single
+         * orientation, when turns by 180' are all that bring it there, and the place is enough.
+         * */
+        private final int[] mOrbitFaces;
+        // First square of every piece at every place of its orbit, for orbits of one orientation
+        private final int[][] mSlotLocation;
+
+        /**
+         * Pieces followed by each pattern database, as indices in the locations array. The
+         * groups that split the orbits come first, then the first pieces of each of them.
+         * */
+        final int[][] groups;
+        final int groupCount;
+        // Table of the first n pieces of every group, by group and n
+        final int[][] prefixTables;
+        final PruningTable[] tables;
+        private final int[] mGroupSlots;
+        private final int[] mGroupFaces;
+        private final int[] mGroupOrientations;
+
+        Model(int sizeX, int sizeY, int sizeZ) {
+            mSizeX = sizeX;
+            mSizeY = sizeY;
+            mSizeZ = sizeZ;
+            table = MoveTable.get(sizeX, sizeY, sizeZ);
+            mFaceletCount = MoveTable.faceOffsets(sizeX, sizeY, sizeZ, mFaceOffsets);
+
+            // Pieces by position, leaving out DRB
+            int fixed = position(sizeX - 1, 0, 0);
+            int[] positionPiece = new int[sizeX * sizeY * sizeZ];
+            Arrays.fill(positionPiece, -1);
+            ArrayList<ArrayList<Integer>> pieces = new ArrayList<>();
+            mFaceletPiece = new int[mFaceletCount];
+            mFaceletOrientation = new int[mFaceletCount];
+            for (int facelet = 0; facelet < mFaceletCount; facelet++) {
+                int position = facePosition(facelet);
+                if (position == fixed) {
+                    mFaceletPiece[facelet] = -1;
+                    continue;
+                }
+                if (positionPiece[position] < 0) {
+                    positionPiece[position] = pieces.size();
+                    pieces.add(new ArrayList<Integer>());
+                }
+                ArrayList<Integer> facelets = pieces.get(positionPiece[position]);
+                mFaceletPiece[facelet] = positionPiece[position];
+                mFaceletOrientation[facelet] = facelets.size();
+                facelets.add(facelet);
+            }
+            mPieceFacelets = new int[pieces.size()][];
+            for (int piece = 0; piece < mPieceFacelets.length; piece++) {
+                mPieceFacelets[piece] = toArray(pieces.get(piece));
+            }
+
+            ArrayList<int[]> moveList = new ArrayList<>();
+            ArrayList<Axis> axisList = new ArrayList<>();
+            ArrayList<Integer> layerList = new ArrayList<>();
+            for (Axis axis : Axis.values()) {
+                boolean symmetric = isSymmetricAroundAxis(axis);
+                int fixedLayer = axis == Axis.X_AXIS ? sizeX - 1 : 0;
+                for (int layer = 0; layer < table.getAxisSize(axis); layer++) {
+                    if (layer == fixedLayer) continue;
+                    int cw = table.encode(axis, Direction.CLOCKWISE, layer);
+                    moveList.add(new int[] {cw});
+                    if (symmetric) {
+                        moveList.add(new int[] {MoveTable.inverse(cw)});
+                        moveList.add(new int[] {cw, cw});
+                    }
+                    while (axisList.size() < moveList.size()) {
+                        axisList.add(axis);
+                        layerList.add(layer);
+                    }
+                }
+            }
+            moves = moveList.toArray(new int[moveList.size()][]);
+            moveAxis = axisList.toArray(new Axis[axisList.size()]);
+            moveLayer = toArray(layerList);
+            faceletTargets = new int[moves.length][];
+            for (int move = 0; move < moves.length; move++) {
+                faceletTargets[move] = faceletTargets(moves[move]);
+            }
+
+            // Orbits: pieces that a move takes to each other's place
+            mPieceOrbit = new int[mPieceFacelets.length];
+            for (int piece = 0; piece < mPieceOrbit.length; piece++) {
+                mPieceOrbit[piece] = piece;
+            }
+            for (int[] targets : faceletTargets) {
+                for (int piece = 0; piece < mPieceFacelets.length; piece++) {
+                    union(piece, mFaceletPiece[targets[mPieceFacelets[piece][0]]]);
+                }
+            }
+            ArrayList<ArrayList<Integer>> orbits = new ArrayList<>();
+            int[] rootOrbit = new int[mPieceOrbit.length];
+            Arrays.fill(rootOrbit, -1);
+            mPieceSlot = new int[mPieceOrbit.length];
+            for (int piece = 0; piece < mPieceOrbit.length; piece++) {
+                int root = find(piece);
+                if (rootOrbit[root] < 0) {
+                    rootOrbit[root] = orbits.size();
+                    orbits.add(new ArrayList<Integer>());
+                }
+                mPieceSlot[piece] = orbits.get(rootOrbit[root]).size();
+                orbits.get(rootOrbit[root]).add(piece);
+            }
+            mOrbitPieces = new int[orbits.size()][];
+            for (int orbit = 0; orbit < mOrbitPieces.length; orbit++) {
+                mOrbitPieces[orbit] = toArray(orbits.get(orbit));
+                // Slots in use are kept in a long
+                if (mOrbitPieces[orbit].length > Long.SIZE) {
+                    throw new InvalidParameterException("Too many pieces for the solver");
+                }
+                for (int piece : mOrbitPieces[orbit]) {
+                    mPieceOrbit[piece] = orbit;
+                    if (mPieceFacelets[piece].length != mPieceFacelets[mOrbitPieces[orbit][0]]
+                            .length) {
+                        throw new AssertionError("Mixed pieces in orbit " + orbit);
+                    }
+                }
+            }
+
+            mReachable = new boolean[mPieceFacelets.length][];
+            mSlotLocation = new int[mPieceFacelets.length][];
+            mOrbitFaces = new int[mOrbitPieces.length];
+            for (int orbit = 0; orbit < mOrbitPieces.length; orbit++) {
+                boolean oriented = false;
+                for (int piece : mOrbitPieces[orbit]) {
+                    mReachable[piece] = reachable(mPieceFacelets[piece][0]);
+                    mSlotLocation[piece] = new int[mOrbitPieces[orbit].length];
+                    Arrays.fill(mSlotLocation[piece], -1);
+                    for (int facelet = 0; facelet < mFaceletCount; facelet++) {
+                        if (!mReachable[piece][facelet]) continue;
+                        int slot = mPieceSlot[mFaceletPiece[facelet]];
+                        if (mSlotLocation[piece][slot] >= 0) oriented = true;
+                        mSlotLocation[piece][slot] = facelet;
+                    }
+                }
+                mOrbitFaces[orbit] = oriented ? mPieceFacelets[mOrbitPieces[orbit][0]].length : 1;
+            }
+
+            ArrayList<int[]> groupList = new ArrayList<>();
+            for (int orbit = 0; orbit < mOrbitPieces.length; orbit++) {
+                int[] orbitPieces = mOrbitPieces[orbit];
+                int count = orbitPieces.length;
+                int groupSize = count;
+                while (groupSize > 1 && groupTableSize(orbit, groupSize) > MAX_TABLE_SIZE) {
+                    groupSize--;
+                }
+                for (int first = 0; first < count; first += groupSize) {
+                    groupList.add(Arrays.copyOfRange(orbitPieces, first,
+                            Math.min(count, first + groupSize)));
+                }
+            }
+            groupCount = groupList.size();
+            prefixTables = new int[groupCount][];
+            for (int g = 0; g < groupCount; g++) {
+                int[] group = groupList.get(g);
+                prefixTables[g] = new int[group.length + 1];
+                for (int count = 1; count < group.length; count++) {
+                    prefixTables[g][count] = groupList.size();
+                    groupList.add(Arrays.copyOf(group, count));
+                }
+                prefixTables[g][group.length] = g;
+            }
+            groups = groupList.toArray(new int[groupList.size()][]);
+            mGroupSlots = new int[groups.length];
+            mGroupFaces = new int[groups.length];
+            mGroupOrientations = new int[groups.length];
+            for (int g = 0; g < groups.length; g++) {
+                int orbit = mPieceOrbit[groups[g][0]];
+                mGroupSlots[g] = mOrbitPieces[orbit].length;
+                mGroupFaces[g] = mOrbitFaces[orbit];
+                mGroupOrientations[g] = power(mOrbitFaces[orbit], groups[g].length);
+            }
+            tables = new PruningTable[groups.length];
+            String name = "cuboid-" + sizeX + "x" + sizeY + "x" + sizeZ + "-";
+            for (int g = 0; g < groups.length; g++) {
+                final int group = g;
+                tables[g] = PruningTableStore.load(name + g, TABLE_VERSION,
+                        groupTableSize(mPieceOrbit[groups[g][0]], groups[g].length),
+                        new PruningTableStore.Generator() {
+                            @Override
+                            public void generate(PruningTable table) {
+                                fillTable(table, group);
+                            }
+                        });
+            }
+        }
+
+        /**
+         * Same layer twice, or layers of the same axis out of order as they commute
+         * */
+        boolean isRedundant(int lastMove, int move) {
+            return moveAxis[lastMove] == moveAxis[move] && moveLayer[lastMove] >= moveLayer[move];
+        }
+
+        /**
+         * Lower bound of the moves to bring home the pieces of the groups of @tableIndices
+         * */
+        int distance(int[] locations, int[] tableIndices) {
+            int distance = 0;
+            for (int g : tableIndices) {
+                int value = tables[g].get(encode(g, locations, false));
+                if (value > distance) distance = value;
+            }
+            return distance;
+        }
+
+        /**
+         * Index in the table of group @g of the pieces at @locations, which holds the location
+         * of every piece, or of the pieces of the group only if @groupOnly
+         * */
+        private int encode(int g, int[] locations, boolean groupOnly) {
+            int[] group = groups[g];
+            int slots = mGroupSlots[g];
+            int faces = mGroupFaces[g];
+            int rank = 0;
+            long used = 0;
+            int orientation = 0;
+            for (int i = 0; i < group.length; i++) {
+                int location = groupOnly ? locations[i] : locations[group[i]];
+                int slot = mPieceSlot[mFaceletPiece[location]];
+                rank = rank * (slots - i) + slot - Long.bitCount(used & ((1L << slot) - 1));
+                used |= 1L << slot;
+                if (faces > 1) {
+                    orientation = orientation * faces + mFaceletOrientation[location];
+                }
+            }
+            return rank * mGroupOrientations[g] + orientation;
+        }
+
+        /**
+         * Locations of the pieces of group @g at @index of its table
+         * */
+        private void decode(int g, int index, int[] locations) {
+            int[] group = groups[g];
+            int slots = mGroupSlots[g];
+            int faces = mGroupFaces[g];
+            int[] orbitPieces = mOrbitPieces[mPieceOrbit[group[0]]];
+            int orientation = index % mGroupOrientations[g];
+            int rank = index / mGroupOrientations[g];
+            int[] digits = new int[group.length];
+            for (int i = group.length - 1; i >= 0; i--) {
+                digits[i] = rank % (slots - i);
+                rank /= slots - i;
+            }
+            long used = 0;
+            for (int i = 0; i < group.length; i++) {
+                int slot = 0;
+                for (int skip = digits[i]; skip > 0 || (used & (1L << slot)) != 0; slot++) {
+                    if ((used & (1L << slot)) == 0) skip--;
+                }
+                used |= 1L << slot;
+                locations[i] = faces > 1 ? orbitPieces[slot] : mSlotLocation[group[i]][slot];
+            }
+            if (faces > 1) {
+                for (int i = group.length - 1; i >= 0; i--) {
+                    locations[i] = mPieceFacelets[locations[i]][orientation % faces];
+                    orientation /= faces;
+                }
+            }
+        }
+
+        /**
+         * Facelet holding the first square of every piece of @cube. The colors of the faces
+         * are those of DRB on its faces and, on the others, the colors never found on a corner
+         * with those.
+         * */
+        int[] locate(FaceletCube cube) {
+            int paletteSize = cube.getPaletteSize();
+            boolean[][] adjacent = new boolean[paletteSize][paletteSize];
+            boolean[] used = new boolean[paletteSize];
+            int[] faceColors = new int[Cube.FACE_COUNT];
+            for (int x = 0; x < mSizeX; x += mSizeX - 1) {
+                for (int y = 0; y < mSizeY; y += mSizeY - 1) {
+                    for (int z = 0; z < mSizeZ; z += mSizeZ - 1) {
+                        int[] corner = cornerFacelets(position(x, y, z));
+                        for (int i = 0; i < corner.length; i++) {
+                            int color = cube.get(corner[i]);
+                            int next = cube.get(corner[(i + 1) % corner.length]);
+                            adjacent[color][next] = adjacent[next][color] = true;
+                            used[color] = true;
+                            if (x > 0 && y == 0 && z == 0) {
+                                faceColors[face(corner[i])] = color;
+                            }
+                        }
+                    }
+                }
+            }
+            faceColors[Cube.FACE_TOP] =
+                    ReductionSolver.opposite(faceColors[Cube.FACE_BOTTOM], adjacent, used);
+            faceColors[Cube.FACE_LEFT] =
+                    ReductionSolver.opposite(faceColors[Cube.FACE_RIGHT], adjacent, used);
+            faceColors[Cube.FACE_FRONT] =
+                    ReductionSolver.opposite(faceColors[Cube.FACE_BACK], adjacent, used);
+            int[] colorFace = new int[paletteSize];
+            Arrays.fill(colorFace, -1);
+            for (int face = 0; face < Cube.FACE_COUNT; face++) {
+                colorFace[faceColors[face]] = face;
+            }
+
+            // Where the first square of each piece would be at each position
+            int[][] candidates = new int[mPieceFacelets.length][];
+            for (int position = 0; position < mPieceFacelets.length; position++) {
+                int[] facelets = mPieceFacelets[position];
+                candidates[position] = new int[mPieceFacelets.length];
+                Arrays.fill(candidates[position], -1);
+                for (int piece : mOrbitPieces[mPieceOrbit[position]]) {
+                    if (!hasColors(piece, facelets, cube, colorFace)) continue;
+                    int first = face(mPieceFacelets[piece][0]);
+                    for (int facelet : facelets) {
+                        if (colorFace[cube.get(facelet)] == first &&
+                                mReachable[piece][facelet]) {
+                            candidates[position][piece] = facelet;
+                        }
+                    }
+                }
+            }
+
+            // Pieces with the same colors are matched to positions they can get to
+            int[] piecePosition = new int[mPieceFacelets.length];
+            Arrays.fill(piecePosition, -1);
+            for (int position = 0; position < mPieceFacelets.length; position++) {
+                if (!match(position, candidates, piecePosition,
+                        new boolean[mPieceFacelets.length])) {
+                    throw new InvalidParameterException("Invalid piece at " +
+                            mPieceFacelets[position][0]);
+                }
+            }
+            int[] locations = new int[mPieceFacelets.length];
+            for (int piece = 0; piece < mPieceFacelets.length; piece++) {
+                locations[piece] = candidates[piecePosition[piece]][piece];
+            }
+            return locations;
+        }
+
+        /**
+         * Augmenting path from @position to a piece in @candidates, moving the pieces matched
+         * in @piecePosition along it
+         * */
+        private static boolean match(int position, int[][] candidates, int[] piecePosition,
+                                     boolean[] visited) {
+            for (int piece = 0; piece < piecePosition.length; piece++) {
+                if (candidates[position][piece] < 0 || visited[piece]) continue;
+                visited[piece] = true;
+                if (piecePosition[piece] < 0 ||
+                        match(piecePosition[piece], candidates, piecePosition, visited)) {
+                    piecePosition[piece] = position;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The squares at @facelets have the colors of the faces of @piece
+         * */
+        private boolean hasColors(int piece, int[] facelets, FaceletCube cube,
+                                  int[] colorFace) {
+            int[] faces = new int[facelets.length];
+            for (int i = 0; i < facelets.length; i++) {
+                faces[i] = colorFace[cube.get(facelets[i])];
+            }
+            int[] pieceFaces = new int[facelets.length];
+            for (int i = 0; i < facelets.length; i++) {
+                pieceFaces[i] = face(mPieceFacelets[piece][i]);
+            }
+            Arrays.sort(faces);
+            Arrays.sort(pieceFaces);
+            return Arrays.equals(faces, pieceFaces);
+        }
+
+        /**
+         * Facelets of the corner at @position, -1 where the corner has no square
+         * */
+        private int[] cornerFacelets(int position) {
+            int[] facelets = new int[3];
+            int count = 0;
+            for (int facelet = 0; facelet < mFaceletCount && count < 3; facelet++) {
+                if (facePosition(facelet) == position) facelets[count++] = facelet;
+            }
+            if (count != 3) throw new AssertionError("Corner without 3 squares: " + position);
+            return facelets;
+        }
+
+        private int groupTableSize(int orbit, int count) {
+            int slots = mOrbitPieces[orbit].length;
+            long size = power(mOrbitFaces[orbit], count);
+            for (int i = 0; i < count; i++) {
+                size *= slots - i;
+            }
+            return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+        }
+
+        /**
+         * Breadth first search from every state where the pieces of group @g look solved
+         * */
+        private void fillTable(PruningTable table, final int g) {
+            final int[] group = groups[g];
+            int[] pieces = mOrbitPieces[mPieceOrbit[group[0]]];
+
+            // Places where each piece looks solved: same faces, first square on the same face
+            int[][] homes = new int[group.length][];
+            for (int i = 0; i < group.length; i++) {
+                ArrayList<Integer> places = new ArrayList<>();
+                int first = face(mPieceFacelets[group[i]][0]);
+                for (int other : pieces) {
+                    if (!hasFaces(other, mPieceFacelets[group[i]])) continue;
+                    for (int facelet : mPieceFacelets[other]) {
+                        if (face(facelet) == first && mReachable[group[i]][facelet]) {
+                            places.add(facelet);
+                        }
+                    }
+                }
+                homes[i] = toArray(places);
+            }
+            ArrayList<Integer> goals = new ArrayList<>();
+            addGoals(g, homes, new int[group.length], 0, goals);
+
+            table.fillReachable(toArray(goals), new PruningTable.Expander() {
+                final int[] locations = new int[group.length];
+                final int[] moved = new int[group.length];
+
+                @Override
+                public int expand(int index, int[] next) {
+                    decode(g, index, locations);
+                    for (int move = 0; move < faceletTargets.length; move++) {
+                        int[] targets = faceletTargets[move];
+                        for (int i = 0; i < locations.length; i++) {
+                            moved[i] = targets[locations[i]];
+                        }
+                        next[move] = encode(g, moved, true);
+                    }
+                    return faceletTargets.length;
+                }
+            }, faceletTargets.length);
+        }
+
+        private void addGoals(int g, int[][] homes, int[] locations, int count,
+                              ArrayList<Integer> goals) {
+            if (count == locations.length) {
+                goals.add(encode(g, locations, true));
+                return;
+            }
+            for (int home : homes[count]) {
+                boolean taken = false;
+                for (int i = 0; i < count; i++) {
+                    if (mFaceletPiece[locations[i]] == mFaceletPiece[home]) taken = true;
+                }
+                if (taken) continue;
+                locations[count] = home;
+                addGoals(g, homes, locations, count + 1, goals);
+            }
+        }
+
+        /**
+         * Facelets that the square at @facelet can be taken to
+         * */
+        private boolean[] reachable(int facelet) {
+            boolean[] reachable = new boolean[mFaceletCount];
+            int[] queue = new int[mFaceletCount];
+            int length = 0;
+            reachable[facelet] = true;
+            queue[length++] = facelet;
+            for (int i = 0; i < length; i++) {
+                for (int[] targets : faceletTargets) {
+                    int next = targets[queue[i]];
+                    if (!reachable[next]) {
+                        reachable[next] = true;
+                        queue[length++] = next;
+                    }
+                }
+            }
+            return reachable;
+        }
+
+        /**
+         * @piece has a square on the faces of @facelets
+         * */
+        private boolean hasFaces(int piece, int[] facelets) {
+            if (mPieceFacelets[piece].length != facelets.length) return false;
+            int[] faces = new int[facelets.length];
+            int[] pieceFaces = new int[facelets.length];
+            for (int i = 0; i < facelets.length; i++) {
+                faces[i] = face(facelets[i]);
+                pieceFaces[i] = face(mPieceFacelets[piece][i]);
+            }
+            Arrays.sort(faces);
+            Arrays.sort(pieceFaces);
+            return Arrays.equals(faces, pieceFaces);
+        }
+
+        private int[] faceletTargets(int[] layerMoves) {
+            int[] targets = new int[mFaceletCount];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = i;
+            }
+            for (int move : layerMoves) {
+                int[] sources = table.getSources(move);
+                int[] moveTargets = table.getTargets(move);
+                int[] where = new int[mFaceletCount];
+                for (int i = 0; i < where.length; i++) {
+                    where[i] = i;
+                }
+                for (int i = 0; i < sources.length; i++) {
+                    where[sources[i]] = moveTargets[i];
+                }
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = where[targets[i]];
+                }
+            }
+            return targets;
+        }
+
+        private boolean isSymmetricAroundAxis(Axis axis) {
+            switch (axis) {
+                case X_AXIS: return mSizeY == mSizeZ;
+                case Y_AXIS: return mSizeX == mSizeZ;
+                default: return mSizeX == mSizeY;
+            }
+        }
+
+        private int face(int facelet) {
+            int face = Cube.FACE_COUNT - 1;
+            while (mFaceOffsets[face] > facelet) face--;
+            return face;
+        }
+
+        private int position(int x, int y, int z) {
+            return (x * mSizeY + y) * mSizeZ + z;
+        }
+
+        /**
+         * Position of the piece showing @facelet
+         * */
+        private int facePosition(int facelet) {
+            int face = face(facelet);
+            int width = face == Cube.FACE_LEFT || face == Cube.FACE_RIGHT ? mSizeZ : mSizeX;
+            int row = (facelet - mFaceOffsets[face]) / width;
+            int column = (facelet - mFaceOffsets[face]) % width;
+            int y = mSizeY - 1 - row;
+            switch (face) {
+                case Cube.FACE_FRONT: return position(column, y, mSizeZ - 1);
+                case Cube.FACE_RIGHT: return position(mSizeX - 1, y, mSizeZ - 1 - column);
+                case Cube.FACE_BACK: return position(mSizeX - 1 - column, y, 0);
+                case Cube.FACE_LEFT: return position(0, y, column);
+                case Cube.FACE_TOP: return position(column, mSizeY - 1, row);
+                default: return position(column, 0, mSizeZ - 1 - row);
+            }
+        }
+
+        private int find(int piece) {
+            while (mPieceOrbit[piece] != piece) {
+                mPieceOrbit[piece] = mPieceOrbit[mPieceOrbit[piece]];
+                piece = mPieceOrbit[piece];
+            }
+            return piece;
+        }
+
+        private void union(int piece, int other) {
+            mPieceOrbit[find(piece)] = find(other);
+        }
+
+        private static int power(int base, int exponent) {
+            int result = 1;
+            for (int i = 0; i < exponent; i++) {
+                result *= base;
+            }
+            return result;
+        }
+
+        private static int[] toArray(ArrayList<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+}
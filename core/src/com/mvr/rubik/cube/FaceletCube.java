@@ -0,0 +1,349 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Headless cube state. Colors of all squares are stored as palette indices in a single byte
+ * array, face after face in the FACE_* order. Squares of a face are stored in the same order as
+ * the corresponding m***Squares list of Cube (top-left to bottom-right when looking directly at
+ * that face), so index i of face f here is always mAllFaces[f].get(i) there.
+ *
+ * This class doesn't need any graphics context and is cheap to copy. Solvers and scramblers
+ * should work on this class rather than on the squares of a Cube. Turns are applied from the
+ * precomputed permutations of a MoveTable and don't allocate.
+ *
+ * @see Cube :: rotate(Axis axis, Direction direction, int face)
+ * @see Cube :: rotate(Axis axis, Direction direction)
+ */
+public class FaceletCube {
+
+    private static final int MAX_PALETTE_SIZE = 127;
+
+    private int mSizeX;
+    private int mSizeY;
+    private int mSizeZ;
+
+    private final int[] mFaceOffsets = new int[Cube.FACE_COUNT];
+
+    private MoveTable mMoves;
+
+    byte[] mFacelets;
+
+    /**
+     * Palette index to color. Indices 0 to 5 hold the colors of the faces in solved state,
+     * so a facelet of a solved cube has the same value as its face.
+     * */
+    private int[] mPalette;
+    private int mPaletteSize;
+
+    // Scratch buffer, allocated once per cube
+    private byte[] mTempFacelets;
+
+    public FaceletCube(int sizeX, int sizeY, int sizeZ) {
+        if (sizeX < 1 || sizeY < 1 || sizeZ < 1) {
+            throw new InvalidParameterException(
+                    String.format("Cube Dimen: %d %d %d", sizeX, sizeY, sizeZ));
+        }
+        mSizeX = sizeX;
+        mSizeY = sizeY;
+        mSizeZ = sizeZ;
+        updateFaceOffsets();
+        mMoves = MoveTable.get(sizeX, sizeY, sizeZ);
+        mFacelets = new byte[mMoves.getFaceletCount()];
+        mTempFacelets = new byte[mFacelets.length];
+        mPalette = new int[MAX_PALETTE_SIZE];
+        mPalette[Cube.FACE_FRONT] = Cube.COLOR_FRONT;
+        mPalette[Cube.FACE_RIGHT] = Cube.COLOR_RIGHT;
+        mPalette[Cube.FACE_BACK] = Cube.COLOR_BACK;
+        mPalette[Cube.FACE_LEFT] = Cube.COLOR_LEFT;
+        mPalette[Cube.FACE_TOP] = Cube.COLOR_TOP;
+        mPalette[Cube.FACE_BOTTOM] = Cube.COLOR_BOTTOM;
+        mPaletteSize = Cube.FACE_COUNT;
+        reset();
+    }
+
+    public FaceletCube(int size) {
+        this(size, size, size);
+    }
+
+    public FaceletCube(FaceletCube that) {
+        mSizeX = that.mSizeX;
+        mSizeY = that.mSizeY;
+        mSizeZ = that.mSizeZ;
+        updateFaceOffsets();
+        mMoves = that.mMoves;
+        mFacelets = that.mFacelets.clone();
+        mTempFacelets = new byte[mFacelets.length];
+        mPalette = that.mPalette.clone();
+        mPaletteSize = that.mPaletteSize;
+    }
+
+    public FaceletCube duplicate() {
+        return new FaceletCube(this);
+    }
+
+    /**
+     * Copy the state of another cube of the same dimensions into this one.
+     * */
+    public void set(FaceletCube that) {
+        if (that.mFacelets.length != mFacelets.length) {
+            throw new InvalidParameterException("Cube sizes differ");
+        }
+        mSizeX = that.mSizeX;
+        mSizeY = that.mSizeY;
+        mSizeZ = that.mSizeZ;
+        updateFaceOffsets();
+        mMoves = that.mMoves;
+        System.arraycopy(that.mFacelets, 0, mFacelets, 0, mFacelets.length);
+        System.arraycopy(that.mPalette, 0, mPalette, 0, that.mPaletteSize);
+        mPaletteSize = that.mPaletteSize;
+    }
+
+    /**
+     * Bring the cube to its solved state, each face having the color of its palette index.
+     * */
+    public void reset() {
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            Arrays.fill(mFacelets, mFaceOffsets[face], mFaceOffsets[face] + getFaceArea(face),
+                    (byte) face);
+        }
+    }
+
+    private void updateFaceOffsets() {
+        MoveTable.faceOffsets(mSizeX, mSizeY, mSizeZ, mFaceOffsets);
+    }
+
+    /**
+     * Move table for the current dimensions of the cube
+     * */
+    public MoveTable getMoveTable() {
+        return mMoves;
+    }
+
+    public int getSizeX() {
+        return mSizeX;
+    }
+
+    public int getSizeY() {
+        return mSizeY;
+    }
+
+    public int getSizeZ() {
+        return mSizeZ;
+    }
+
+    public int getAxisSize(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return mSizeX;
+            case Y_AXIS: return mSizeY;
+            case Z_AXIS: return mSizeZ;
+            default: throw new InvalidParameterException();
+        }
+    }
+
+    public boolean isSymmetricAroundAxis(Axis axis) {
+        switch (axis) {
+            case X_AXIS:
+                return mSizeY == mSizeZ;
+            case Y_AXIS:
+                return mSizeX == mSizeZ;
+            case Z_AXIS:
+                return mSizeX == mSizeY;
+        }
+        throw new InvalidParameterException();
+    }
+
+    /**
+     * Number of columns in the given face
+     * */
+    public int getFaceWidth(int face) {
+        switch (face) {
+            case Cube.FACE_LEFT:
+            case Cube.FACE_RIGHT:
+                return mSizeZ;
+            default:
+                return mSizeX;
+        }
+    }
+
+    /**
+     * Number of rows in the given face
+     * */
+    public int getFaceHeight(int face) {
+        switch (face) {
+            case Cube.FACE_TOP:
+            case Cube.FACE_BOTTOM:
+                return mSizeZ;
+            default:
+                return mSizeY;
+        }
+    }
+
+    public int getFaceArea(int face) {
+        return getFaceWidth(face) * getFaceHeight(face);
+    }
+
+    /**
+     * Index of the first square of the given face in the facelet array
+     * */
+    public int getFaceOffset(int face) {
+        return mFaceOffsets[face];
+    }
+
+    /**
+     * Total number of squares
+     * */
+    public int getFaceletCount() {
+        return mFacelets.length;
+    }
+
+    /**
+     * Palette index of the square at @index of @face
+     * */
+    public int get(int face, int index) {
+        return mFacelets[mFaceOffsets[face] + index];
+    }
+
+    /**
+     * Palette index of the square at @index of the facelet array
+     * */
+    public int get(int index) {
+        return mFacelets[index];
+    }
+
+    public int getColor(int face, int index) {
+        return mPalette[mFacelets[mFaceOffsets[face] + index]];
+    }
+
+    public int getColor(int index) {
+        return mPalette[mFacelets[index]];
+    }
+
+    public int getPaletteColor(int paletteIndex) {
+        return mPalette[paletteIndex];
+    }
+
+    public int getPaletteSize() {
+        return mPaletteSize;
+    }
+
+    /**
+     * Find the palette index of a color, adding it to the palette if needed.
+     * */
+    public int getPaletteIndex(int color) {
+        for (int i = 0; i < mPaletteSize; i++) {
+            if (mPalette[i] == color) return i;
+        }
+        if (mPaletteSize == MAX_PALETTE_SIZE) {
+            throw new IllegalStateException("Too many colors: " + mPaletteSize);
+        }
+        mPalette[mPaletteSize] = color;
+        return mPaletteSize++;
+    }
+
+    public void setColor(int face, int index, int color) {
+        mFacelets[mFaceOffsets[face] + index] = (byte) getPaletteIndex(color);
+    }
+
+    public void setFaceColor(int face, int color) {
+        Arrays.fill(mFacelets, mFaceOffsets[face], mFaceOffsets[face] + getFaceArea(face),
+                (byte) getPaletteIndex(color));
+    }
+
+    public void setColor(int color) {
+        Arrays.fill(mFacelets, (byte) getPaletteIndex(color));
+    }
+
+    /**
+     * Every face has a single color
+     * */
+    public boolean isSolved() {
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            int start = mFaceOffsets[face];
+            int end = start + getFaceArea(face);
+            byte color = mFacelets[start];
+            for (int i = start + 1; i < end; i++) {
+                if (mFacelets[i] != color) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rotate the layer specified by @face and @axis. The arguments follow the same convention
+     * as Cube :: rotate(Axis axis, Direction direction, int face).
+     *
+     * If the cube is not symmetric around the axis, the layer is turned by 180' irrespective
+     * of the direction.
+     * */
+    public void rotate(Axis axis, Direction direction, int face) {
+        int maxSize = getAxisSize(axis);
+        if (face < 0 || face >= maxSize) {
+            throw new AssertionError(String.format("face mismsatch %d %d %d: axis %s, face %d",
+                    mSizeX, mSizeY, mSizeZ, axis.toString(), face));
+        }
+        mMoves.apply(mFacelets, mTempFacelets, mMoves.encode(axis, direction, face));
+    }
+
+    /**
+     * Apply a move encoded by the MoveTable of this cube.
+     * */
+    public void rotate(int move) {
+        mMoves.apply(mFacelets, mTempFacelets, move);
+    }
+
+    /**
+     * Apply the first @count encoded moves of @moves.
+     * */
+    public void rotate(int[] moves, int count) {
+        for (int i = 0; i < count; i++) {
+            mMoves.apply(mFacelets, mTempFacelets, moves[i]);
+        }
+    }
+
+    static Direction reverse(Direction direction) {
+        return direction == Direction.CLOCKWISE ?
+                Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+    }
+
+    /**
+     * Rotate the whole cube along the given axis. Follows Cube :: rotate(Axis, Direction), which
+     * reorganizes the squares. Dimensions of a skewed cube are swapped accordingly.
+     * */
+    public void rotate(Axis axis, Direction direction) {
+        mMoves.applyWholeCube(mFacelets, mTempFacelets, axis, direction);
+        byte[] temp = mFacelets;
+        mFacelets = mTempFacelets;
+        mTempFacelets = temp;
+        mMoves = mMoves.getRotatedTable(axis);
+        mSizeX = mMoves.getSizeX();
+        mSizeY = mMoves.getSizeY();
+        mSizeZ = mMoves.getSizeZ();
+        updateFaceOffsets();
+    }
+
+    /**
+     * Same dimensions and same palette indices on every square
+     * */
+    public boolean sameState(FaceletCube that) {
+        return mSizeX == that.mSizeX && mSizeY == that.mSizeY && mSizeZ == that.mSizeZ &&
+                Arrays.equals(mFacelets, that.mFacelets);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            if (face > 0) builder.append(' ');
+            int start = mFaceOffsets[face];
+            for (int i = start; i < start + getFaceArea(face); i++) {
+                builder.append(mFacelets[i]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Solution of every last layer case of a 3x3x3 cube whose first two layers are solved, so the
+ * last layer takes a single lookup instead of inspecting the cube after every algorithm.
+ *
+ * The U layer has 4! * 3^3 * 4! * 2^3 / 2 = 62,208 cases. The table is a shortest path search
+ * over those, where the steps are U turns and the usual last layer algorithms below, all of
+ * which keep the first two layers in place. The cost of a step is the number of quarter turns
+ * played, so the case is solved in the fewest animated turns these algorithms allow. The table
+ * keeps the first step from every case, 1 byte each.
+ */
+class LastLayerTable {
+
+    private static final String tag = "rubik-ll";
+
+    private static final int N_PERM = 24;
+    private static final int N_TWIST = 27;
+    private static final int N_FLIP = 8;
+    private static final int N_CORNER_CASES = N_PERM * N_TWIST;
+    private static final int N_EDGE_CASES = N_PERM * N_FLIP;
+    static final int N_CASES = N_CORNER_CASES * N_EDGE_CASES;
+
+    private static final int LAYER = 4;
+    private static final int NONE = 0xFF;
+    // Symmetries 0 to 7 turn the cube around U and mirror it, keeping U and D in place
+    private static final int Y_SYMMETRIES = 4;
+
+    private static final String[] sAlgorithms = {
+            "U", "U'", "U2",
+            // Edge orientation
+            "F R U R' U' F'",
+            "F U R U' R' F'",
+            // Sune and anti Sune, on either side
+            "R U R' U R U2 R'",
+            "R U2 R' U' R U' R'",
+            "L' U' L U' L' U2 L",
+            "L' U2 L U L' U L",
+            // T, J, U and Y permutations
+            "R U R' U' R' F R2 U' R' U' R U R' F'",
+            "R U R' F' R U R' U' R' F R2 U' R'",
+            "R U' R U R U R U' R' U' R2",
+            "R2 U R U R' U' R' U' R' U R'",
+            "F R U' R' U' R U R' F' R U R' U' R' F R F'",
+            // Corner orientation
+            "R U R' U R U' R' U R U2 R'",
+            "R U2 R2 U' R2 U' R2 U2 R",
+            "R2 D R' U2 R D' R' U2 R'",
+            "R' F R B' R' F' R B",
+            "R U R' U' R' F R F'",
+            // A, H, Z and F permutations
+            "R' F R' B2 R F' R' B2 R2",
+            "R2 B2 R F R' B2 R F' R",
+            "R2 U2 R U2 R2 U2 R2 U2 R U2 R2",
+            "R' U' R U' R U R U' R' U R U R2 U' R' U2",
+            "R' U' F' R U R' U' R' F R2 U' R' U' R U R' U R",
+    };
+
+    private static int[][] sMoves;
+    private static int[] sCost;
+    // First algorithm to apply in every case, NONE if solved or impossible
+    private static byte[] sNext;
+
+    private LastLayerTable() {
+    }
+
+    /**
+     * @return moves in CubieCube numbering that solve @cube, whose first two layers are solved
+     * @throws InvalidParameterException if they are not
+     * */
+    static int[] solve(CubieCube cube) {
+        for (int i = LAYER; i < CubieCube.CORNER_COUNT; i++) {
+            if (cube.cp[i] != i || cube.co[i] != 0) {
+                throw new InvalidParameterException("First layers not solved");
+            }
+        }
+        for (int i = LAYER; i < CubieCube.EDGE_COUNT; i++) {
+            if (cube.ep[i] != i || cube.eo[i] != 0) {
+                throw new InvalidParameterException("First layers not solved");
+            }
+        }
+        init();
+        CubieCube state = new CubieCube(cube);
+        ArrayList<Integer> solution = new ArrayList<>();
+        for (int index = index(state); index != 0; index = index(state)) {
+            int algorithm = sNext[index] & 0xFF;
+            if (algorithm == NONE) {
+                throw new AssertionError("No case " + index);
+            }
+            for (int move : sMoves[algorithm]) {
+                solution.add(move);
+            }
+            state.move(sMoves[algorithm], sMoves[algorithm].length);
+        }
+        int[] moves = new int[solution.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = solution.get(i);
+        }
+        return moves;
+    }
+
+    static synchronized void init() {
+        if (sNext != null) return;
+        long start = System.currentTimeMillis();
+
+        // Every algorithm can also be played mirrored, backwards, or from another side
+        ArrayList<int[]> variants = new ArrayList<>();
+        ArrayList<CubieCube> effects = new ArrayList<>();
+        for (String name : sAlgorithms) {
+            int[] moves = CubieCube.parseMoves(name);
+            for (int s = 0; s < Y_SYMMETRIES * 2; s++) {
+                int[] variant = new int[moves.length];
+                for (int i = 0; i < moves.length; i++) {
+                    variant[i] = Symmetry.conjugateMove(moves[i], s);
+                }
+                addVariant(variant, variants, effects);
+                addVariant(CubieCube.inverseMoves(variant), variants, effects);
+            }
+        }
+        int count = variants.size();
+        if (count >= NONE) {
+            throw new AssertionError("Too many algorithms: " + count);
+        }
+        sMoves = variants.toArray(new int[count][]);
+        sCost = new int[count];
+        CubieCube[] inverses = new CubieCube[count];
+        for (int a = 0; a < count; a++) {
+            for (int move : sMoves[a]) {
+                // Half turns are played as two quarter turns
+                sCost[a] += move % 3 == 1 ? 2 : 1;
+            }
+            inverses[a] = effects.get(a).inverse();
+        }
+
+        // Corners and edges of a case move independently
+        int[] cornerMove = new int[count * N_CORNER_CASES];
+        int[] edgeMove = new int[count * N_EDGE_CASES];
+        CubieCube base = new CubieCube();
+        CubieCube state = new CubieCube();
+        for (int a = 0; a < count; a++) {
+            for (int corners = 0; corners < N_CORNER_CASES; corners++) {
+                decode(corners * N_EDGE_CASES, base);
+                multiply(base, inverses[a], state);
+                cornerMove[a * N_CORNER_CASES + corners] = index(state) / N_EDGE_CASES;
+            }
+            for (int edges = 0; edges < N_EDGE_CASES; edges++) {
+                decode(edges, base);
+                multiply(base, inverses[a], state);
+                edgeMove[a * N_EDGE_CASES + edges] = index(state) % N_EDGE_CASES;
+            }
+        }
+
+        // Dijkstra from the solved case, stepping back through the algorithms. A case reached
+        // from case c by undoing algorithm a is solved by a then the solution of c.
+        byte[] next = new byte[N_CASES];
+        int[] distance = new int[N_CASES];
+        Arrays.fill(next, (byte) NONE);
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        ArrayList<ArrayList<Integer>> buckets = new ArrayList<>();
+        distance[0] = 0;
+        add(buckets, 0, 0);
+        int reached = 0;
+        for (int d = 0; d < buckets.size(); d++) {
+            for (int index : buckets.get(d)) {
+                if (distance[index] != d) continue;
+                reached++;
+                int corners = index / N_EDGE_CASES;
+                int edges = index % N_EDGE_CASES;
+                for (int a = 0; a < count; a++) {
+                    int other = cornerMove[a * N_CORNER_CASES + corners] * N_EDGE_CASES +
+                            edgeMove[a * N_EDGE_CASES + edges];
+                    if (d + sCost[a] < distance[other]) {
+                        distance[other] = d + sCost[a];
+                        next[other] = (byte) a;
+                        add(buckets, distance[other], other);
+                    }
+                }
+            }
+        }
+        if (reached != N_CASES / 2) {
+            throw new AssertionError("Cases reached: " + reached);
+        }
+        sNext = next;
+        Log.w(tag, reached + " cases, at most " + (buckets.size() - 1) + " turns, ready in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Add @moves unless an algorithm with the same effect and no more moves is there
+     * */
+    private static void addVariant(int[] moves, ArrayList<int[]> variants,
+                                   ArrayList<CubieCube> effects) {
+        CubieCube effect = new CubieCube();
+        effect.move(moves, moves.length);
+        for (int i = 0; i < effects.size(); i++) {
+            if (effects.get(i).equals(effect) && variants.get(i).length <= moves.length) return;
+        }
+        variants.add(moves);
+        effects.add(effect);
+    }
+
+    private static void add(ArrayList<ArrayList<Integer>> buckets, int distance, int index) {
+        while (buckets.size() <= distance) {
+            buckets.add(new ArrayList<Integer>());
+        }
+        buckets.get(distance).add(index);
+    }
+
+    /**
+     * @product = @a * @b, for cubes that only differ from the solved one in the U layer
+     * */
+    private static void multiply(CubieCube a, CubieCube b, CubieCube product) {
+        for (int i = 0; i < LAYER; i++) {
+            product.cp[i] = a.cp[b.cp[i]];
+            product.co[i] = (byte) ((a.co[b.cp[i]] + b.co[i]) % 3);
+            product.ep[i] = a.ep[b.ep[i]];
+            product.eo[i] = (byte) ((a.eo[b.ep[i]] + b.eo[i]) & 1);
+        }
+    }
+
+    /**
+     * Case of the U layer pieces, 0 when solved
+     * */
+    private static int index(CubieCube cube) {
+        int twist = 0;
+        int flip = 0;
+        for (int i = 0; i < LAYER - 1; i++) {
+            twist = twist * 3 + cube.co[i];
+            flip = flip * 2 + cube.eo[i];
+        }
+        int corners = CubieCube.permutationIndex(cube.cp, 0, LAYER) * N_TWIST + twist;
+        int edges = CubieCube.permutationIndex(cube.ep, 0, LAYER) * N_FLIP + flip;
+        return corners * N_EDGE_CASES + edges;
+    }
+
+    private static void decode(int index, CubieCube cube) {
+        cube.reset();
+        int edges = index % N_EDGE_CASES;
+        int corners = index / N_EDGE_CASES;
+        CubieCube.setPermutation(corners / N_TWIST, cube.cp, 0, LAYER);
+        CubieCube.setPermutation(edges / N_FLIP, cube.ep, 0, LAYER);
+        int twist = corners % N_TWIST;
+        int flip = edges % N_FLIP;
+        int twistSum = 0;
+        int flipSum = 0;
+        for (int i = LAYER - 2; i >= 0; i--) {
+            cube.co[i] = (byte) (twist % 3);
+            cube.eo[i] = (byte) (flip % 2);
+            twistSum += cube.co[i];
+            flipSum += cube.eo[i];
+            twist /= 3;
+            flip /= 2;
+        }
+        cube.co[LAYER - 1] = (byte) ((3 - twistSum % 3) % 3);
+        cube.eo[LAYER - 1] = (byte) (flipSum % 2);
+    }
+}
@@ -0,0 +1,1119 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An algorithm can't be smarter than the human who devised it.
+ *
+ * This is a beginner's approach to solving 3x3 cube. You will see many easy to think of
+ * improvements in the logic. Like how it takes 150 moves for a cube that could have been
+ * solved in a single move.
+ *
+ * The solver works on a copy of the given state: every step is applied to the copy and appended
+ * to the solution, until the copy is solved. So the whole solution is known before anything is
+ * played. It is then shortened by the AlgorithmOptimizer, which also takes out the whole cube
+ * rotations that a human would make. The steps of each Phase can be found with getPhaseStart()
+ * and getPhaseEnd().
+ *
+ * A piece is stored as the facelets it is made of (face * FACE_AREA + index). The pieces of the
+ * Y axis layers are numbered the same way as Cube :: mYaxisLayers.
+ * */
+public class LayerByLayerSolver implements CubeSolver {
+
+    private static final String tag = "rubik-lbl";
+
+    public enum Phase {
+        FirstFaceCross,
+        FirstFaceCorners,
+        MiddleLayer,
+        LastLayer
+    }
+
+    private static final int SIZE = 3;
+    private static final int FACE_AREA = SIZE * SIZE;
+
+    private static final int FACE_FRONT = Cube.FACE_FRONT;
+    private static final int FACE_RIGHT = Cube.FACE_RIGHT;
+    private static final int FACE_BACK = Cube.FACE_BACK;
+    private static final int FACE_LEFT = Cube.FACE_LEFT;
+    private static final int FACE_TOP = Cube.FACE_TOP;
+    private static final int FACE_BOTTOM = Cube.FACE_BOTTOM;
+    private static final int FACE_COUNT = Cube.FACE_COUNT;
+    private static final int CUBE_SIDES = Cube.CUBE_SIDES;
+
+    // Every phase needs only a few steps, more than this means the solver is going in circles
+    private static final int MAX_STEPS = 1000;
+
+    private static final int INNER = 0;
+    private static final int MIDDLE = 1;
+    private static final int OUTER = 2;
+
+    private static final int FIRST_ROW_LEFT = 0;
+    private static final int FIRST_ROW_CENTER = 1;
+    private static final int FIRST_ROW_RIGHT = 2;
+    private static final int MID_ROW_LEFT = 3;
+    private static final int CENTER = 4;
+    private static final int MID_ROW_RIGHT = 5;
+    private static final int LAST_ROW_LEFT = 6;
+    private static final int LAST_ROW_MIDDLE = 7;
+    private static final int LAST_ROW_RIGHT = 8;
+
+    // Middle row in Y axis starts from mid-front-left and continues anticlockwise
+    private static final int EDGE_MIDDLE_FRONT_LEFT = 0;
+    private static final int EDGE_MIDDLE_FRONT_RIGHT = 2;
+    private static final int EDGE_MIDDLE_RIGHT_BACK = 4;
+    private static final int EDGE_MIDDLE_LEFT_BACK = 6;
+
+    private static final int CORNER_INDEX_FRONT_RIGHT = 0;
+    private static final int CORNER_INDEX_RIGHT_BACK = 1;
+    private static final int CORNER_INDEX_BACK_LEFT = 2;
+    private static final int CORNER_INDEX_LEFT_FRONT = 3;
+
+    // bottom row numbering is similar to front face after a clockwise rotation around X axis
+    private static final int EDGE_BOTTOM_NEAR = FIRST_ROW_CENTER;
+    private static final int EDGE_BOTTOM_RIGHT = MID_ROW_RIGHT;
+    private static final int EDGE_BOTTOM_LEFT = MID_ROW_LEFT;
+    private static final int EDGE_BOTTOM_FAR = LAST_ROW_MIDDLE;
+
+    // top row numbering is similar to front face after a counter clockwise rotation around X axis
+    private static final int EDGE_TOP_FAR = FIRST_ROW_CENTER;
+    private static final int EDGE_TOP_NEAR = LAST_ROW_MIDDLE;
+    private static final int EDGE_TOP_LEFT = MID_ROW_LEFT;
+    private static final int EDGE_TOP_RIGHT = MID_ROW_RIGHT;
+
+    // Faces of the middle layer pieces, in the order of Cube :: mYaxisLayers
+    private static final int[] sMiddleLayerFaces = {FACE_FRONT, FACE_RIGHT, FACE_BACK, FACE_LEFT};
+
+    private static final int[][][] sYaxisLayers = createYaxisLayers();
+
+    private FaceletCube mCube;
+    private Algorithm mSolution;
+    private Phase mPhase;
+    private int mMoveCount;
+    private final int[] mPhaseStart = new int[Phase.values().length];
+    private final int[] mPhaseEnd = new int[Phase.values().length];
+
+    private int mTopColor = 0;
+    private int mBottomColor = 0;
+
+    /**
+     * The cube is left untouched. The first layer is built on the current top face.
+     * */
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        if (cube.getSizeX() != SIZE || cube.getSizeY() != SIZE || cube.getSizeZ() != SIZE) {
+            throw new InvalidParameterException("Not a 3x3 cube: " + cube.getSizeX() + "x" +
+                    cube.getSizeY() + "x" + cube.getSizeZ());
+        }
+        mCube = new FaceletCube(cube);
+        mSolution = new Algorithm();
+        mTopColor = centerColor(FACE_TOP);
+        mBottomColor = centerColor(FACE_BOTTOM);
+        Arrays.fill(mPhaseStart, 0);
+        Arrays.fill(mPhaseEnd, 0);
+        mPhase = Phase.FirstFaceCross;
+
+        for (int i = 0; mPhase != null; i++) {
+            if (i == MAX_STEPS) {
+                throw new InvalidParameterException("No solution found in " + mPhase);
+            }
+            nextStep();
+        }
+        if (!mCube.isSolved()) {
+            throw new InvalidParameterException("This cube can't be solved");
+        }
+
+        // The steps of the method are full of whole cube rotations and turns that cancel out
+        int[] marks = new int[2 * mPhaseStart.length];
+        for (int i = 0; i < mPhaseStart.length; i++) {
+            marks[2 * i] = mPhaseStart[i];
+            marks[2 * i + 1] = mPhaseEnd[i];
+        }
+        Algorithm solution = AlgorithmOptimizer.optimize(mSolution, SIZE, SIZE, SIZE, false,
+                marks);
+        for (int i = 0; i < mPhaseStart.length; i++) {
+            mPhaseStart[i] = marks[2 * i];
+            mPhaseEnd[i] = marks[2 * i + 1];
+        }
+        mMoveCount = 0;
+        for (int i = 0; i < solution.size(); i++) {
+            if (solution.getStep(i).faceCount < SIZE) {
+                mMoveCount++;
+            }
+        }
+        Log.d(tag, "Optimized " + mSolution.size() + " steps to " + solution.size());
+        mCube = null;
+        mSolution = null;
+        return solution;
+    }
+
+    /**
+     * Index of the first step of @phase in the last solution
+     * */
+    public int getPhaseStart(Phase phase) {
+        return mPhaseStart[phase.ordinal()];
+    }
+
+    /**
+     * Index after the last step of @phase in the last solution
+     * */
+    public int getPhaseEnd(Phase phase) {
+        return mPhaseEnd[phase.ordinal()];
+    }
+
+    /**
+     * Number of face turns in the last solution, excluding the whole cube rotations
+     * */
+    public int getMoveCount() {
+        return mMoveCount;
+    }
+
+    private void nextStep() {
+        switch (mPhase) {
+            case FirstFaceCross:
+                firstFaceCross();
+                break;
+
+            case FirstFaceCorners:
+                firstFaceCorners();
+                break;
+
+            case MiddleLayer:
+                middleLayer();
+                break;
+
+            case LastLayer:
+                lastLayer();
+                break;
+        }
+    }
+
+    /**
+     * Append @algo to the solution and play it on the copy
+     * */
+    private void apply(Algorithm algo) {
+        Rotation rotation = new Rotation();
+        while (!algo.isDone()) {
+            algo.getNextStep(rotation);
+            for (int face = rotation.startFace;
+                 face < rotation.startFace + rotation.faceCount;
+                 face++) {
+                mCube.rotate(rotation.axis, rotation.direction, face);
+            }
+            mSolution.addStep(rotation.duplicate());
+        }
+    }
+
+    private void proceedToNextState() {
+        mPhaseEnd[mPhase.ordinal()] = mSolution.size();
+        Log.d(tag, mPhase + " done at step " + mSolution.size());
+        if (mPhase == Phase.LastLayer) {
+            mPhase = null;
+            return;
+        }
+        mPhase = Phase.values()[mPhase.ordinal() + 1];
+        mPhaseStart[mPhase.ordinal()] = mSolution.size();
+
+        if (mPhase == Phase.MiddleLayer) {
+            // First layer goes down
+            apply(Algorithm.rotateWhole(Axis.Z_AXIS, Direction.CLOCKWISE, SIZE, 2));
+        }
+    }
+
+    private static int[][][] createYaxisLayers() {
+        int[][][] layers = new int[SIZE][][];
+        layers[INNER] = new int[FACE_AREA][];
+        layers[MIDDLE] = new int[CUBE_SIDES * (SIZE - 1)][];
+        layers[OUTER] = new int[FACE_AREA][];
+        for (int i = 0; i < FACE_AREA; i++) {
+            layers[INNER][i] = createPiece(FACE_BOTTOM, i);
+            layers[OUTER][i] = createPiece(FACE_TOP, i);
+        }
+        for (int i = 0; i < layers[MIDDLE].length; i++) {
+            layers[MIDDLE][i] = createPiece(sMiddleLayerFaces[i / (SIZE - 1)],
+                    MID_ROW_LEFT + i % (SIZE - 1));
+        }
+        return layers;
+    }
+
+    /**
+     * All facelets on the same piece as @index of @face
+     * */
+    private static int[] createPiece(int face, int index) {
+        int position = piecePosition(face, index);
+        ArrayList<Integer> facelets = new ArrayList<>();
+        for (int f = 0; f < FACE_COUNT; f++) {
+            for (int i = 0; i < FACE_AREA; i++) {
+                if (piecePosition(f, i) == position) {
+                    facelets.add(f * FACE_AREA + i);
+                }
+            }
+        }
+        int[] piece = new int[facelets.size()];
+        for (int i = 0; i < piece.length; i++) {
+            piece[i] = facelets.get(i);
+        }
+        return piece;
+    }
+
+    /**
+     * Position (x, y, z) of the piece holding @index of @face, as x * 9 + y * 3 + z.
+     * Layers are numbered like the layers of Cube, rows of a face like Cube :: createFaces().
+     * */
+    private static int piecePosition(int face, int index) {
+        int row = index / SIZE;
+        int column = index % SIZE;
+        int y = SIZE - 1 - row;
+        int x, z;
+        switch (face) {
+            case FACE_FRONT:
+                x = column;
+                z = SIZE - 1;
+                break;
+            case FACE_RIGHT:
+                x = SIZE - 1;
+                z = SIZE - 1 - column;
+                break;
+            case FACE_BACK:
+                x = SIZE - 1 - column;
+                z = 0;
+                break;
+            case FACE_LEFT:
+                x = 0;
+                z = column;
+                break;
+            case FACE_TOP:
+                x = column;
+                y = SIZE - 1;
+                z = row;
+                break;
+            case FACE_BOTTOM:
+                x = column;
+                y = 0;
+                z = SIZE - 1 - row;
+                break;
+            default:
+                throw new InvalidParameterException("Invalid face " + face);
+        }
+        return (x * SIZE + y) * SIZE + z;
+    }
+
+    private static int[] getPiece(int layer, int pos) {
+        return sYaxisLayers[layer][pos];
+    }
+
+    private static int faceOf(int facelet) {
+        return facelet / FACE_AREA;
+    }
+
+    private int color(int facelet) {
+        return mCube.get(facelet);
+    }
+
+    private int color(int face, int index) {
+        return mCube.get(face, index);
+    }
+
+    private int centerColor(int face) {
+        return mCube.get(face, CENTER);
+    }
+
+    /**
+     * @return the facelet of @piece with @color, or -1
+     * */
+    private int findFacelet(int[] piece, int color) {
+        for (int facelet : piece) {
+            if (color(facelet) == color) {
+                return facelet;
+            }
+        }
+        return -1;
+    }
+
+    private String pieceName(int[] piece) {
+        String s = "" + color(piece[0]);
+        for (int i = 1; i < piece.length; i++) {
+            s += "-" + color(piece[i]);
+        }
+        return s;
+    }
+
+    private void firstFaceCross() {
+        int[] sideFaces = new int[]{
+                FACE_BACK, FACE_LEFT, FACE_RIGHT, FACE_FRONT
+        };
+
+        // TODO: Handle already aligned pieces here
+        for (int i = EDGE_TOP_NEAR; i > 0; i--) {
+            if (i % 2 == 0) {
+                continue;
+            }
+            int sideFace = sideFaces[i / 2];
+            if (color(FACE_TOP, i) == mTopColor &&
+                    color(sideFace, FIRST_ROW_CENTER) == centerColor(sideFace)) {
+                continue;
+            }
+
+            // If the other color in the missing edge is not the front-color, rotate the cube
+            // until it becomes so.
+            if (i != EDGE_TOP_NEAR) {
+                Direction dir = (i == EDGE_TOP_LEFT) ?
+                        Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+                Algorithm algo = Algorithm.rotateWhole(Axis.Y_AXIS, dir, SIZE,
+                        i == EDGE_TOP_FAR ? 2 : 1);
+                apply(algo);
+            } else {
+                fixFirstFaceEdge(mTopColor, centerColor(sideFace));
+            }
+            return;
+        }
+
+        proceedToNextState();
+    }
+
+    private void fixFirstFaceEdge(int topColor, int sideColor) {
+        int[] colors = new int[]{topColor, sideColor};
+        int row = 0, pos = -1;
+        for (row = 0; row < SIZE; row++) {
+            pos = findPieceOnLayer(row, colors);
+            if (pos >= 0) {
+                break;
+            }
+        }
+
+        Log.d(tag, "Found " + topColor + '-' + sideColor + " at " + row + "-" + pos);
+
+        // White on bottom face
+        if (row == INNER && color(FACE_BOTTOM, pos) == topColor) {
+            firstFaceEdge_fromBottomFace(pos);
+        } else if (row == INNER) {
+            firstFaceEdge_fromLowerLayer(pos);
+        } else if (row == MIDDLE) {
+            firstFaceEdge_fromMiddleLayer(pos);
+        } else {
+            firstFaceEdge_fromTopLayer(pos);
+        }
+    }
+
+    private void firstFaceEdge_fromTopLayer(final int pos) {
+        Algorithm algo = new Algorithm();
+        ArrayList<Rotation> middleRotations;
+        Rotation rot = null;
+        int topColoredFace = faceOf(getFaceletByColor(OUTER, pos, mTopColor));
+
+        if (pos == EDGE_TOP_FAR || pos == EDGE_TOP_NEAR) {
+            int faceIndex = topColoredFace == FACE_TOP ? FACE_RIGHT : topColoredFace;
+            rot = new Rotation(Axis.Z_AXIS,
+                    Direction.CLOCKWISE,
+                    pos == EDGE_TOP_FAR ? INNER : OUTER);
+            algo.addStep(rot);
+            middleRotations = middleEdgeToTopEdge(
+                    pos == EDGE_TOP_FAR ? EDGE_MIDDLE_RIGHT_BACK : EDGE_MIDDLE_FRONT_RIGHT,
+                    faceIndex);
+        } else {
+            int faceIndex = topColoredFace == FACE_TOP ? FACE_FRONT : topColoredFace;
+            rot = new Rotation(Axis.X_AXIS,
+                    Direction.COUNTER_CLOCKWISE,
+                    pos == EDGE_TOP_LEFT ? INNER : OUTER);
+            algo.addStep(rot);
+            middleRotations = middleEdgeToTopEdge(pos == EDGE_TOP_LEFT ?
+                    EDGE_MIDDLE_FRONT_LEFT : EDGE_MIDDLE_FRONT_RIGHT, faceIndex);
+        }
+
+        for (int i = 0; i < middleRotations.size(); i++) {
+            algo.addStep(middleRotations.get(i));
+        }
+
+        apply(algo);
+    }
+
+    private static ArrayList<Rotation> middleEdgeToTopEdge(int middlePos, int faceWithTopColor) {
+        ArrayList<Rotation> rotations = new ArrayList<>();
+
+        switch (middlePos) {
+            case EDGE_MIDDLE_FRONT_LEFT:
+                if (!(faceWithTopColor == FACE_FRONT || faceWithTopColor == FACE_LEFT))
+                    throw new AssertionError();
+                if (faceWithTopColor == FACE_FRONT) {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                } else {
+                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER));
+                }
+                break;
+
+            case EDGE_MIDDLE_FRONT_RIGHT:
+                if (!(faceWithTopColor == FACE_FRONT || faceWithTopColor == FACE_RIGHT))
+                    throw new AssertionError();
+                if (faceWithTopColor == FACE_FRONT) {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                } else {
+                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                }
+                break;
+
+            case EDGE_MIDDLE_RIGHT_BACK:
+                if (!(faceWithTopColor == FACE_RIGHT || faceWithTopColor == FACE_BACK))
+                    throw new AssertionError();
+                if (faceWithTopColor == FACE_BACK) {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                } else {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                }
+                break;
+
+            case EDGE_MIDDLE_LEFT_BACK:
+                if (!(faceWithTopColor == FACE_LEFT || faceWithTopColor == FACE_BACK))
+                    throw new AssertionError();
+                if (faceWithTopColor == FACE_BACK) {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                } else {
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.CLOCKWISE, INNER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                }
+                break;
+        }
+        return rotations;
+    }
+
+    private int getFaceletByColor(int layer, int pos, int color) {
+        int facelet = findFacelet(getPiece(layer, pos), color);
+        if (facelet < 0) {
+            throw new InvalidParameterException("Square not found: Index " + layer +
+                    ", pos " + pos + ", color " + color);
+        }
+        return facelet;
+    }
+
+    private void firstFaceEdge_fromMiddleLayer(int pos) {
+        int faceIndex = faceOf(getFaceletByColor(MIDDLE, pos, mTopColor));
+
+        ArrayList<Rotation> rotations = middleEdgeToTopEdge(pos, faceIndex);
+        apply(new Algorithm(rotations));
+    }
+
+    /**
+     * pos: position of desired piece in bottom face.
+     * The piece should have non-white on bottom face
+     */
+    private void firstFaceEdge_fromLowerLayer(int pos) {
+        Algorithm algorithm = new Algorithm();
+
+        // the white should be on one of the sides, not front or back
+        if (pos == EDGE_BOTTOM_NEAR || pos == EDGE_BOTTOM_FAR) {
+            algorithm.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, INNER);
+        }
+
+        if (pos <= EDGE_BOTTOM_LEFT) {
+            algorithm.addStep(Axis.X_AXIS, Direction.CLOCKWISE, INNER);
+            algorithm.addStep(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER);
+            if (color(FACE_TOP, EDGE_TOP_LEFT) == mTopColor &&
+                    color(FACE_LEFT, FIRST_ROW_CENTER) == centerColor(FACE_LEFT)) {
+                algorithm.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+            }
+        } else {
+            algorithm.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+            algorithm.addStep(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            if (color(FACE_TOP, EDGE_TOP_RIGHT) == mTopColor &&
+                    color(FACE_RIGHT, FIRST_ROW_CENTER) == centerColor(FACE_RIGHT)) {
+                algorithm.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            }
+        }
+        apply(algorithm);
+    }
+
+    /**
+     * pos: position of desired piece in bottom face.
+     * The piece should have white on bottom face
+     */
+    private void firstFaceEdge_fromBottomFace(int pos) {
+        Algorithm algo = new Algorithm();
+
+        /**
+         * Piece is not aligned yet.
+         * Rotate bottom face
+         * */
+        if (pos != EDGE_BOTTOM_NEAR) {
+            Direction dir = pos == EDGE_BOTTOM_LEFT ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+            Rotation rot = new Rotation(Axis.Y_AXIS, dir, INNER);
+            algo.addStep(rot);
+            if (pos == EDGE_BOTTOM_FAR) {
+                algo.addStep(rot.duplicate());
+            }
+        }
+        // Front face twice
+        Rotation rot = new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(rot);
+        algo.addStep(rot.duplicate());
+        apply(algo);
+    }
+
+    private boolean isCornerAligned(int[] piece) {
+        if (piece.length != 3) throw new AssertionError();
+        for (int facelet : piece) {
+            if (color(facelet) != centerColor(faceOf(facelet))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void firstFaceCorners() {
+        int[] corners = new int[]{
+                LAST_ROW_RIGHT, LAST_ROW_LEFT, FIRST_ROW_LEFT, FIRST_ROW_RIGHT
+        };
+        /**
+         * Look for any corners in the lower layer with white facing sideways (not bottom).
+         * */
+        for (int i = 0; i < corners.length; i++) {
+            int topColored = findFacelet(getPiece(INNER, corners[i]), mTopColor);
+            if (topColored < 0) continue;
+            if (faceOf(topColored) == FACE_BOTTOM) continue;
+            firstFaceCorner(corners[i]);
+            return;
+        }
+
+        // No whites in the lower layer. Bring up whites from bottom face
+
+        for (int i = 0; i < corners.length; i++) {
+            int topColored = findFacelet(getPiece(INNER, corners[i]), mTopColor);
+            if (topColored < 0) continue;
+            if (faceOf(topColored) != FACE_BOTTOM) {
+                throw new AssertionError("white faces " + faceOf(topColored) +
+                        " at " + corners[i]);
+            }
+            firstFaceCornerWhiteOnBottom(corners[i]);
+            return;
+        }
+
+        // Look for whites in top layer
+        for (int i = 0; i < corners.length; i++) {
+            if (isCornerAligned(getPiece(OUTER, corners[i]))) {
+                continue;
+            }
+            firstFaceCornerFromTopLayer(corners[i]);
+            return;
+        }
+
+        proceedToNextState();
+    }
+
+    private static int corner2index(int face, int corner) {
+        if (face == FACE_BOTTOM) {
+            switch (corner) {
+                case FIRST_ROW_RIGHT:
+                    return CORNER_INDEX_FRONT_RIGHT;
+                case LAST_ROW_RIGHT:
+                    return CORNER_INDEX_RIGHT_BACK;
+                case LAST_ROW_LEFT:
+                    return CORNER_INDEX_BACK_LEFT;
+                case FIRST_ROW_LEFT:
+                    return CORNER_INDEX_LEFT_FRONT;
+                default:
+                    throw new InvalidParameterException("Invalid corner " + corner);
+            }
+        } else if (face == FACE_TOP) {
+            switch (corner) {
+                case FIRST_ROW_LEFT:
+                    return CORNER_INDEX_BACK_LEFT;
+                case FIRST_ROW_RIGHT:
+                    return CORNER_INDEX_RIGHT_BACK;
+                case LAST_ROW_LEFT:
+                    return CORNER_INDEX_LEFT_FRONT;
+                case LAST_ROW_RIGHT:
+                    return CORNER_INDEX_FRONT_RIGHT;
+                default:
+                    throw new InvalidParameterException("Invalid corner " + corner);
+            }
+        } else {
+            throw new InvalidParameterException("not implemented for " + face);
+        }
+    }
+
+    private void firstFaceCornerFromTopLayer(int corner) {
+        Algorithm algorithm = new Algorithm();
+        int[] piece = getPiece(OUTER, corner);
+        if (piece.length != 3) throw new AssertionError();
+        final int topColor = centerColor(FACE_TOP);
+        int topColorFace = -1;
+        for (int facelet : piece) {
+            if (color(facelet) == topColor) {
+                topColorFace = faceOf(facelet);
+            }
+        }
+
+        int desiredCornerIndex = CORNER_INDEX_FRONT_RIGHT;
+        int currentCornerIndex = corner2index(FACE_TOP, corner);
+
+        if (desiredCornerIndex != currentCornerIndex) {
+            /**
+             * Bring the desired corner to front-right. Make sure that orientation of white
+             * is updated to reflect this
+             * */
+            Direction direction = (currentCornerIndex == CORNER_INDEX_LEFT_FRONT) ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+            algorithm.addStep(Axis.Y_AXIS, direction, 0, SIZE);
+            if (topColorFace != FACE_TOP) {
+                topColorFace += (direction == Direction.COUNTER_CLOCKWISE) ? 1 : -1;
+            }
+            if (currentCornerIndex == CORNER_INDEX_BACK_LEFT) {
+                algorithm.repeatLastStep();
+                if (topColorFace != FACE_TOP) {
+                    topColorFace += (direction == Direction.COUNTER_CLOCKWISE) ? 1 : -1;
+                }
+            }
+        }
+
+        topColorFace = (topColorFace + CUBE_SIDES) % CUBE_SIDES;
+
+        if (topColorFace == FACE_FRONT || topColorFace == FACE_TOP) {
+            algorithm.addStep(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER);
+            algorithm.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+            algorithm.addStep(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        } else if (topColorFace == FACE_RIGHT) {
+            algorithm.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algorithm.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, INNER);
+            algorithm.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+        } else {
+            throw new AssertionError("white should not be facing " + topColorFace);
+        }
+
+        apply(algorithm);
+    }
+
+    private void firstFaceCornerWhiteOnBottom(int corner) {
+        Algorithm algorithm = new Algorithm();
+        Direction direction;
+        int[] piece = getPiece(INNER, corner);
+        if (piece.length != 3) throw new AssertionError();
+        final int topColor = centerColor(FACE_TOP);
+        int sideColor1 = -1;
+        int sideColor2 = -1;
+        for (int facelet : piece) {
+            if (color(facelet) == topColor) {
+                if (faceOf(facelet) != FACE_BOTTOM) throw new AssertionError();
+                continue;
+            }
+            if (sideColor1 == -1) {
+                sideColor1 = color(facelet);
+            } else if (sideColor2 == -1) {
+                sideColor2 = color(facelet);
+            }
+        }
+
+        int face1 = getColorFace(sideColor1);
+        int face2 = getColorFace(sideColor2);
+        int desiredCorner = FIRST_ROW_LEFT;
+
+        if (face1 == FACE_BACK || face2 == FACE_BACK) {
+            desiredCorner = LAST_ROW_LEFT;
+        }
+
+        if (face1 == FACE_RIGHT || face2 == FACE_RIGHT) {
+            desiredCorner += 2;
+        }
+
+        int currentCornerIndex = corner2index(FACE_BOTTOM, corner);
+        int desiredCornerIndex = corner2index(FACE_BOTTOM, desiredCorner);
+        int delta = Math.abs(currentCornerIndex - desiredCornerIndex);
+
+        if (desiredCornerIndex != CORNER_INDEX_FRONT_RIGHT) {
+            // Bring the desired corner to front-right
+            direction = (desiredCorner == FIRST_ROW_LEFT) ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+            algorithm.addStep(Axis.Y_AXIS, direction, 0, SIZE);
+            if (desiredCorner == LAST_ROW_LEFT) {
+                algorithm.addStep(Axis.Y_AXIS, direction, 0, SIZE);
+            }
+        }
+
+        // Rotate lower layer to bring the piece to front-right
+        direction = desiredCornerIndex < currentCornerIndex ?
+                Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+        if (delta == 3) {
+            delta = 1;
+            direction = direction == Direction.CLOCKWISE ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+        }
+        for (int i = 0; i < delta; i++) {
+            algorithm.addStep(Axis.Y_AXIS, direction, INNER);
+        }
+
+        algorithm.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algorithm.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, INNER);
+        algorithm.repeatLastStep();
+        algorithm.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+        apply(algorithm);
+    }
+
+    private void firstFaceCorner(int corner) {
+        int[] piece = getPiece(INNER, corner);
+        if (piece.length != 3) throw new AssertionError();
+        int topColor = centerColor(FACE_TOP);
+        int topColorFace = -1;
+        int sideColor = -1;
+        int sideFace = -1;
+        for (int facelet : piece) {
+            if (color(facelet) == topColor) {
+                topColorFace = faceOf(facelet);
+                if (topColorFace == FACE_BOTTOM) throw new AssertionError();
+                continue;
+            }
+            if (faceOf(facelet) != FACE_BOTTOM) {
+                sideColor = color(facelet);
+                sideFace = faceOf(facelet);
+            }
+        }
+        int sideColorCenterFace = getColorFace(sideColor);
+        if (sideColorCenterFace > FACE_LEFT) throw new AssertionError();
+        ArrayList<Rotation> rotations = bringColorToFront(sideColor);
+
+        int count = Math.abs(sideColorCenterFace - sideFace);
+        Direction direction;
+        direction = sideColorCenterFace > sideFace ?
+                Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+
+        if (count == 3) {
+            count = 1;
+            direction = direction == Direction.CLOCKWISE ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+        }
+
+        for (int i = 0; i < count; i++) {
+            rotations.add(new Rotation(Axis.Y_AXIS, direction, INNER));
+        }
+
+        topColorFace -= sideFace;
+        topColorFace = (topColorFace + CUBE_SIDES) % CUBE_SIDES;
+
+        if (topColorFace == FACE_RIGHT) {
+            rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+            rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, INNER));
+            rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
+        } else if (topColorFace == FACE_LEFT) {
+            rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+            rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+            rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
+        } else {
+            throw new AssertionError("topColorFace should be left or right, not: " + topColorFace);
+        }
+
+        apply(new Algorithm(rotations));
+    }
+
+    private int getColorFace(int color) {
+        for (int i = 0; i < FACE_COUNT; i++) {
+            if (centerColor(i) == color) {
+                return i;
+            }
+        }
+        throw new InvalidParameterException("Color not found: " + color);
+    }
+
+    private int findPieceOnLayer(int layer, int[] colors) {
+        Arrays.sort(colors);
+        int[][] pieces = sYaxisLayers[layer];
+        for (int i = 0; i < pieces.length; i++) {
+            int[] piece = pieces[i];
+            if (piece.length != colors.length)
+                continue;
+            int[] pieceColors = new int[piece.length];
+            for (int j = 0; j < pieceColors.length; j++) {
+                pieceColors[j] = color(piece[j]);
+            }
+            Arrays.sort(pieceColors);
+            if (Arrays.equals(colors, pieceColors))
+                return i;
+        }
+        return -1;
+    }
+
+    private ArrayList<Rotation> bringColorToFront(int color) {
+        ArrayList<Rotation> rotations = new ArrayList<>();
+        if (color == centerColor(FACE_FRONT)) {
+            return rotations;
+        }
+        Axis axis = Axis.Y_AXIS;
+        Direction dir = Direction.CLOCKWISE;
+        if (color == centerColor(FACE_TOP)) {
+            axis = Axis.X_AXIS;
+            dir = Direction.COUNTER_CLOCKWISE;
+        } else if (color == centerColor(FACE_BOTTOM)) {
+            axis = Axis.X_AXIS;
+        } else if (color == centerColor(FACE_LEFT)) {
+            dir = Direction.COUNTER_CLOCKWISE;
+        }
+        rotations.add(new Rotation(axis, dir, 0, SIZE));
+        if (color == centerColor(FACE_BACK)) {
+            rotations.add(new Rotation(axis, dir, 0, SIZE));
+        }
+        return rotations;
+    }
+
+    private void middleLayer() {
+        int[] edges = new int[]{
+                LAST_ROW_MIDDLE, MID_ROW_RIGHT, FIRST_ROW_CENTER, MID_ROW_LEFT
+        };
+        for (int i = 0; i < edges.length; i++) {
+            if (findFacelet(getPiece(OUTER, edges[i]), mBottomColor) >= 0) continue;
+            fixMiddleLayer(edges[i]);
+            return;
+        }
+
+        // search for misaligned middle pieces
+        edges = new int[]{
+                EDGE_MIDDLE_FRONT_LEFT, EDGE_MIDDLE_FRONT_RIGHT,
+                EDGE_MIDDLE_RIGHT_BACK, EDGE_MIDDLE_LEFT_BACK
+        };
+
+        for (int i = 0; i < edges.length; i++) {
+            int[] piece = getPiece(MIDDLE, edges[i]);
+            if (isEdgeAligned(piece)) {
+                continue;
+            }
+            Log.d(tag, "bring to top " + pieceName(piece));
+            bringUpUnalignedMiddleEdge(edges[i]);
+            return;
+        }
+
+        proceedToNextState();
+    }
+
+    private void bringUpUnalignedMiddleEdge(int edgeIndex) {
+        Algorithm algo = new Algorithm();
+        if (edgeIndex != EDGE_MIDDLE_FRONT_RIGHT) {
+            int count = 1;
+            Direction direction = Direction.CLOCKWISE;
+            if (edgeIndex == EDGE_MIDDLE_FRONT_LEFT) {
+                direction = Direction.COUNTER_CLOCKWISE;
+            }
+            if (edgeIndex == EDGE_MIDDLE_LEFT_BACK) {
+                count++;
+            }
+            for (int i = 0; i < count; i++) {
+                algo.addStep(Axis.Y_AXIS, direction, 0, SIZE);
+            }
+        }
+        algo.append(fixMiddleLayerFromFrontFace());
+        apply(algo);
+    }
+
+    private static Algorithm alignMiddlePiece(int startFace, int destFace) {
+        if (!(startFace >= 0 && startFace < 4 && destFace >= 0 && destFace < 4))
+            throw new AssertionError();
+        int delta = Math.abs(startFace - destFace);
+        if (delta == 0) {
+            return null;
+        }
+
+        Direction dir = startFace > destFace ? Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+        if (delta == 3) {
+            delta = 1;
+            dir = dir == Direction.CLOCKWISE ? Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+        }
+
+        Algorithm algo = new Algorithm();
+        for (int i = 0; i < delta; i++) {
+            algo.addStep(Axis.Y_AXIS, dir, OUTER);
+        }
+
+        return algo;
+    }
+
+    private void fixMiddleLayer(int edge) {
+        int[] piece = getPiece(OUTER, edge);
+        Algorithm alignPiece = null;
+        Direction direction;
+        Algorithm algo = new Algorithm();
+        if (piece.length != 2) throw new AssertionError();
+        int color1 = -1;
+        int color2 = -1;
+        int outerColor = -1;
+        int outerFace = -1;
+        for (int facelet : piece) {
+            if (color(facelet) == mBottomColor) {
+                throw new InvalidParameterException("Yellow shouldn't be there");
+            }
+            if (faceOf(facelet) != FACE_TOP) {
+                outerColor = color(facelet);
+                outerFace = faceOf(facelet);
+            }
+            if (color1 == -1) {
+                color1 = color(facelet);
+            } else if (color2 == -1) {
+                color2 = color(facelet);
+            }
+        }
+
+        int topColor = color1 == outerColor ? color2 : color1;
+        if (outerFace == FACE_RIGHT && centerColor(FACE_RIGHT) == outerColor &&
+                centerColor(FACE_FRONT) == topColor) {
+            apply(fixMiddleLayerFromRightFace());
+            return;
+        } else if (outerFace == FACE_FRONT && centerColor(FACE_FRONT) == outerColor &&
+                centerColor(FACE_RIGHT) == topColor) {
+            apply(fixMiddleLayerFromFrontFace());
+            return;
+        }
+
+        int face1 = getColorFace(color1);
+        int face2 = getColorFace(color2);
+
+        if (color1 == outerColor) {
+            alignPiece = alignMiddlePiece(outerFace, face1);
+        } else {
+            alignPiece = alignMiddlePiece(outerFace, face2);
+        }
+
+        int currentCorner = FIRST_ROW_LEFT;
+        if (face1 == FACE_FRONT || face2 == FACE_FRONT) {
+            currentCorner = LAST_ROW_LEFT;
+        }
+        if (face1 == FACE_RIGHT || face2 == FACE_RIGHT) {
+            currentCorner += 2;
+        }
+        int currentCornerIndex = corner2index(FACE_TOP, currentCorner);
+        int desiredCornerIndex = CORNER_INDEX_FRONT_RIGHT;
+
+        if (currentCornerIndex != desiredCornerIndex) {
+            direction = currentCornerIndex == CORNER_INDEX_LEFT_FRONT ?
+                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+            algo.addStep(Axis.Y_AXIS, direction, 0, SIZE);
+            if (currentCornerIndex == CORNER_INDEX_BACK_LEFT) {
+                algo.repeatLastStep();
+            }
+        }
+
+        algo.append(alignPiece);
+        apply(algo);
+
+        // Insert the piece right away: picking the first top edge again on the next step could
+        // choose another piece and undo the alignment, going round in circles
+        apply(centerColor(FACE_FRONT) == outerColor ?
+                fixMiddleLayerFromFrontFace() : fixMiddleLayerFromRightFace());
+    }
+
+    static Algorithm fixMiddleLayerFromFrontFace() {
+        Algorithm algo = new Algorithm();
+        algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER);
+        return algo;
+    }
+
+    private static Algorithm fixMiddleLayerFromRightFace() {
+        Algorithm algo = new Algorithm();
+        algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        return algo;
+    }
+
+    private boolean isEdgeAligned(int[] piece) {
+        if (piece.length != 2) throw new AssertionError();
+        for (int facelet : piece) {
+            if (color(facelet) != centerColor(faceOf(facelet))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The first two layers are solved and the last one is on top: a single lookup in the
+     * LastLayerTable gives all its moves
+     * */
+    private void lastLayer() {
+        int[] moves = LastLayerTable.solve(CubieCube.fromFacelets(mCube));
+        apply(CubieCube.toAlgorithm(moves, moves.length));
+        proceedToNextState();
+    }
+
+    static Algorithm lastFaceCrossAlignAlgo(Direction direction) {
+        Algorithm algo = new Algorithm();
+        if (direction == Direction.CLOCKWISE) {
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.repeatLastStep();
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+        } else {
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.repeatLastStep();
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        }
+        return algo;
+    }
+
+    static Algorithm lastFaceCornerPositionAlgo(Direction direction) {
+        Algorithm algo = new Algorithm();
+        if (direction == Direction.COUNTER_CLOCKWISE) {
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+        } else {
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+            algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER);
+            algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+            algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        }
+        return algo;
+    }
+
+    static Algorithm theFinalAlgorithm() {
+        Algorithm algo = new Algorithm();
+        algo.addStep(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.CLOCKWISE, INNER);
+        algo.addStep(Axis.X_AXIS, Direction.CLOCKWISE, OUTER);
+        algo.addStep(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, INNER);
+        return algo;
+    }
+}
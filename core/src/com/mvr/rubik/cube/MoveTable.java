@@ -0,0 +1,568 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed facelet permutations for every move of a cube of given dimensions.
+ *
+ * A move is a single layer turn, encoded as an int:
+ *      move = (first layer of the axis + layer) * 2 + direction
+ * Layers are numbered X first, then Y and Z, so there are 2 * (sizeX + sizeY + sizeZ) moves.
+ * The encoding is dense and the reverse of a move is always (move ^ 1).
+ *
+ * For each move we store the facelets that change and the facelets their colors come from, so
+ * a turn is a single gather pass over the squares of that layer. Tables are built once per cube
+ * size by running the reference ring rotation on an array of facelet indices.
+ *
+ * Whole cube rotations may change the dimensions of a skewed cube, so they are full
+ * permutations from this cube to the one returned by getRotatedTable().
+ *
+ * @see Cube :: rotate(Axis axis, Direction direction, int face)
+ */
+public class MoveTable {
+
+    private static final HashMap<String, MoveTable> sTables = new HashMap<>();
+
+    /**
+     * Tables are immutable and shared by all cubes of the same dimensions
+     * */
+    public static MoveTable get(int sizeX, int sizeY, int sizeZ) {
+        String key = sizeX + "x" + sizeY + "x" + sizeZ;
+        synchronized (sTables) {
+            MoveTable table = sTables.get(key);
+            if (table == null) {
+                table = new MoveTable(sizeX, sizeY, sizeZ);
+                sTables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    private final int mSizeX;
+    private final int mSizeY;
+    private final int mSizeZ;
+    private final int mFaceletCount;
+    private final int[] mFaceOffsets = new int[Cube.FACE_COUNT];
+    private final int[] mLayerBase = new int[3];
+
+    private final Axis[] mMoveAxis;
+    private final int[] mMoveLayer;
+
+    // Facelets changed by each move, and the facelets their colors come from
+    private final int[][] mTargets;
+    private final int[][] mSources;
+    private int mMaxMoveLength;
+
+    // Indexed by axis * 2 + direction, built lazily
+    private final int[][] mWholeCube = new int[6][];
+    private final MoveTable[] mRotatedTables = new MoveTable[3];
+
+    private MoveTable(int sizeX, int sizeY, int sizeZ) {
+        mSizeX = sizeX;
+        mSizeY = sizeY;
+        mSizeZ = sizeZ;
+        mFaceletCount = faceOffsets(sizeX, sizeY, sizeZ, mFaceOffsets);
+        mLayerBase[Axis.X_AXIS.ordinal()] = 0;
+        mLayerBase[Axis.Y_AXIS.ordinal()] = sizeX;
+        mLayerBase[Axis.Z_AXIS.ordinal()] = sizeX + sizeY;
+
+        int count = 2 * (sizeX + sizeY + sizeZ);
+        mMoveAxis = new Axis[count];
+        mMoveLayer = new int[count];
+        mTargets = new int[count][];
+        mSources = new int[count][];
+
+        int[] cells = new int[mFaceletCount];
+        for (Axis axis: Axis.values()) {
+            for (int layer = 0; layer < getAxisSize(axis); layer++) {
+                for (Direction direction: Direction.values()) {
+                    int move = encode(axis, direction, layer);
+                    mMoveAxis[move] = axis;
+                    mMoveLayer[move] = layer;
+                    for (int i = 0; i < cells.length; i++) {
+                        cells[i] = i;
+                    }
+                    rotateLayer(cells, axis, direction, layer);
+                    storeMove(move, cells);
+                }
+            }
+        }
+    }
+
+    private void storeMove(int move, int[] cells) {
+        int length = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] != i) length++;
+        }
+        int[] targets = new int[length];
+        int[] sources = new int[length];
+        length = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] != i) {
+                targets[length] = i;
+                sources[length++] = cells[i];
+            }
+        }
+        mTargets[move] = targets;
+        mSources[move] = sources;
+        mMaxMoveLength = Math.max(mMaxMoveLength, length);
+    }
+
+    public int getSizeX() {
+        return mSizeX;
+    }
+
+    public int getSizeY() {
+        return mSizeY;
+    }
+
+    public int getSizeZ() {
+        return mSizeZ;
+    }
+
+    public int getAxisSize(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return mSizeX;
+            case Y_AXIS: return mSizeY;
+            default: return mSizeZ;
+        }
+    }
+
+    public int getFaceletCount() {
+        return mFaceletCount;
+    }
+
+    public int getMoveCount() {
+        return mTargets.length;
+    }
+
+    /**
+     * Size of the scratch buffer needed by apply()
+     * */
+    public int getMaxMoveLength() {
+        return mMaxMoveLength;
+    }
+
+    public int encode(Axis axis, Direction direction, int layer) {
+        return (mLayerBase[axis.ordinal()] + layer) * 2 + direction.ordinal();
+    }
+
+    public Axis getAxis(int move) {
+        return mMoveAxis[move];
+    }
+
+    public int getLayer(int move) {
+        return mMoveLayer[move];
+    }
+
+    public static Direction getDirection(int move) {
+        return (move & 1) == 0 ? Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+    }
+
+    public static int inverse(int move) {
+        return move ^ 1;
+    }
+
+    /**
+     * Apply a move in place. @scratch should hold at least getMaxMoveLength() entries.
+     * */
+    public void apply(byte[] facelets, byte[] scratch, int move) {
+        int[] sources = mSources[move];
+        int[] targets = mTargets[move];
+        int length = sources.length;
+        for (int i = 0; i < length; i++) {
+            scratch[i] = facelets[sources[i]];
+        }
+        for (int i = 0; i < length; i++) {
+            facelets[targets[i]] = scratch[i];
+        }
+    }
+
+    /**
+     * Facelets changed by a move. Don't modify the returned array.
+     * */
+    public int[] getTargets(int move) {
+        return mTargets[move];
+    }
+
+    /**
+     * Facelets providing the colors for getTargets(move). Don't modify the returned array.
+     * */
+    public int[] getSources(int move) {
+        return mSources[move];
+    }
+
+    /**
+     * Apply @move with the reference ring rotation instead of the stored permutation, the way
+     * turns were made before the tables. Slow, only kept to compare against in benchmarks.
+     * */
+    void applyReference(int[] cells, int move) {
+        rotateLayer(cells, mMoveAxis[move], getDirection(move), mMoveLayer[move]);
+    }
+
+    /**
+     * Rotate the whole cube, reading from @src and writing to @dst. The result is laid out
+     * according to getRotatedTable(axis).
+     * */
+    public void applyWholeCube(byte[] src, byte[] dst, Axis axis, Direction direction) {
+        int[] permutation = getWholeCubePermutation(axis, direction);
+        for (int i = 0; i < permutation.length; i++) {
+            dst[i] = src[permutation[i]];
+        }
+    }
+
+    /**
+     * Table for the cube after a whole cube rotation along @axis. Same as this one unless the
+     * cube is skewed around that axis.
+     * */
+    public MoveTable getRotatedTable(Axis axis) {
+        synchronized (mRotatedTables) {
+            MoveTable table = mRotatedTables[axis.ordinal()];
+            if (table == null) {
+                switch (axis) {
+                    case X_AXIS: table = get(mSizeX, mSizeZ, mSizeY); break;
+                    case Y_AXIS: table = get(mSizeZ, mSizeY, mSizeX); break;
+                    default: table = get(mSizeY, mSizeX, mSizeZ); break;
+                }
+                mRotatedTables[axis.ordinal()] = table;
+            }
+            return table;
+        }
+    }
+
+    public int[] getWholeCubePermutation(Axis axis, Direction direction) {
+        int index = axis.ordinal() * 2 + direction.ordinal();
+        synchronized (mWholeCube) {
+            if (mWholeCube[index] == null) {
+                int[] cells = new int[mFaceletCount];
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = i;
+                }
+                // TOO lazy to write reverse functions; just rotate thrice for CCW
+                int count = direction == Direction.COUNTER_CLOCKWISE ? 3 : 1;
+                int[] dims = {mSizeX, mSizeY, mSizeZ};
+                for (int i = 0; i < count; i++) {
+                    cells = rotateCube(cells, axis, dims);
+                }
+                mWholeCube[index] = cells;
+            }
+            return mWholeCube[index];
+        }
+    }
+
+    /**
+     * Face offsets of a cube with the given dimensions, written to @offsets.
+     * Returns the total number of facelets.
+     * */
+    static int faceOffsets(int sizeX, int sizeY, int sizeZ, int[] offsets) {
+        offsets[Cube.FACE_FRONT] = 0;
+        offsets[Cube.FACE_RIGHT] = sizeX * sizeY;
+        offsets[Cube.FACE_BACK] = offsets[Cube.FACE_RIGHT] + sizeZ * sizeY;
+        offsets[Cube.FACE_LEFT] = offsets[Cube.FACE_BACK] + sizeX * sizeY;
+        offsets[Cube.FACE_TOP] = offsets[Cube.FACE_LEFT] + sizeZ * sizeY;
+        offsets[Cube.FACE_BOTTOM] = offsets[Cube.FACE_TOP] + sizeX * sizeZ;
+        return offsets[Cube.FACE_BOTTOM] + sizeX * sizeZ;
+    }
+
+    private boolean isSymmetricAroundAxis(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return mSizeY == mSizeZ;
+            case Y_AXIS: return mSizeX == mSizeZ;
+            default: return mSizeX == mSizeY;
+        }
+    }
+
+    /**
+     * Reference implementation of a layer turn. Works on any array, @cells holds the index of
+     * the facelet at each position.
+     * */
+    private void rotateLayer(int[] cells, Axis axis, Direction direction, int face) {
+        // The face to be rotated (in case we are rotating an edge layer).
+        int faceSquares = -1;
+        // Additional face to be rotated if the dimension along the axis of rotation is 1
+        int oppositeFace = -1;
+
+        switch (axis) {
+            case X_AXIS:
+                if (face == 0) {
+                    faceSquares = Cube.FACE_LEFT;
+                } else if (face == mSizeX - 1) {
+                    faceSquares = Cube.FACE_RIGHT;
+                }
+                if (mSizeX == 1) oppositeFace = Cube.FACE_RIGHT;
+                break;
+
+            case Y_AXIS:
+                if (face == 0) {
+                    faceSquares = Cube.FACE_BOTTOM;
+                } else if (face == mSizeY - 1) {
+                    faceSquares = Cube.FACE_TOP;
+                }
+                if (mSizeY == 1) oppositeFace = Cube.FACE_TOP;
+                break;
+
+            case Z_AXIS:
+                if (face == 0) {
+                    faceSquares = Cube.FACE_BACK;
+                } else if (face == mSizeZ - 1) {
+                    faceSquares = Cube.FACE_FRONT;
+                }
+                if (mSizeZ == 1) oppositeFace = Cube.FACE_FRONT;
+                break;
+        }
+
+        if (isSymmetricAroundAxis(axis)) {
+            rotateRing(cells, axis, face, direction);
+            if (faceSquares != -1) {
+                // Lower layers store colors in opposite direction
+                rotateFace(cells, faceSquares,
+                        face == 0 ? FaceletCube.reverse(direction) : direction);
+            }
+            if (oppositeFace != -1) {
+                rotateFace(cells, oppositeFace, direction);
+            }
+        } else {
+            // If not symmetric, rotate 180' along the given axis
+            swapRingSides(cells, axis, face);
+            if (faceSquares != -1) reverseFace(cells, faceSquares);
+            if (oppositeFace != -1) reverseFace(cells, oppositeFace);
+        }
+    }
+
+    /**
+     * Number of squares in each side of the ring around the layer
+     * */
+    private int getRingSideLength(Axis axis, int side) {
+        switch (axis) {
+            case X_AXIS: return side % 2 == 0 ? mSizeY : mSizeZ;
+            case Y_AXIS: return side % 2 == 0 ? mSizeX : mSizeZ;
+            default: return side % 2 == 0 ? mSizeX : mSizeY;
+        }
+    }
+
+    /**
+     * Index in the facelet array of the @i-th square on @side of the ring around @layer.
+     * Sides are in clockwise order along the axis.
+     * */
+    private int ringIndex(Axis axis, int layer, int side, int i) {
+        switch (axis) {
+            case X_AXIS:
+                switch (side) {
+                    case 0: return mFaceOffsets[Cube.FACE_FRONT] + mSizeX * i + layer;
+                    case 1: return mFaceOffsets[Cube.FACE_TOP] + mSizeX * i + layer;
+                    case 2: return mFaceOffsets[Cube.FACE_BACK] +
+                            (mSizeY - 1 - i) * mSizeX + (mSizeX - 1 - layer);
+                    default: return mFaceOffsets[Cube.FACE_BOTTOM] + mSizeX * i + layer;
+                }
+
+            case Y_AXIS:
+                switch (side) {
+                    case 0: return mFaceOffsets[Cube.FACE_FRONT] +
+                            (mSizeY - 1 - layer) * mSizeX + i;
+                    case 1: return mFaceOffsets[Cube.FACE_LEFT] +
+                            (mSizeY - 1 - layer) * mSizeZ + i;
+                    case 2: return mFaceOffsets[Cube.FACE_BACK] +
+                            (mSizeY - 1 - layer) * mSizeX + i;
+                    default: return mFaceOffsets[Cube.FACE_RIGHT] +
+                            (mSizeY - 1 - layer) * mSizeZ + i;
+                }
+
+            default:
+                switch (side) {
+                    case 0: return mFaceOffsets[Cube.FACE_TOP] + mSizeX * layer + i;
+                    case 1: return mFaceOffsets[Cube.FACE_RIGHT] +
+                            mSizeZ * i + mSizeZ - 1 - layer;
+                    case 2: return mFaceOffsets[Cube.FACE_BOTTOM] +
+                            mSizeX * (mSizeZ - 1 - layer) + mSizeX - 1 - i;
+                    default: return mFaceOffsets[Cube.FACE_LEFT] +
+                            mSizeZ * (mSizeY - 1 - i) + layer;
+                }
+        }
+    }
+
+    /**
+     * Rotate the colors in the border. This is the first part of rotating a layer.
+     * */
+    private void rotateRing(int[] cells, Axis axis, int layer, Direction direction) {
+        int size = getRingSideLength(axis, 0);
+        int[] temp = new int[size];
+        // Sides are in clockwise order, walk them backwards for clockwise rotations
+        int step = direction == Direction.COUNTER_CLOCKWISE ? 1 : Cube.CUBE_SIDES - 1;
+        int first = direction == Direction.COUNTER_CLOCKWISE ? 0 : Cube.CUBE_SIDES - 1;
+
+        for (int i = 0; i < size; i++) {
+            temp[i] = cells[ringIndex(axis, layer, first, i)];
+        }
+        int dst = first;
+        for (int k = 0; k < Cube.CUBE_SIDES - 1; k++) {
+            int src = (dst + step) % Cube.CUBE_SIDES;
+            for (int i = 0; i < size; i++) {
+                cells[ringIndex(axis, layer, dst, i)] = cells[ringIndex(axis, layer, src, i)];
+            }
+            dst = src;
+        }
+        for (int i = 0; i < size; i++) {
+            cells[ringIndex(axis, layer, dst, i)] = temp[i];
+        }
+    }
+
+    /**
+     * Swap opposite sides of the ring around the layer, i.e., a 180' turn of the border.
+     * */
+    private void swapRingSides(int[] cells, Axis axis, int layer) {
+        for (int side = 0; side < 2; side++) {
+            int length = getRingSideLength(axis, side);
+            for (int i = 0; i < length; i++) {
+                int a = ringIndex(axis, layer, side, i);
+                int b = ringIndex(axis, layer, side + 2, i);
+                int cell = cells[a];
+                cells[a] = cells[b];
+                cells[b] = cell;
+            }
+        }
+    }
+
+    /**
+     * Rotate a square face by 90'. This is the second part of rotating a face.
+     * The face is rotated one ring at a time, from the border to the center.
+     * */
+    private void rotateFace(int[] a, int face, Direction direction) {
+        int base = mFaceOffsets[face];
+        int width = faceWidth(face, mSizeX, mSizeZ);
+        for (int k = 0, s = width; s > 1; k++, s -= 2) {
+            int topLeft = base + k * width + k;
+            for (int i = 0; i < s - 1; i++) {
+                int top = topLeft + i;
+                int right = topLeft + i * width + s - 1;
+                int bottom = topLeft + (s - 1) * width + s - 1 - i;
+                int left = topLeft + (s - 1 - i) * width;
+                int cell = a[top];
+                if (direction == Direction.COUNTER_CLOCKWISE) {
+                    a[top] = a[right];
+                    a[right] = a[bottom];
+                    a[bottom] = a[left];
+                    a[left] = cell;
+                } else {
+                    a[top] = a[left];
+                    a[left] = a[bottom];
+                    a[bottom] = a[right];
+                    a[right] = cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotate a face by 180', which is the same as reversing the order of its squares.
+     * */
+    private void reverseFace(int[] cells, int face) {
+        int start = mFaceOffsets[face];
+        int end = start + faceWidth(face, mSizeX, mSizeZ) * faceHeight(face, mSizeY, mSizeZ) - 1;
+        while (start < end) {
+            int cell = cells[start];
+            cells[start++] = cells[end];
+            cells[end--] = cell;
+        }
+    }
+
+    private static int faceWidth(int face, int sizeX, int sizeZ) {
+        return face == Cube.FACE_LEFT || face == Cube.FACE_RIGHT ? sizeZ : sizeX;
+    }
+
+    private static int faceHeight(int face, int sizeY, int sizeZ) {
+        return face == Cube.FACE_TOP || face == Cube.FACE_BOTTOM ? sizeZ : sizeY;
+    }
+
+    private static final int COPY = 0;
+    private static final int REVERSE = 1;
+    private static final int ROTATE_CW = 2;
+    private static final int ROTATE_CCW = 3;
+
+    /**
+     * Copy a w*h face to @dstOffset of @dst, the same way Cube rearranges its square lists
+     * */
+    private static void copyFace(int[] src, int srcOffset, int w, int h,
+                                 int[] dst, int dstOffset, int mode) {
+        int n = w * h;
+        switch (mode) {
+            case COPY:
+                System.arraycopy(src, srcOffset, dst, dstOffset, n);
+                break;
+            case REVERSE:
+                for (int i = 0; i < n; i++) {
+                    dst[dstOffset + i] = src[srcOffset + n - 1 - i];
+                }
+                break;
+            case ROTATE_CW:
+                for (int i = 0; i < w; i++) {
+                    for (int j = h; j > 0; j--) {
+                        dst[dstOffset++] = src[srcOffset + (j - 1) * w + i];
+                    }
+                }
+                break;
+            case ROTATE_CCW:
+                for (int i = w - 1; i >= 0; i--) {
+                    for (int j = 0; j < h; j++) {
+                        dst[dstOffset++] = src[srcOffset + j * w + i];
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reference implementation of a clockwise whole cube rotation.
+     * @dims holds the dimensions before the rotation and is updated to the new ones.
+     *
+     * @see Cube :: rotateCubeX()
+     * */
+    private static int[] rotateCube(int[] cells, Axis axis, int[] dims) {
+        int x = dims[0], y = dims[1], z = dims[2];
+        int[] src = new int[Cube.FACE_COUNT];
+        int[] dst = new int[Cube.FACE_COUNT];
+        int[] result = new int[cells.length];
+        faceOffsets(x, y, z, src);
+
+        switch (axis) {
+            case X_AXIS:
+                faceOffsets(x, z, y, dst);
+                copyFace(cells, src[Cube.FACE_FRONT], x, y, result, dst[Cube.FACE_TOP], COPY);
+                copyFace(cells, src[Cube.FACE_BOTTOM], x, z, result, dst[Cube.FACE_FRONT], COPY);
+                copyFace(cells, src[Cube.FACE_BACK], x, y, result, dst[Cube.FACE_BOTTOM], REVERSE);
+                copyFace(cells, src[Cube.FACE_TOP], x, z, result, dst[Cube.FACE_BACK], REVERSE);
+                copyFace(cells, src[Cube.FACE_RIGHT], z, y, result, dst[Cube.FACE_RIGHT], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_LEFT], z, y, result, dst[Cube.FACE_LEFT], ROTATE_CCW);
+                dims[1] = z;
+                dims[2] = y;
+                break;
+
+            case Y_AXIS:
+                faceOffsets(z, y, x, dst);
+                copyFace(cells, src[Cube.FACE_RIGHT], z, y, result, dst[Cube.FACE_FRONT], COPY);
+                copyFace(cells, src[Cube.FACE_BACK], x, y, result, dst[Cube.FACE_RIGHT], COPY);
+                copyFace(cells, src[Cube.FACE_LEFT], z, y, result, dst[Cube.FACE_BACK], COPY);
+                copyFace(cells, src[Cube.FACE_FRONT], x, y, result, dst[Cube.FACE_LEFT], COPY);
+                copyFace(cells, src[Cube.FACE_TOP], x, z, result, dst[Cube.FACE_TOP], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_BOTTOM], x, z, result, dst[Cube.FACE_BOTTOM], ROTATE_CCW);
+                dims[0] = z;
+                dims[2] = x;
+                break;
+
+            case Z_AXIS:
+                faceOffsets(y, x, z, dst);
+                copyFace(cells, src[Cube.FACE_LEFT], z, y, result, dst[Cube.FACE_TOP], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_BOTTOM], x, z, result, dst[Cube.FACE_LEFT], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_RIGHT], z, y, result, dst[Cube.FACE_BOTTOM], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_TOP], x, z, result, dst[Cube.FACE_RIGHT], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_FRONT], x, y, result, dst[Cube.FACE_FRONT], ROTATE_CW);
+                copyFace(cells, src[Cube.FACE_BACK], x, y, result, dst[Cube.FACE_BACK], ROTATE_CCW);
+                dims[0] = y;
+                dims[1] = x;
+                break;
+        }
+        return result;
+    }
+}
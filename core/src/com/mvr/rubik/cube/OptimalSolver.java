@@ -0,0 +1,400 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Korf's optimal solver for 3x3x3 cubes: iterative deepening A* over the cubie model.
+ *
+ * The heuristic is the largest of three pattern databases, each holding the exact distance to
+ * solve a part of the cube:
+ * corners: permutation and twist of all 8 corners (8! * 3^7 entries)
+ * edges 1: positions and flips of the edges UR, UF, UL, UB, DR, DF (12! / 6! * 2^6 entries)
+ * edges 2: same for DL, DB, FR, FL, BL, BR
+ * Together they take about 85MB. They are generated once, which takes a while, and kept by
+ * PruningTableStore.
+ *
+ * Moves are counted in the half turn metric, so the solutions are optimal in that metric.
+ * Random cubes need up to 20 moves and may take a long time; the number of nodes expanded and
+ * the time taken are reported so the search can be sized.
+ *
+ * Instances are not thread safe, but a search can be cancelled from another thread.
+ */
+public class OptimalSolver implements CubeSolver {
+
+    private static final String tag = "rubik-optimal";
+
+    static final int MAX_DEPTH = 20;
+    static final int N_MOVES = CubieCube.MOVE_COUNT;
+
+    static final int N_CORNERS = CubieCube.N_CORNER_PERM * CubieCube.N_TWIST;
+
+    // Ordered positions of 6 edges: 12 * 11 * 10 * 9 * 8 * 7
+    static final int N_EDGE_POSITIONS = 665280;
+    static final int N_EDGES = N_EDGE_POSITIONS * 64;
+    static final int EDGE_GROUP = 6;
+
+    static char[] sCornerPermMove;
+    static char[] sTwistMove;
+
+    /**
+     * Position and flip change of a single edge: an edge at position p moves to
+     * sEdgePosMove[move * 12 + p] and gets flipped if sEdgeFlipMove[move * 12 + p] is 1.
+     * */
+    static byte[] sEdgePosMove;
+    static byte[] sEdgeFlipMove;
+
+    /**
+     * Version of the pattern databases in PruningTableStore, to be bumped whenever the way
+     * they are indexed or filled changes
+     * */
+    private static final int TABLE_VERSION = 1;
+
+    static PruningTable sCornerTable;
+    static PruningTable sEdgeTable1;
+    static PruningTable sEdgeTable2;
+
+    // Only needed to generate the edge tables
+    private static int[] sEdgeMove;
+
+    private static boolean sInitialized = false;
+
+    protected int mMaxDepth = MAX_DEPTH;
+
+    protected volatile boolean mCancelled;
+    protected long mNodes;
+    protected long mElapsed;
+
+    public OptimalSolver() {
+    }
+
+    /**
+     * Give up if the cube needs more than @depth moves
+     * */
+    public void setMaxDepth(int depth) {
+        mMaxDepth = Math.min(depth, MAX_DEPTH);
+    }
+
+    /**
+     * Stop the running search. solve() returns null.
+     * */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Nodes expanded by the last search
+     * */
+    public long getNodeCount() {
+        return mNodes;
+    }
+
+    /**
+     * Duration of the last search, excluding table generation
+     * */
+    public long getElapsedMillis() {
+        return mElapsed;
+    }
+
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        int[] moves = solve(CubieCube.fromFacelets(cube));
+        if (moves == null) {
+            throw new IllegalStateException("No solution within " + mMaxDepth + " moves");
+        }
+        return CubieCube.toAlgorithm(moves, moves.length);
+    }
+
+    /**
+     * @return the shortest sequence of moves in CubieCube numbering, or null if the search was
+     *      cancelled or the cube needs more than the maximum depth
+     * */
+    public int[] solve(CubieCube cube) {
+        startSearch(cube);
+        long start = System.currentTimeMillis();
+        Search search = new Search() {
+            @Override
+            boolean isStopped() {
+                return mCancelled;
+            }
+        };
+        int cornerPerm = cube.getCornerPerm();
+        int twist = cube.getTwist();
+        setEdges(cube, search.edgePos[0], search.edgeFlip[0]);
+
+        int[] solution = null;
+        int bound = distance(cornerPerm, twist, search.edgePos[0], search.edgeFlip[0]);
+        for (; bound <= mMaxDepth && !mCancelled; bound++) {
+            if (bound == 0 || search.search(cornerPerm, twist, 0, bound)) {
+                solution = Arrays.copyOf(search.moves, bound);
+                break;
+            }
+            Log.d(tag, "Depth " + bound + " done, " + search.nodes + " nodes");
+        }
+        return finishSearch(solution, search.nodes, start);
+    }
+
+    protected void startSearch(CubieCube cube) {
+        int error = cube.verify();
+        if (error != 0) {
+            throw new InvalidParameterException("Unsolvable cube: " + error);
+        }
+        mCancelled = false;
+        init();
+    }
+
+    protected int[] finishSearch(int[] solution, long nodes, long start) {
+        mNodes = nodes;
+        mElapsed = System.currentTimeMillis() - start;
+        if (mCancelled) {
+            solution = null;
+        }
+        Log.w(tag, "Search " + (solution == null ? "failed" : solution.length + " moves") +
+                ": " + mNodes + " nodes in " + mElapsed + "ms");
+        return solution;
+    }
+
+    /**
+     * Depth first search with its own buffers, so that several of them can run in parallel
+     * */
+    abstract static class Search {
+        final int[] moves = new int[MAX_DEPTH];
+
+        // Position and flip of each edge, per search depth
+        final byte[][] edgePos = new byte[MAX_DEPTH + 1][CubieCube.EDGE_COUNT];
+        final byte[][] edgeFlip = new byte[MAX_DEPTH + 1][CubieCube.EDGE_COUNT];
+
+        long nodes;
+        private boolean mStopped = false;
+
+        /**
+         * Polled every few thousand nodes
+         * */
+        abstract boolean isStopped();
+
+        /**
+         * Look for a solution of @bound moves below the node at @depth. The moves leading to
+         * the node are in moves and its edges in edgePos[depth] and edgeFlip[depth].
+         * */
+        boolean search(int cornerPerm, int twist, int depth, int bound) {
+            if ((++nodes & 0xFFF) == 0 && isStopped()) {
+                mStopped = true;
+            }
+            if (mStopped) return false;
+
+            int togo = bound - depth;
+            for (int move = 0; move < N_MOVES; move++) {
+                if (depth > 0 && isRedundant(moves[depth - 1], move)) continue;
+
+                int newCornerPerm = sCornerPermMove[cornerPerm * N_MOVES + move];
+                int newTwist = sTwistMove[twist * N_MOVES + move];
+                if (!isPromising(newCornerPerm, newTwist, depth, move, togo)) continue;
+
+                moves[depth] = move;
+                // All three tables at 0 means solved
+                if (togo == 1) return true;
+                if (search(newCornerPerm, newTwist, depth + 1, bound)) return true;
+                if (mStopped) return false;
+            }
+            return false;
+        }
+
+        /**
+         * Apply @move to the edges of the node at @depth, and check that the pattern databases
+         * allow solving the resulting node in less than @togo moves.
+         * @cornerPerm and @twist are the corners of the resulting node.
+         * */
+        boolean isPromising(int cornerPerm, int twist, int depth, int move, int togo) {
+            if (sCornerTable.get(cornerPerm * CubieCube.N_TWIST + twist) >= togo) return false;
+
+            byte[] newPos = edgePos[depth + 1];
+            byte[] newFlip = edgeFlip[depth + 1];
+            moveEdges(edgePos[depth], edgeFlip[depth], move, newPos, newFlip);
+            return sEdgeTable1.get(edgeIndex(newPos, newFlip, 0)) < togo &&
+                    sEdgeTable2.get(edgeIndex(newPos, newFlip, EDGE_GROUP)) < togo;
+        }
+    }
+
+    /**
+     * Same face twice, or opposite faces in decreasing order
+     * */
+    static boolean isRedundant(int lastMove, int move) {
+        int lastFace = lastMove / 3;
+        int face = move / 3;
+        return face == lastFace || face == lastFace - 3;
+    }
+
+    static int distance(int cornerPerm, int twist, byte[] pos, byte[] flip) {
+        return Math.max(sCornerTable.get(cornerPerm * CubieCube.N_TWIST + twist),
+                Math.max(sEdgeTable1.get(edgeIndex(pos, flip, 0)),
+                        sEdgeTable2.get(edgeIndex(pos, flip, EDGE_GROUP))));
+    }
+
+    /**
+     * Position and flip of every edge piece of @cube
+     * */
+    static void setEdges(CubieCube cube, byte[] pos, byte[] flip) {
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            pos[cube.ep[i]] = (byte) i;
+            flip[cube.ep[i]] = cube.eo[i];
+        }
+    }
+
+    static void moveEdges(byte[] pos, byte[] flip, int move, byte[] newPos, byte[] newFlip) {
+        int base = move * CubieCube.EDGE_COUNT;
+        for (int e = 0; e < CubieCube.EDGE_COUNT; e++) {
+            newPos[e] = sEdgePosMove[base + pos[e]];
+            newFlip[e] = (byte) (flip[e] ^ sEdgeFlipMove[base + pos[e]]);
+        }
+    }
+
+    /**
+     * Index of the ordered positions and flips of the 6 edges starting with edge @first
+     * */
+    static int edgeIndex(byte[] pos, byte[] flip, int first) {
+        int used = 0;
+        int index = 0;
+        int flips = 0;
+        for (int k = 0; k < EDGE_GROUP; k++) {
+            int p = pos[first + k];
+            int free = p - Integer.bitCount(used & ((1 << p) - 1));
+            index = index * (CubieCube.EDGE_COUNT - k) + free;
+            used |= 1 << p;
+            flips = flips * 2 + flip[first + k];
+        }
+        return index * 64 + flips;
+    }
+
+    /**
+     * Inverse of edgeIndex
+     * */
+    static void setEdgeIndex(int index, byte[] pos, byte[] flip, int first) {
+        int flips = index & 63;
+        index >>= 6;
+        int[] digits = new int[EDGE_GROUP];
+        for (int k = EDGE_GROUP - 1; k >= 0; k--) {
+            digits[k] = index % (CubieCube.EDGE_COUNT - k);
+            index /= CubieCube.EDGE_COUNT - k;
+            flip[first + k] = (byte) (flips & 1);
+            flips >>= 1;
+        }
+        int used = 0;
+        for (int k = 0; k < EDGE_GROUP; k++) {
+            int p = 0;
+            for (int skip = digits[k]; skip > 0 || (used & (1 << p)) != 0; p++) {
+                if ((used & (1 << p)) == 0) skip--;
+            }
+            used |= 1 << p;
+            pos[first + k] = (byte) p;
+        }
+    }
+
+    /**
+     * Build the move tables and load the pattern databases if not done yet. Generating the
+     * databases takes a long time if PruningTableStore doesn't have them yet.
+     * */
+    public static synchronized void init() {
+        if (sInitialized) return;
+        long start = System.currentTimeMillis();
+
+        int[] allMoves = new int[N_MOVES];
+        for (int i = 0; i < N_MOVES; i++) {
+            allMoves[i] = i;
+        }
+        sCornerPermMove = CubieCube.Coordinate.CORNER_PERM.moveTable(allMoves);
+        sTwistMove = CubieCube.Coordinate.TWIST.moveTable(allMoves);
+
+        sEdgePosMove = new byte[N_MOVES * CubieCube.EDGE_COUNT];
+        sEdgeFlipMove = new byte[N_MOVES * CubieCube.EDGE_COUNT];
+        for (int move = 0; move < N_MOVES; move++) {
+            CubieCube cube = CubieCube.sMoves[move];
+            for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+                sEdgePosMove[move * CubieCube.EDGE_COUNT + cube.ep[i]] = (byte) i;
+                sEdgeFlipMove[move * CubieCube.EDGE_COUNT + cube.ep[i]] = cube.eo[i];
+            }
+        }
+
+        sCornerTable = PruningTableStore.load("optimal-corners", TABLE_VERSION, N_CORNERS,
+                new PruningTableStore.Generator() {
+                    @Override
+                    public void generate(PruningTable table) {
+                        fillCornerTable(table);
+                    }
+                });
+
+        byte[] pos = new byte[CubieCube.EDGE_COUNT];
+        byte[] flip = new byte[CubieCube.EDGE_COUNT];
+        setEdges(new CubieCube(), pos, flip);
+        sEdgeTable1 = loadEdgeTable("optimal-edges1", edgeIndex(pos, flip, 0));
+        sEdgeTable2 = loadEdgeTable("optimal-edges2", edgeIndex(pos, flip, EDGE_GROUP));
+        sEdgeMove = null;
+
+        sInitialized = true;
+        Log.w(tag, "Tables ready in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    static void fillCornerTable(PruningTable table) {
+        table.fill(0, new PruningTable.Expander() {
+            @Override
+            public int expand(int index, int[] next) {
+                int cornerPerm = index / CubieCube.N_TWIST;
+                int twist = index % CubieCube.N_TWIST;
+                for (int m = 0; m < N_MOVES; m++) {
+                    next[m] = sCornerPermMove[cornerPerm * N_MOVES + m] * CubieCube.N_TWIST +
+                            sTwistMove[twist * N_MOVES + m];
+                }
+                return N_MOVES;
+            }
+        }, N_MOVES);
+    }
+
+    /**
+     * Moves on the positions part of edgeIndex. The result packs the new positions index
+     * and the flips caused by the move: (positions << 6) | flips
+     * */
+    static int[] buildEdgeMoveTable() {
+        int[] table = new int[N_EDGE_POSITIONS * N_MOVES];
+        byte[] pos = new byte[CubieCube.EDGE_COUNT];
+        byte[] flip = new byte[CubieCube.EDGE_COUNT];
+        byte[] newPos = new byte[CubieCube.EDGE_COUNT];
+        byte[] newFlip = new byte[CubieCube.EDGE_COUNT];
+        for (int i = 0; i < N_EDGE_POSITIONS; i++) {
+            setEdgeIndex(i * 64, pos, flip, 0);
+            for (int m = 0; m < N_MOVES; m++) {
+                moveEdges(pos, flip, m, newPos, newFlip);
+                table[i * N_MOVES + m] = edgeIndex(newPos, newFlip, 0);
+            }
+        }
+        return table;
+    }
+
+    private static PruningTable loadEdgeTable(String name, final int goal) {
+        return PruningTableStore.load(name, TABLE_VERSION, N_EDGES,
+                new PruningTableStore.Generator() {
+                    @Override
+                    public void generate(PruningTable table) {
+                        if (sEdgeMove == null) {
+                            sEdgeMove = buildEdgeMoveTable();
+                        }
+                        fillEdgeTable(table, sEdgeMove, goal);
+                    }
+                });
+    }
+
+    static void fillEdgeTable(PruningTable table, final int[] edgeMove, int goal) {
+        table.fill(goal, new PruningTable.Expander() {
+            @Override
+            public int expand(int index, int[] next) {
+                int positions = index >> 6;
+                int flips = index & 63;
+                for (int m = 0; m < N_MOVES; m++) {
+                    int moved = edgeMove[positions * N_MOVES + m];
+                    next[m] = (moved & ~63) | ((moved & 63) ^ flips);
+                }
+                return N_MOVES;
+            }
+        }, N_MOVES);
+    }
+}
@@ -0,0 +1,145 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OptimalSolver spread over several threads.
+ *
+ * For every depth bound, the first SPLIT_DEPTH levels of the search tree are split into tasks
+ * of a ForkJoinPool, whose idle workers steal the pending tasks of busy ones. Every task
+ * searches its subtree with its own buffers. All tasks share the same bound, so the first
+ * solution found is optimal: it is published and the other tasks stop.
+ *
+ * ForkJoinPool needs Android 5.0 (API 21).
+ */
+public class ParallelOptimalSolver extends OptimalSolver {
+
+    private static final String tag = "rubik-parallel";
+
+    static final int SPLIT_DEPTH = 3;
+
+    private final int mParallelism;
+    private final AtomicLong mNodeCounter = new AtomicLong();
+    private volatile int[] mSolution;
+
+    public ParallelOptimalSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelOptimalSolver(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    @Override
+    public int[] solve(CubieCube cube) {
+        startSearch(cube);
+        long start = System.currentTimeMillis();
+        mNodeCounter.set(0);
+
+        int cornerPerm = cube.getCornerPerm();
+        int twist = cube.getTwist();
+        byte[] pos = new byte[CubieCube.EDGE_COUNT];
+        byte[] flip = new byte[CubieCube.EDGE_COUNT];
+        setEdges(cube, pos, flip);
+
+        int[] solution = null;
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            int bound = distance(cornerPerm, twist, pos, flip);
+            for (; bound <= mMaxDepth && !mCancelled; bound++) {
+                if (bound == 0) {
+                    solution = new int[0];
+                    break;
+                }
+                mSolution = null;
+                pool.invoke(new Task(new int[0], cornerPerm, twist, pos, flip, bound));
+                if (mSolution != null) {
+                    solution = mSolution;
+                    break;
+                }
+                Log.d(tag, "Depth " + bound + " done, " + mNodeCounter.get() + " nodes");
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return finishSearch(solution, mNodeCounter.get(), start);
+    }
+
+    private synchronized void publish(int[] moves) {
+        if (mSolution == null) {
+            mSolution = moves;
+        }
+    }
+
+    /**
+     * Subtree below the node reached by @prefix
+     * */
+    private class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] mPrefix;
+        private final int mCornerPerm;
+        private final int mTwist;
+        private final byte[] mEdgePos;
+        private final byte[] mEdgeFlip;
+        private final int mBound;
+
+        Task(int[] prefix, int cornerPerm, int twist, byte[] edgePos, byte[] edgeFlip,
+             int bound) {
+            mPrefix = prefix;
+            mCornerPerm = cornerPerm;
+            mTwist = twist;
+            mEdgePos = edgePos;
+            mEdgeFlip = edgeFlip;
+            mBound = bound;
+        }
+
+        @Override
+        protected void compute() {
+            Search search = new Search() {
+                @Override
+                boolean isStopped() {
+                    return mCancelled || mSolution != null;
+                }
+            };
+            int depth = mPrefix.length;
+            System.arraycopy(mPrefix, 0, search.moves, 0, depth);
+            System.arraycopy(mEdgePos, 0, search.edgePos[depth], 0, CubieCube.EDGE_COUNT);
+            System.arraycopy(mEdgeFlip, 0, search.edgeFlip[depth], 0, CubieCube.EDGE_COUNT);
+
+            int togo = mBound - depth;
+            if (depth >= SPLIT_DEPTH || togo <= 1) {
+                if (search.search(mCornerPerm, mTwist, depth, mBound)) {
+                    publish(Arrays.copyOf(search.moves, mBound));
+                }
+                mNodeCounter.addAndGet(search.nodes);
+                return;
+            }
+
+            mNodeCounter.incrementAndGet();
+            if (search.isStopped()) return;
+            ArrayList<Task> children = new ArrayList<>();
+            for (int move = 0; move < N_MOVES; move++) {
+                if (depth > 0 && isRedundant(mPrefix[depth - 1], move)) continue;
+
+                int cornerPerm = sCornerPermMove[mCornerPerm * N_MOVES + move];
+                int twist = sTwistMove[mTwist * N_MOVES + move];
+                if (!search.isPromising(cornerPerm, twist, depth, move, togo)) continue;
+
+                int[] prefix = Arrays.copyOf(mPrefix, depth + 1);
+                prefix[depth] = move;
+                children.add(new Task(prefix, cornerPerm, twist,
+                        search.edgePos[depth + 1].clone(), search.edgeFlip[depth + 1].clone(),
+                        mBound));
+            }
+            invokeAll(children);
+        }
+    }
+}
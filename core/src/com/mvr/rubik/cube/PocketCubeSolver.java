@@ -0,0 +1,280 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+
+/**
+ * God's algorithm for 2x2x2 cubes: the distance of every state to the solved one is in a table,
+ * so an optimal solution is found by stepping to a neighbour one move closer until solved.
+ *
+ * The DRB corner is kept in place and the cube is turned by U, F and L only, which leaves
+ * 7! * 3^6 = 3,674,160 states. A state is indexed by the permutation of the other 7 corners
+ * and the twist of the first 6, the last one following from them. The table holds distances
+ * modulo 3 at 2 bits per state (less than 1MB) and is filled by a breadth first search once, on
+ * as many threads as the creator of the first solver allows, then kept by PruningTableStore.
+ *
+ * Moves are counted in the half turn metric; no state needs more than 11.
+ *
+ * Instances are thread safe.
+ */
+public class PocketCubeSolver implements CubeSolver {
+
+    private static final String tag = "rubik-pocket";
+
+    private static final int SIZE = 2;
+    private static final int SIZE_3X3 = 3;
+
+    // U, U2, U', F, F2, F', L, L2, L'
+    private static final int[] sMoves = {0, 1, 2, 6, 7, 8, 12, 13, 14};
+    private static final int N_MOVES = sMoves.length;
+
+    // Corners other than DRB, which stays in place
+    private static final int N_CORNERS = CubieCube.CORNER_COUNT - 1;
+    private static final int N_PERM = 5040;
+    private static final int N_TWIST = 729;
+    private static final int N_STATES = N_PERM * N_TWIST;
+
+    static final int MAX_DEPTH = 11;
+
+    /**
+     * Version of the table in PruningTableStore, to be bumped whenever the way it is indexed or
+     * filled changes
+     * */
+    private static final int TABLE_VERSION = 1;
+
+    private static char[] sPermMove;
+    private static char[] sTwistMove;
+    private static volatile PruningTable sTable;
+
+    private final int mParallelism;
+
+    /**
+     * A solver building the table on the calling thread, if it isn't ready yet
+     * */
+    public PocketCubeSolver() {
+        this(1);
+    }
+
+    /**
+     * @parallelism: threads building the table if it isn't ready yet. Above 1 they run in a
+     *      ForkJoinPool, which needs Android 5.0 (API 21).
+     * */
+    public PocketCubeSolver(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    /**
+     * @return steps that solve @cube in the fewest possible moves; empty if it is already solved
+     * */
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        int[] moves = solve(toCubieCube(cube));
+        Algorithm algo = new Algorithm();
+        for (int move : moves) {
+            int face = move / 3;
+            int power = move % 3 + 1;
+            Direction direction = CubieCube.faceDirection(face);
+            if (power == 3) {
+                power = 1;
+                direction = FaceletCube.reverse(direction);
+            }
+            int layer = CubieCube.faceLayer(face) == 0 ? 0 : SIZE - 1;
+            for (int i = 0; i < power; i++) {
+                algo.addStep(CubieCube.faceAxis(face), direction, layer);
+            }
+        }
+        return algo;
+    }
+
+    /**
+     * @cube: corners of a 2x2x2 cube, with DRB in place
+     * @return the shortest sequence of moves in CubieCube numbering
+     * */
+    public int[] solve(CubieCube cube) {
+        init(mParallelism);
+        int index = index(cube);
+        int distance = 0;
+        for (int i = index; i != 0; distance++) {
+            if (distance > MAX_DEPTH) {
+                throw new AssertionError("Table broken at " + index);
+            }
+            i = closer(i);
+        }
+
+        int[] solution = new int[distance];
+        for (int k = 0; k < distance; k++) {
+            int next = closer(index);
+            for (int m = 0; m < N_MOVES; m++) {
+                if (move(index, m) == next) {
+                    solution[k] = sMoves[m];
+                    break;
+                }
+            }
+            index = next;
+        }
+        return solution;
+    }
+
+    /**
+     * Neighbour of @index one move closer to the solved state
+     * */
+    private static int closer(int index) {
+        int target = (sTable.get(index) + 2) % 3;
+        for (int m = 0; m < N_MOVES; m++) {
+            int next = move(index, m);
+            if (sTable.get(next) == target) {
+                return next;
+            }
+        }
+        throw new AssertionError("No way closer from " + index);
+    }
+
+    private static int move(int index, int m) {
+        return sPermMove[index / N_TWIST * N_MOVES + m] * N_TWIST +
+                sTwistMove[index % N_TWIST * N_MOVES + m];
+    }
+
+    private static int index(CubieCube cube) {
+        if (cube.cp[CubieCube.DRB] != CubieCube.DRB || cube.co[CubieCube.DRB] != 0) {
+            throw new InvalidParameterException("DRB is not in place");
+        }
+        return CubieCube.permutationIndex(cube.cp, 0, N_CORNERS) * N_TWIST +
+                cube.getTwist() / 3;
+    }
+
+    /**
+     * Corners of a 2x2x2 FaceletCube. The DRB corner decides the colors of its faces and the
+     * other faces get the colors never found on a corner with those.
+     *
+     * Throws InvalidParameterException if the squares don't form a solvable cube.
+     * */
+    static CubieCube toCubieCube(FaceletCube cube) {
+        if (cube.getSizeX() != SIZE || cube.getSizeY() != SIZE || cube.getSizeZ() != SIZE) {
+            throw new InvalidParameterException("Not a 2x2x2 cube");
+        }
+
+        // Colors sharing a corner are on adjacent faces
+        int paletteSize = cube.getPaletteSize();
+        boolean[][] adjacent = new boolean[paletteSize][paletteSize];
+        boolean[] used = new boolean[paletteSize];
+        for (int[] corner : CubieCube.cornerFacelet) {
+            for (int i = 0; i < corner.length; i++) {
+                int color = cube.get(scaleFacelet(corner[i]));
+                int next = cube.get(scaleFacelet(corner[(i + 1) % corner.length]));
+                adjacent[color][next] = adjacent[next][color] = true;
+                used[color] = true;
+            }
+        }
+        int[] faceColors = new int[Cube.FACE_COUNT];
+        for (int facelet : CubieCube.cornerFacelet[CubieCube.DRB]) {
+            faceColors[facelet / (SIZE_3X3 * SIZE_3X3)] = cube.get(scaleFacelet(facelet));
+        }
+        faceColors[Cube.FACE_TOP] =
+                ReductionSolver.opposite(faceColors[Cube.FACE_BOTTOM], adjacent, used);
+        faceColors[Cube.FACE_LEFT] =
+                ReductionSolver.opposite(faceColors[Cube.FACE_RIGHT], adjacent, used);
+        faceColors[Cube.FACE_FRONT] =
+                ReductionSolver.opposite(faceColors[Cube.FACE_BACK], adjacent, used);
+
+        // 3x3x3 with the same corners and everything else solved
+        FaceletCube cube3x3 = new FaceletCube(SIZE_3X3);
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            cube3x3.setFaceColor(face, cube.getPaletteColor(faceColors[face]));
+        }
+        for (int[] corner : CubieCube.cornerFacelet) {
+            for (int facelet : corner) {
+                cube3x3.setColor(facelet / (SIZE_3X3 * SIZE_3X3), facelet % (SIZE_3X3 * SIZE_3X3),
+                        cube.getPaletteColor(cube.get(scaleFacelet(facelet))));
+            }
+        }
+        CubieCube cubies = CubieCube.fromFacelets(cube3x3);
+
+        int twist = 0;
+        boolean[] seen = new boolean[CubieCube.CORNER_COUNT];
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            if (seen[cubies.cp[i]]) {
+                throw new InvalidParameterException("Corner " + cubies.cp[i] + " found twice");
+            }
+            seen[cubies.cp[i]] = true;
+            twist += cubies.co[i];
+        }
+        if (twist % 3 != 0) {
+            throw new InvalidParameterException("Twisted corner");
+        }
+        return cubies;
+    }
+
+    /**
+     * Facelet of a 2x2x2 cube at the corner facelet @facelet of a 3x3x3 cube
+     * */
+    private static int scaleFacelet(int facelet) {
+        int face = facelet / (SIZE_3X3 * SIZE_3X3);
+        int row = facelet % (SIZE_3X3 * SIZE_3X3) / SIZE_3X3 / (SIZE_3X3 - 1);
+        int column = facelet % SIZE_3X3 / (SIZE_3X3 - 1);
+        return face * SIZE * SIZE + row * SIZE + column;
+    }
+
+    /**
+     * Whether the table is ready, so a solve won't block on init()
+     * */
+    public static boolean isInitialized() {
+        return sTable != null;
+    }
+
+    /**
+     * Build the move tables and load the table if not done yet. Generating the table takes
+     * about a second if PruningTableStore doesn't have it yet, on @parallelism threads.
+     * */
+    public static synchronized void init(final int parallelism) {
+        if (sTable != null) return;
+        long start = System.currentTimeMillis();
+
+        sPermMove = new char[N_PERM * N_MOVES];
+        sTwistMove = new char[N_TWIST * N_MOVES];
+        CubieCube cube = new CubieCube();
+        for (int perm = 0; perm < N_PERM; perm++) {
+            for (int m = 0; m < N_MOVES; m++) {
+                cube.reset();
+                CubieCube.setPermutation(perm, cube.cp, 0, N_CORNERS);
+                cube.cornerMultiply(CubieCube.sMoves[sMoves[m]]);
+                sPermMove[perm * N_MOVES + m] =
+                        (char) CubieCube.permutationIndex(cube.cp, 0, N_CORNERS);
+            }
+        }
+        for (int twist = 0; twist < N_TWIST; twist++) {
+            for (int m = 0; m < N_MOVES; m++) {
+                // The last digit of the CubieCube twist is the corner before DRB
+                cube.reset();
+                cube.setTwist(twist * 3);
+                int sum = 0;
+                for (int i = 0; i < N_CORNERS - 1; i++) {
+                    sum += cube.co[i];
+                }
+                cube.co[N_CORNERS - 1] = (byte) ((3 - sum % 3) % 3);
+                cube.co[CubieCube.DRB] = 0;
+                cube.cornerMultiply(CubieCube.sMoves[sMoves[m]]);
+                sTwistMove[twist * N_MOVES + m] = (char) (cube.getTwist() / 3);
+            }
+        }
+
+        sTable = PruningTableStore.load("pocket-cube", TABLE_VERSION, N_STATES, 2,
+                new PruningTableStore.Generator() {
+                    @Override
+                    public void generate(PruningTable table) {
+                        int depth = table.fillModulo3(0, new PruningTable.Expander() {
+                            @Override
+                            public int expand(int index, int[] next) {
+                                for (int m = 0; m < N_MOVES; m++) {
+                                    next[m] = move(index, m);
+                                }
+                                return N_MOVES;
+                            }
+                        }, N_MOVES, parallelism);
+                        Log.w(tag, "Largest distance " + depth);
+                    }
+                });
+        Log.w(tag, "Table ready in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
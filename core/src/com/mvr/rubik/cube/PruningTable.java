@@ -0,0 +1,299 @@
+package com.mvr.rubik.cube;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pattern database: distance to the goal for every value of a coordinate, 4 bits per entry.
+ * Entries that are not known yet hold UNKNOWN.
+ *
+ * Tables of complete searches can use 2 bits per entry, holding the distance modulo 3: the
+ * neighbours of an entry are one move closer, as far or one move farther, which are different
+ * values modulo 3. Their unknown entries are all ones.
+ *
+ * The entries live in a ByteBuffer, either on the heap while the table is being filled or
+ * mapped from a file by PruningTableStore.
+ */
+class PruningTable {
+
+    static final int UNKNOWN = 0xF;
+    static final int BITS = 4;
+
+    // Entries per task of fillModulo3, a multiple of the entries per byte
+    private static final int ENTRIES_PER_TASK = 1 << 14;
+
+    /**
+     * Neighbours of a coordinate value, used to fill the table
+     * */
+    interface Expander {
+        /**
+         * Store the values reachable from @index in one move into @next
+         * @return number of values stored
+         * */
+        int expand(int index, int[] next);
+    }
+
+    private final int mSize;
+    private final int mBits;
+    // log2 of the entries per byte
+    private final int mShift;
+    private final int mMask;
+    private final ByteBuffer mData;
+    // The bytes of mData when it is on the heap: reading them directly skips the buffer checks
+    private final byte[] mArray;
+
+    PruningTable(int size) {
+        this(size, BITS);
+    }
+
+    PruningTable(int size, int bits) {
+        this(size, bits, ByteBuffer.wrap(new byte[dataLength(size, bits)]));
+        Arrays.fill(mData.array(), (byte) 0xFF);
+    }
+
+    /**
+     * Table over existing entries, possibly read only
+     * */
+    PruningTable(int size, int bits, ByteBuffer data) {
+        if (bits != 2 && bits != 4) {
+            throw new InvalidParameterException("Invalid entry size: " + bits);
+        }
+        if (data.capacity() != dataLength(size, bits)) {
+            throw new InvalidParameterException("Size mismatch: " + size + ", " + data.capacity());
+        }
+        mSize = size;
+        mBits = bits;
+        mShift = bits == 2 ? 2 : 1;
+        mMask = (1 << bits) - 1;
+        mData = data;
+        mArray = data.hasArray() && data.arrayOffset() == 0 ? data.array() : null;
+    }
+
+    static int dataLength(int size, int bits) {
+        int perByte = 8 / bits;
+        return (size + perByte - 1) / perByte;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int bits() {
+        return mBits;
+    }
+
+    /**
+     * Value of the entries not known yet
+     * */
+    int unknown() {
+        return mMask;
+    }
+
+    /**
+     * All the entries, positioned at the start
+     * */
+    ByteBuffer getData() {
+        ByteBuffer data = mData.duplicate();
+        data.clear();
+        return data;
+    }
+
+    int get(int index) {
+        int shift = (index & ((1 << mShift) - 1)) * mBits;
+        if (mArray != null) {
+            return (mArray[index >> mShift] >> shift) & mMask;
+        }
+        return (mData.get(index >> mShift) >> shift) & mMask;
+    }
+
+    /**
+     * Entries sharing a byte must not be set from different threads at the same time
+     * */
+    void set(int index, int value) {
+        int i = index >> mShift;
+        int shift = (index & ((1 << mShift) - 1)) * mBits;
+        int b = mData.get(i);
+        mData.put(i, (byte) ((b & ~(mMask << shift)) | (value << shift)));
+    }
+
+    /**
+     * Breadth first search from @goal until all entries are known
+     * @return the largest distance
+     * */
+    int fill(int goal, Expander expander, int maxMoves) {
+        return fill(new int[] {goal}, expander, maxMoves, true);
+    }
+
+    /**
+     * Breadth first search from all the @goals. Entries that can't be reached stay UNKNOWN.
+     * @return the largest distance
+     * */
+    int fillReachable(int[] goals, Expander expander, int maxMoves) {
+        return fill(goals, expander, maxMoves, false);
+    }
+
+    private int fill(int[] goals, Expander expander, int maxMoves, boolean complete) {
+        if (mBits != BITS) {
+            throw new AssertionError("Distances need " + BITS + " bits: " + mBits);
+        }
+        int[] next = new int[maxMoves];
+        int filled = 0;
+        for (int goal : goals) {
+            if (get(goal) == UNKNOWN) {
+                set(goal, 0);
+                filled++;
+            }
+        }
+        int depth = 0;
+        while (filled < mSize) {
+            int found = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (get(i) != depth) continue;
+                int count = expander.expand(i, next);
+                for (int k = 0; k < count; k++) {
+                    if (get(next[k]) == UNKNOWN) {
+                        set(next[k], depth + 1);
+                        found++;
+                    }
+                }
+            }
+            if (found == 0) {
+                if (!complete) break;
+                throw new AssertionError("Unreachable entries: " + (mSize - filled));
+            }
+            filled += found;
+            depth++;
+            if (depth >= UNKNOWN) {
+                throw new AssertionError("Distance too large for the table: " + depth);
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Breadth first search from @goal, storing the distances modulo 3 in a 2 bit table, on
+     * @parallelism threads.
+     *
+     * Every level is found from the entries still unknown: those with a neighbour on the
+     * previous level are on the new one. A neighbour holding the same value modulo 3 three
+     * levels back would have made the entry known already. Each task only sets the entries of
+     * its own bytes, so no locking is needed. @expander must be thread safe.
+     *
+     * With a @parallelism of 1 the search runs on the calling thread, without ForkJoinPool,
+     * which is missing before Android 5.0 (API 21).
+     * @return the largest distance
+     * */
+    int fillModulo3(int goal, Expander expander, int maxMoves, int parallelism) {
+        if (mBits != 2) {
+            throw new AssertionError("Modulo 3 distances take 2 bits: " + mBits);
+        }
+        set(goal, 0);
+        if (parallelism > 1) {
+            return fillModulo3Parallel(expander, maxMoves, parallelism);
+        }
+        long filled = 1;
+        int depth = 0;
+        int[] next = new int[maxMoves];
+        while (filled < mSize) {
+            int found = expandLevel(0, mSize, depth, expander, next);
+            if (found == 0) {
+                throw new AssertionError("Unreachable entries: " + (mSize - filled));
+            }
+            filled += found;
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * The levels of fillModulo3 split into Level tasks of a ForkJoinPool, kept apart so the
+     * single threaded search never loads ForkJoinPool
+     * */
+    private int fillModulo3Parallel(Expander expander, int maxMoves, int parallelism) {
+        long filled = 1;
+        int depth = 0;
+        AtomicLong found = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            while (filled < mSize) {
+                found.set(0);
+                pool.invoke(new Level(0, (mSize + ENTRIES_PER_TASK - 1) / ENTRIES_PER_TASK,
+                        depth, expander, maxMoves, found));
+                if (found.get() == 0) {
+                    throw new AssertionError("Unreachable entries: " + (mSize - filled));
+                }
+                filled += found.get();
+                depth++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return depth;
+    }
+
+    /**
+     * Set the unknown entries from @first to @end - 1 that have a neighbour at @depth to
+     * @depth + 1, modulo 3
+     * @return number of entries set
+     * */
+    private int expandLevel(int first, int end, int depth, Expander expander, int[] next) {
+        int previous = depth % 3;
+        int value = (depth + 1) % 3;
+        int found = 0;
+        for (int i = first; i < end; i++) {
+            if (get(i) != mMask) continue;
+            int count = expander.expand(i, next);
+            for (int k = 0; k < count; k++) {
+                if (get(next[k]) == previous) {
+                    set(i, value);
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Entries of the next level among the chunks [@mFirst, @mLast) of ENTRIES_PER_TASK
+     * */
+    private class Level extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mFirst;
+        private final int mLast;
+        private final int mDepth;
+        private final Expander mExpander;
+        private final int mMaxMoves;
+        private final AtomicLong mFound;
+
+        Level(int first, int last, int depth, Expander expander, int maxMoves,
+              AtomicLong found) {
+            mFirst = first;
+            mLast = last;
+            mDepth = depth;
+            mExpander = expander;
+            mMaxMoves = maxMoves;
+            mFound = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst > 1) {
+                int middle = (mFirst + mLast) >>> 1;
+                invokeAll(new Level(mFirst, middle, mDepth, mExpander, mMaxMoves, mFound),
+                        new Level(middle, mLast, mDepth, mExpander, mMaxMoves, mFound));
+                return;
+            }
+
+            int end = Math.min(mSize, mLast * ENTRIES_PER_TASK);
+            mFound.addAndGet(expandLevel(mFirst * ENTRIES_PER_TASK, end, mDepth, mExpander,
+                    new int[mMaxMoves]));
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps pruning tables in files, so that they are generated only once.
+ *
+ * A table file is a header followed by the entries of the table:
+ *  0 magic
+ *  4 format version
+ *  8 table version, bumped by the solver whenever the content of the table changes
+ * 12 number of entries
+ * 16 data length in bytes, which also tells the bits per entry
+ * 24 CRC32 of the data
+ * 32 CRC32 of the bytes above
+ *
+ * The data is mapped read only with FileChannel.map, so loading is nearly instant and only the
+ * pages that the search touches are ever read. Checking the data CRC reads the whole file, so
+ * it is done once per file: a small marker file next to it records the header CRC and the
+ * modification time of the file that passed. A table written or replaced since is checked
+ * again, and every load is checked after setVerifyData(true). The header is always checked.
+ * Missing, stale or broken files are regenerated.
+ *
+ * Without a directory (see setDirectory), tables are generated in memory every time.
+ */
+public class PruningTableStore {
+
+    private static final String tag = "rubik-tables";
+
+    private static final int MAGIC = 0x52505442;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int HEADER_CRC_OFFSET = 32;
+    private static final String SUFFIX = ".prun";
+    private static final String VERIFIED_SUFFIX = ".ok";
+
+    private static File sDirectory = null;
+    private static boolean sVerifyData = false;
+
+    /**
+     * Fills a new table when there is no usable file
+     * */
+    interface Generator {
+        void generate(PruningTable table);
+    }
+
+    private PruningTableStore() {
+    }
+
+    /**
+     * Directory for the table files, null to keep tables in memory only
+     * */
+    public static synchronized void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    /**
+     * Check the CRC of the whole table on every load, not only on the first one. This reads
+     * every page of the file.
+     * */
+    public static synchronized void setVerifyData(boolean verify) {
+        sVerifyData = verify;
+    }
+
+    /**
+     * Map the table @name from its file if it is there and up to date. Otherwise generate it and
+     * write it for the next time.
+     * */
+    static PruningTable load(String name, int version, int size, Generator generator) {
+        return load(name, version, size, PruningTable.BITS, generator);
+    }
+
+    /**
+     * Same for a table of @bits per entry
+     * */
+    static PruningTable load(String name, int version, int size, int bits,
+                             Generator generator) {
+        File directory;
+        boolean verify;
+        synchronized (PruningTableStore.class) {
+            directory = sDirectory;
+            verify = sVerifyData;
+        }
+
+        File file = directory == null ? null : new File(directory, name + SUFFIX);
+        if (file != null && file.exists()) {
+            try {
+                PruningTable table = map(file, version, size, bits, verify);
+                if (table != null) {
+                    return table;
+                }
+            } catch (IOException e) {
+                Log.w(tag, "Can't read " + file + ": " + e);
+            }
+            if (!file.delete()) {
+                Log.w(tag, "Can't delete " + file);
+            }
+            getVerifiedFile(file).delete();
+        }
+
+        long start = System.currentTimeMillis();
+        PruningTable table = new PruningTable(size, bits);
+        generator.generate(table);
+        Log.w(tag, "Generated " + name + " in " + (System.currentTimeMillis() - start) + "ms");
+
+        if (file != null) {
+            try {
+                write(file, version, table);
+                // Reads back what was written, while it is still cached, and marks it verified
+                PruningTable mapped = map(file, version, size, bits, false);
+                if (mapped != null) {
+                    return mapped;
+                }
+            } catch (IOException e) {
+                Log.w(tag, "Can't write " + file + ": " + e);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the mapped table, or null if the file doesn't match
+     * */
+    private static PruningTable map(File file, int version, int size, int bits,
+                                    boolean verify) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long dataLength = PruningTable.dataLength(size, bits);
+            if (channel.size() != HEADER_SIZE + dataLength) {
+                Log.w(tag, file.getName() + ": unexpected length " + channel.size());
+                return null;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_CRC_OFFSET);
+            if (header.getLong(HEADER_CRC_OFFSET) != crc.getValue()) {
+                Log.w(tag, file.getName() + ": bad header");
+                return null;
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION ||
+                    header.getInt(8) != version || header.getInt(12) != size ||
+                    header.getLong(16) != dataLength) {
+                Log.w(tag, file.getName() + ": stale, version " + header.getInt(8));
+                return null;
+            }
+
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    dataLength);
+            long headerCrc = header.getLong(HEADER_CRC_OFFSET);
+            if (verify || !isVerified(file, headerCrc)) {
+                if (header.getLong(24) != checksum(data.duplicate())) {
+                    Log.w(tag, file.getName() + ": bad checksum");
+                    return null;
+                }
+                setVerified(file, headerCrc);
+            }
+            // The mapping stays valid after the file is closed
+            return new PruningTable(size, bits, data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static File getVerifiedFile(File file) {
+        return new File(file.getParentFile(), file.getName() + VERIFIED_SUFFIX);
+    }
+
+    /**
+     * @return whether the data of @file with this header was checked since it was last written
+     * */
+    private static boolean isVerified(File file, long headerCrc) {
+        File verified = getVerifiedFile(file);
+        if (!verified.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(verified));
+            try {
+                return in.readLong() == headerCrc && in.readLong() == file.lastModified();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A failure only means that the data is checked again on the next load
+     * */
+    private static void setVerified(File file, long headerCrc) {
+        File verified = getVerifiedFile(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(verified));
+            try {
+                out.writeLong(headerCrc);
+                out.writeLong(file.lastModified());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(tag, "Can't write " + verified + ": " + e);
+            verified.delete();
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so that a crash never leaves a half written table
+     * */
+    private static void write(File file, int version, PruningTable table) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(version);
+        header.putInt(table.size());
+        header.putLong(PruningTable.dataLength(table.size(), table.bits()));
+        header.putLong(checksum(table.getData()));
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_CRC_OFFSET);
+        header.putLong(crc.getValue());
+        header.flip();
+
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer data = table.getData();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        getVerifiedFile(file).delete();
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp);
+        }
+    }
+
+    private static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        while (data.hasRemaining()) {
+            int length = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+}
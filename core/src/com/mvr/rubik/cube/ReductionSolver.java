@@ -0,0 +1,609 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Reduction method for NxNxN cubes: the centers of every face are brought together and the
+ * wings of every edge are paired, after which the cube can be turned like a 3x3x3 cube and is
+ * solved by the TwoPhaseSolver using only its outer layers.
+ *
+ * Centers and wings are moved with the pure 3-cycles of CommutatorTable, so every piece placed
+ * stays in place. A 3-cycle can't fix an odd permutation of the wings of an orbit, which would
+ * show up as a single flipped edge on the 3x3x3 (OLL parity), so an inner slice turn fixes that
+ * before the centers are solved. On an even cube, the edges the wings are paired to are chosen
+ * to have the same permutation parity as the corners, which avoids two swapped edges on the
+ * 3x3x3 (PLL parity).
+ *
+ * On an odd cube the colors of the faces are those of the fixed centers and the wings are paired
+ * with the middle edge pieces. On an even cube the colors are read from the corners.
+ *
+ * The whole solution is computed on a copy of the given state and shortened by the
+ * AlgorithmOptimizer, which joins turns of neighboring layers into multi-layer steps. It can be
+ * cancelled from another thread, which big cubes may need.
+ * */
+public class ReductionSolver implements CancellableSolver {
+
+    private static final String tag = "rubik-reduction";
+
+    private static final int SIZE_3X3 = 3;
+    private static final int FACE_AREA_3X3 = SIZE_3X3 * SIZE_3X3;
+
+    // Outer layer turns around a wing 3-cycle
+    private static final int MAX_SETUP_TURNS = 3;
+    // 3-cycles per wing of an orbit, more means the pairing is going in circles
+    private static final int MAX_WING_STEPS = 4;
+
+    /**
+     * Faces in the order their centers are solved; the left one is done with the back one.
+     * Every face shares a slice with the faces still left, so a 3-cycle never needs a piece of
+     * a solved face.
+     * */
+    private static final int[] sCenterOrder = {
+            Cube.FACE_TOP, Cube.FACE_BOTTOM, Cube.FACE_FRONT, Cube.FACE_RIGHT, Cube.FACE_BACK
+    };
+
+    private final TwoPhaseSolver mTwoPhaseSolver = new TwoPhaseSolver();
+
+    private FaceletCube mCube;
+    private MoveTable mMoves;
+    private CommutatorTable mTable;
+    private Algorithm mSolution;
+    private int mSize;
+    private volatile boolean mCancelled;
+
+    // Palette index of every face in solved state
+    private final int[] mFaceColors = new int[Cube.FACE_COUNT];
+    // Palette index of every wing facelet once the edges are paired
+    private int[] mWingColors;
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * The cube is left untouched. 3x3x3 cubes go straight to the TwoPhaseSolver.
+     * @throws IllegalStateException if the search was cancelled
+     * */
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        try {
+            return reduce(cube);
+        } finally {
+            // Only once the search is over, so a cancel() made before it started isn't lost
+            mCancelled = false;
+        }
+    }
+
+    private Algorithm reduce(FaceletCube cube) {
+        int size = cube.getSizeX();
+        if (size != cube.getSizeY() || size != cube.getSizeZ() || size < SIZE_3X3) {
+            throw new InvalidParameterException("Not a NxNxN cube: " + cube.getSizeX() + "x" +
+                    cube.getSizeY() + "x" + cube.getSizeZ());
+        }
+        long start = System.currentTimeMillis();
+        mCube = new FaceletCube(cube);
+        mMoves = mCube.getMoveTable();
+        mSolution = new Algorithm();
+        mSize = size;
+        findFaceColors();
+
+        if (size > SIZE_3X3) {
+            mTable = CommutatorTable.get(size);
+            mWingColors = new int[mMoves.getFaceletCount()];
+            fixOrbitParities();
+            int centerStart = mSolution.size();
+            solveCenters();
+            int edgeStart = mSolution.size();
+            pairEdges();
+            Log.d(tag, "Centers: " + (edgeStart - centerStart) + " steps, edges: " +
+                    (mSolution.size() - edgeStart) + " steps");
+        }
+        if (mCancelled) {
+            throw new IllegalStateException("Search cancelled");
+        }
+        solve3x3();
+        if (!mCube.isSolved()) {
+            throw new InvalidParameterException("This cube can't be solved");
+        }
+
+        Algorithm solution = mSolution.optimize(size, size, size, false);
+        Log.d(tag, size + "x" + size + "x" + size + ": " + solution.size() + " steps in " +
+                (System.currentTimeMillis() - start) + "ms");
+        return solution;
+    }
+
+    private void apply(int move) {
+        if (mCancelled) {
+            throw new IllegalStateException("Search cancelled");
+        }
+        mCube.rotate(move);
+        mSolution.addStep(mMoves.getAxis(move), MoveTable.getDirection(move),
+                mMoves.getLayer(move));
+    }
+
+    private void apply(int[] moves, boolean inverse) {
+        if (inverse) {
+            for (int i = moves.length - 1; i >= 0; i--) {
+                apply(MoveTable.inverse(moves[i]));
+            }
+        } else {
+            for (int move : moves) {
+                apply(move);
+            }
+        }
+    }
+
+    /**
+     * Facelet of the big cube playing the role of @facelet of a 3x3x3 cube. The middle row and
+     * column of the 3x3x3 face become @middle.
+     * */
+    private int scaleFacelet(int facelet, int middle) {
+        int face = facelet / FACE_AREA_3X3;
+        int row = scaleLayer(facelet % FACE_AREA_3X3 / SIZE_3X3, middle);
+        int column = scaleLayer(facelet % SIZE_3X3, middle);
+        return face * mSize * mSize + row * mSize + column;
+    }
+
+    private int scaleLayer(int layer, int middle) {
+        return layer == 0 ? 0 : layer == 1 ? middle : mSize - 1;
+    }
+
+    private void findFaceColors() {
+        if (mSize % 2 == 1) {
+            int middle = mSize / 2;
+            for (int face = 0; face < Cube.FACE_COUNT; face++) {
+                mFaceColors[face] = mCube.get(face, middle * mSize + middle);
+            }
+            return;
+        }
+
+        // Colors sharing a corner are on adjacent faces
+        int paletteSize = mCube.getPaletteSize();
+        boolean[][] adjacent = new boolean[paletteSize][paletteSize];
+        boolean[] used = new boolean[paletteSize];
+        for (int[] corner : CubieCube.cornerFacelet) {
+            for (int i = 0; i < corner.length; i++) {
+                int color = mCube.get(scaleFacelet(corner[i], 0));
+                int next = mCube.get(scaleFacelet(corner[(i + 1) % corner.length], 0));
+                adjacent[color][next] = adjacent[next][color] = true;
+                used[color] = true;
+            }
+        }
+        int[] urf = CubieCube.cornerFacelet[CubieCube.URF];
+        mFaceColors[Cube.FACE_TOP] = mCube.get(scaleFacelet(urf[0], 0));
+        mFaceColors[Cube.FACE_RIGHT] = mCube.get(scaleFacelet(urf[1], 0));
+        mFaceColors[Cube.FACE_FRONT] = mCube.get(scaleFacelet(urf[2], 0));
+        mFaceColors[Cube.FACE_BOTTOM] = opposite(mFaceColors[Cube.FACE_TOP], adjacent, used);
+        mFaceColors[Cube.FACE_LEFT] = opposite(mFaceColors[Cube.FACE_RIGHT], adjacent, used);
+        mFaceColors[Cube.FACE_BACK] = opposite(mFaceColors[Cube.FACE_FRONT], adjacent, used);
+    }
+
+    /**
+     * The color never found on a corner with @color
+     * */
+    static int opposite(int color, boolean[][] adjacent, boolean[] used) {
+        int opposite = -1;
+        for (int other = 0; other < used.length; other++) {
+            if (!used[other] || other == color || adjacent[color][other]) continue;
+            if (opposite >= 0) {
+                throw new InvalidParameterException("Invalid corners for color " + color);
+            }
+            opposite = other;
+        }
+        if (opposite < 0) {
+            throw new InvalidParameterException("Invalid corners for color " + color);
+        }
+        return opposite;
+    }
+
+    /**
+     * Decide which edge the wings of every edge position are paired to, and fill mWingColors.
+     * The middle edge pieces decide on an odd cube. On an even cube the edges are paired as in
+     * the solved cube, with UF and UB swapped when the corners have an odd permutation.
+     * */
+    private void chooseEdges() {
+        int[][] edges = new int[CubieCube.EDGE_COUNT][2];
+        for (int edge = 0; edge < CubieCube.EDGE_COUNT; edge++) {
+            for (int i = 0; i < 2; i++) {
+                int facelet = CubieCube.edgeFacelet[edge][i];
+                edges[edge][i] = mSize % 2 == 1 ?
+                        mCube.get(scaleFacelet(facelet, mSize / 2)) :
+                        mFaceColors[facelet / FACE_AREA_3X3];
+            }
+        }
+        if (mSize % 2 == 0 && CubieCube.fromFacelets(toCube3x3(edges)).verify() != 0) {
+            int[] temp = edges[CubieCube.UF];
+            edges[CubieCube.UF] = edges[CubieCube.UB];
+            edges[CubieCube.UB] = temp;
+        }
+
+        int faceArea = mSize * mSize;
+        for (int wing = 0; wing < mTable.wingCount; wing++) {
+            int first = mTable.wingFirst[wing];
+            int second = mTable.wingSecond[wing];
+            for (int edge = 0; edge < CubieCube.EDGE_COUNT; edge++) {
+                int face0 = CubieCube.edgeFacelet[edge][0] / FACE_AREA_3X3;
+                int face1 = CubieCube.edgeFacelet[edge][1] / FACE_AREA_3X3;
+                if (first / faceArea == face0 && second / faceArea == face1) {
+                    mWingColors[first] = edges[edge][0];
+                    mWingColors[second] = edges[edge][1];
+                } else if (first / faceArea == face1 && second / faceArea == face0) {
+                    mWingColors[first] = edges[edge][1];
+                    mWingColors[second] = edges[edge][0];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the wings of @orbit need an odd permutation to be paired
+     * */
+    private boolean isOrbitOdd(int orbit) {
+        int[] wings = mTable.orbitWings[orbit];
+        int paletteSize = mCube.getPaletteSize();
+        int[] wingOfColors = new int[paletteSize * paletteSize];
+        Arrays.fill(wingOfColors, -1);
+        for (int i = 0; i < wings.length; i++) {
+            int key = mWingColors[mTable.wingFirst[wings[i]]] * paletteSize +
+                    mWingColors[mTable.wingSecond[wings[i]]];
+            wingOfColors[key] = i;
+        }
+
+        int[] permutation = new int[wings.length];
+        boolean[] found = new boolean[wings.length];
+        for (int i = 0; i < wings.length; i++) {
+            int key = mCube.get(mTable.wingFirst[wings[i]]) * paletteSize +
+                    mCube.get(mTable.wingSecond[wings[i]]);
+            int target = wingOfColors[key];
+            if (target < 0 || found[target]) {
+                throw new InvalidParameterException("Invalid edge at " + mTable.wingFirst[i]);
+            }
+            found[target] = true;
+            permutation[i] = target;
+        }
+
+        boolean odd = false;
+        boolean[] visited = new boolean[wings.length];
+        for (int i = 0; i < wings.length; i++) {
+            for (int j = permutation[i]; !visited[i] && j != i; j = permutation[j]) {
+                odd = !odd;
+            }
+            for (int j = i; !visited[j]; j = permutation[j]) {
+                visited[j] = true;
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Outer layer turns and 3-cycles leave the parity of every orbit alone, and so does the
+     * choice of edges: swapping two edges swaps two pairs of wings. A quarter turn of an inner
+     * slice makes a 4-cycle of the wings of its orbit, which has to be done before the centers.
+     * */
+    private void fixOrbitParities() {
+        chooseEdges();
+        for (int orbit = 0; orbit < mTable.orbitCount; orbit++) {
+            if (isOrbitOdd(orbit)) {
+                apply(mMoves.encode(Axis.X_AXIS, Direction.CLOCKWISE, mTable.orbitDistance[orbit]));
+            }
+        }
+    }
+
+    private void solveCenters() {
+        boolean[] solved = new boolean[Cube.FACE_COUNT];
+        for (int face : sCenterOrder) {
+            while (placeCenter(face, solved)) {
+                // Every call places one more piece
+            }
+            solved[face] = true;
+        }
+    }
+
+    /**
+     * Move a piece of the color of @face to a center of @face that has another color. Only the
+     * face the piece comes from may be turned to bring it into the reach of a 3-cycle.
+     * @return false if the centers of @face are done
+     * */
+    private boolean placeCenter(int face, boolean[] solved) {
+        int color = mFaceColors[face];
+        int bestCycle = -1;
+        boolean bestInverse = false;
+        int bestSource = 0;
+        int bestTurns = 0;
+        boolean done = true;
+        for (int target : mTable.centerFacelets[face]) {
+            if (mCube.get(target) == color) continue;
+            done = false;
+            for (int cycle : mTable.centerIndex[target]) {
+                int k = 0;
+                while (mTable.centerCycles[cycle * 3 + k] != target) k++;
+                for (int inverse = 0; inverse < 2; inverse++) {
+                    // The piece going to the target and the one its piece is sent to
+                    int source = mTable.centerCycles[cycle * 3 + (k + 2 - inverse) % 3];
+                    int third = mTable.centerCycles[cycle * 3 + (k + 1 + inverse) % 3];
+                    int sourceFace = mTable.faceOf(source);
+                    int thirdFace = mTable.faceOf(third);
+                    if (sourceFace == face || solved[sourceFace] || solved[thirdFace]) continue;
+                    if (thirdFace == face && mCube.get(third) == color) continue;
+
+                    int turns = turnsToBring(color, source);
+                    if (turns < 0) continue;
+                    if (bestCycle < 0 || cost(turns) < cost(bestTurns)) {
+                        bestCycle = cycle;
+                        bestInverse = inverse == 1;
+                        bestSource = source;
+                        bestTurns = turns;
+                    }
+                    if (turns == 0) break;
+                }
+                if (bestCycle >= 0 && bestTurns == 0) break;
+            }
+            if (bestCycle >= 0 && bestTurns == 0) break;
+        }
+        if (done) return false;
+        if (bestCycle < 0) {
+            throw new AssertionError("No 3-cycle for the centers of face " + face);
+        }
+
+        int move = mTable.faceMove(mTable.faceOf(bestSource), Direction.CLOCKWISE);
+        if (bestTurns == 3) {
+            apply(MoveTable.inverse(move));
+        } else {
+            for (int i = 0; i < bestTurns; i++) {
+                apply(move);
+            }
+        }
+        apply(mTable.centerMoves[bestCycle], bestInverse);
+        return true;
+    }
+
+    private static int cost(int turns) {
+        return turns == 2 ? 2 : turns == 0 ? 0 : 1;
+    }
+
+    /**
+     * @return number of clockwise quarter turns of the face of @facelet that bring a piece of
+     * @color there, -1 if that face has none in reach
+     * */
+    private int turnsToBring(int color, int facelet) {
+        int move = mTable.faceMove(mTable.faceOf(facelet), Direction.CLOCKWISE);
+        int[] sources = mMoves.getSources(move);
+        int[] targets = mMoves.getTargets(move);
+        int current = facelet;
+        for (int turns = 0; turns < Cube.CUBE_SIDES; turns++) {
+            if (mCube.get(current) == color) return turns;
+            // The piece that comes to current with one more turn
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == current) {
+                    current = sources[i];
+                    break;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Once the centers are done, bring the wings of every orbit next to each other
+     * */
+    private void pairEdges() {
+        chooseEdges();
+        for (int orbit = 0; orbit < mTable.orbitCount; orbit++) {
+            if (isOrbitOdd(orbit)) {
+                throw new AssertionError("Odd permutation in orbit " + orbit);
+            }
+            int steps = 0;
+            while (placeWing(orbit)) {
+                if (++steps > MAX_WING_STEPS * mTable.orbitWings[orbit].length) {
+                    throw new AssertionError("Wings of orbit " + orbit + " going in circles");
+                }
+            }
+        }
+    }
+
+    private boolean isWingSolved(int wing) {
+        int first = mTable.wingFirst[wing];
+        int second = mTable.wingSecond[wing];
+        return mCube.get(first) == mWingColors[first] && mCube.get(second) == mWingColors[second];
+    }
+
+    /**
+     * Wing of @orbit holding the piece that belongs at @target
+     * */
+    private int findWing(int orbit, int target) {
+        int first = mWingColors[mTable.wingFirst[target]];
+        int second = mWingColors[mTable.wingSecond[target]];
+        for (int wing : mTable.orbitWings[orbit]) {
+            if (mCube.get(mTable.wingFirst[wing]) == first &&
+                    mCube.get(mTable.wingSecond[wing]) == second) {
+                return wing;
+            }
+        }
+        throw new InvalidParameterException("No wing for " + mTable.wingFirst[target]);
+    }
+
+    private boolean isSameEdge(int wing, int other) {
+        return mTable.wingEdge[wing] == mTable.wingEdge[other];
+    }
+
+    /**
+     * Place one wing of @orbit. The commutators can cycle any three wings on three different
+     * edges. The third wing is an unsolved one, preferably the one where the piece of the
+     * placed wing belongs. Without such a wing, a solved wing is used instead. When every
+     * unsolved wing has its piece on the same edge, that piece is first moved to another edge.
+     * @return false if all wings of @orbit are paired
+     * */
+    private boolean placeWing(int orbit) {
+        int[] wings = mTable.orbitWings[orbit];
+        int fallbackTarget = -1;
+        int fallbackSource = -1;
+        int fallbackThird = -1;
+        int blocked = -1;
+        for (int target : wings) {
+            if (isWingSolved(target)) continue;
+            int source = findWing(orbit, target);
+            if (isSameEdge(source, target)) {
+                blocked = target;
+                continue;
+            }
+            int best = -1;
+            for (int third : wings) {
+                if (third == target || third == source || isSameEdge(third, target) ||
+                        isSameEdge(third, source)) {
+                    continue;
+                }
+                if (!isWingSolved(third)) {
+                    if (best < 0 || findWing(orbit, third) == target) best = third;
+                } else if (fallbackTarget < 0 || !isSourceFree(orbit, fallbackSource)) {
+                    // Placing a wing whose edge has no other unsolved wing avoids going in circles
+                    fallbackTarget = target;
+                    fallbackSource = source;
+                    fallbackThird = third;
+                }
+            }
+            if (best >= 0) {
+                cycleWings(target, source, best);
+                return true;
+            }
+        }
+        if (fallbackTarget >= 0) {
+            cycleWings(fallbackTarget, fallbackSource, fallbackThird);
+            return true;
+        }
+        if (blocked < 0) return false;
+
+        int source = findWing(orbit, blocked);
+        for (int target : wings) {
+            if (isSameEdge(target, source)) continue;
+            for (int third : wings) {
+                if (!isSameEdge(third, source) && !isSameEdge(third, target)) {
+                    cycleWings(target, source, third);
+                    return true;
+                }
+            }
+        }
+        throw new AssertionError("No 3-cycle for the wings of orbit " + orbit);
+    }
+
+    /**
+     * The other wing on the edge of @wing is solved
+     * */
+    private boolean isSourceFree(int orbit, int wing) {
+        for (int other : mTable.orbitWings[orbit]) {
+            if (other != wing && isSameEdge(other, wing) && !isWingSolved(other)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move the piece at @source to @target, the one at @target to @third and the one at @third
+     * to @source. If no commutator cycles these wings, one is made between a few outer layer
+     * turns and their inverse, trying the fewest turns first.
+     * */
+    private void cycleWings(int target, int source, int third) {
+        int[] targets = new int[mTable.wingCount];
+        for (int wing = 0; wing < targets.length; wing++) {
+            targets[wing] = wing;
+        }
+        for (int turns = 0; turns <= MAX_SETUP_TURNS; turns++) {
+            if (cycleWings(target, source, third, targets, new int[turns], 0)) return;
+        }
+        throw new AssertionError("No 3-cycle for wings " + target + ", " + source + ", " + third);
+    }
+
+    /**
+     * @setup: indices in CommutatorTable :: outerTurns of the setup turns, of which the first
+     * @length are chosen, taking every wing to @targets
+     * */
+    private boolean cycleWings(int target, int source, int third, int[] targets, int[] setup,
+                               int length) {
+        if (length < setup.length) {
+            int[] next = new int[targets.length];
+            for (int turn = 0; turn < mTable.outerTurns.length; turn++) {
+                // Two turns of the same face are a single turn
+                if (length > 0 && turn / 3 == setup[length - 1] / 3) continue;
+                int[] turnTargets = mTable.outerTurnWingTargets[turn];
+                for (int wing = 0; wing < targets.length; wing++) {
+                    next[wing] = turnTargets[targets[wing]];
+                }
+                setup[length] = turn;
+                if (cycleWings(target, source, third, next, setup, length + 1)) return true;
+            }
+            return false;
+        }
+
+        int moved = targets[target];
+        for (int cycle : mTable.wingIndex[moved]) {
+            int k = 0;
+            while (mTable.wingCycles[cycle * 3 + k] != moved) k++;
+            for (int inverse = 0; inverse < 2; inverse++) {
+                if (mTable.wingCycles[cycle * 3 + (k + 2 - inverse) % 3] != targets[source] ||
+                        mTable.wingCycles[cycle * 3 + (k + 1 + inverse) % 3] != targets[third]) {
+                    continue;
+                }
+                for (int turn : setup) {
+                    apply(mTable.outerTurns[turn], false);
+                }
+                apply(mTable.wingMoves[cycle], inverse == 1);
+                for (int i = setup.length - 1; i >= 0; i--) {
+                    apply(mTable.outerTurns[setup[i]], true);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 3x3x3 with the corners and edges of the big cube and the face colors as centers
+     * @edges: colors of the edges, read from the big cube if null
+     * */
+    private FaceletCube toCube3x3(int[][] edges) {
+        FaceletCube cube = new FaceletCube(SIZE_3X3);
+        for (int facelet = 0; facelet < Cube.FACE_COUNT * FACE_AREA_3X3; facelet++) {
+            int face = facelet / FACE_AREA_3X3;
+            int index = facelet % FACE_AREA_3X3;
+            cube.setColor(face, index, mCube.getPaletteColor(mCube.get(scaleFacelet(facelet, 1))));
+        }
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            cube.setColor(face, FACE_AREA_3X3 / 2, mCube.getPaletteColor(mFaceColors[face]));
+        }
+        if (edges != null) {
+            for (int edge = 0; edge < CubieCube.EDGE_COUNT; edge++) {
+                for (int i = 0; i < 2; i++) {
+                    int facelet = CubieCube.edgeFacelet[edge][i];
+                    cube.setColor(facelet / FACE_AREA_3X3, facelet % FACE_AREA_3X3,
+                            mCube.getPaletteColor(edges[edge][i]));
+                }
+            }
+        }
+        return cube;
+    }
+
+    /**
+     * The reduced cube turns like a 3x3x3 cube, by its outer layers
+     * */
+    private void solve3x3() {
+        int[] moves = mTwoPhaseSolver.solve(CubieCube.fromFacelets(toCube3x3(null)));
+        for (int move : moves) {
+            int face = move / 3;
+            int power = move % 3 + 1;
+            Direction direction = CubieCube.faceDirection(face);
+            if (power == 3) {
+                power = 1;
+                direction = FaceletCube.reverse(direction);
+            }
+            int layer = CubieCube.faceLayer(face) == 0 ? 0 : mSize - 1;
+            int encoded = mMoves.encode(CubieCube.faceAxis(face), direction, layer);
+            for (int i = 0; i < power; i++) {
+                apply(encoded);
+            }
+        }
+    }
+}
@@ -45,6 +45,15 @@ public class Rotation {
         return dup;
     }
 
+    void set(Rotation that) {
+        status = false;
+        axis = that.axis;
+        direction = that.direction;
+        startFace = that.startFace;
+        faceCount = that.faceCount;
+        angle = 0;
+    }
+
     public Rotation getReverse() {
         Rotation rot = duplicate();
         rot.direction = rot.direction == Direction.CLOCKWISE ?
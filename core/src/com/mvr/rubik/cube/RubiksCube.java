@@ -2,9 +2,11 @@ package com.mvr.rubik.cube;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
 import com.mvr.rubik.Log;
 import com.mvr.rubik.graphics.Axis;
 import com.mvr.rubik.graphics.CubeRenderer;
@@ -38,10 +40,14 @@ public class RubiksCube extends Cube {
 
     private static final String tag = "rubik-cube";
 
-    // Default value for incrementing angle during rotation
-    static final float ANGLE_DELTA_SLOW = 2f;
-    static final float ANGLE_DELTA_NORMAL = 4f;
-    static final float ANGLE_DELTA_FAST = 10f;
+    // Rotation speeds in degrees per second, 2, 4 and 10 degrees per frame at 60fps
+    static final float DEGREES_PER_SECOND_SLOW = 120f;
+    static final float DEGREES_PER_SECOND_NORMAL = 240f;
+    static final float DEGREES_PER_SECOND_FAST = 600f;
+
+    // Longest time a frame may advance the animation, so a stalled frame doesn't play a burst
+    // of turns at once
+    private static final float MAX_FRAME_SECONDS = 0.25f;
 
     private static final int MAX_UNDO_COUNT = 40;
 
@@ -69,6 +75,11 @@ public class RubiksCube extends Cube {
 
     private Algorithm mCurrentAlgo;
 
+    private final PocketCubeSolver mPocketCubeSolver =
+            new PocketCubeSolver(forkJoinParallelism());
+    // Search running in the background, whose result is played when it comes
+    private CubeSolver mBackgroundSolver = null;
+
     /**
      * The value can be used to grade the solving speed during manual and automated modes.
      * It doesn't mean much during manual solving right now as the user can invoke machine
@@ -85,17 +96,27 @@ public class RubiksCube extends Cube {
     private boolean mUndoingFlag = false;
 
     /**
-     * Stores the moves performed during randomize(). This is used for revealing the solution.
+     * Stores the moves performed during randomize(), in the encoding of mScrambleTable. This is
+     * used for revealing the solution.
      * */
-    private ArrayList<Rotation> mRandomizedMoves;
+    private int[] mRandomizedMoves = new int[0];
+    private int mRandomizedCount;
+    private MoveTable mScrambleTable;
+
+    private final SplitMix64 mRandom = new SplitMix64();
+    private final ScrambleGenerator mScrambleGenerator = new ScrambleGenerator(mRandom);
+    // Last turn of the animated randomize(), which the next one doesn't undo
+    private int mRandomMove = -1;
 
     private CubeRenderer mRenderer;
+    // Draws the whole cube in place of the squares, null to draw them one by one
+    private CubeMesh mMesh = null;
 
     private void init() {
         mCurrentAlgo = null;
         mRotation = new Rotation();
         mUndoStack = new ArrayList<>();
-        mRandomizedMoves = new ArrayList<>();
+        mRandomizedCount = 0;
         mMoveCount = 0;
     }
 
@@ -104,15 +125,52 @@ public class RubiksCube extends Cube {
         init();
     }
 
-    public RubiksCube(int size) {
+    public RubiksCube(final int size) {
         super(size, size, size);
         init();
+        // Building the solver tables takes a while, don't make the first solve wait for it
+        final int parallelism = forkJoinParallelism();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (size == 2) {
+                    PocketCubeSolver.init(parallelism);
+                } else if (size > 2) {
+                    TwoPhaseSolver.init();
+                }
+            }
+        }, tag);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     public void setRenderer(CubeRenderer renderer) {
         mRenderer = renderer;
     }
 
+    /**
+     * Draw the cube as a single CubeMesh, in one or two draw calls whatever its size, instead of
+     * one draw call per square
+     * */
+    public void setMergedMesh(boolean merged) {
+        if (merged == (mMesh != null)) return;
+        if (merged) {
+            mMesh = new CubeMesh(mAllSquares);
+        } else {
+            for (Square square : mAllSquares) {
+                square.attach(null, 0);
+            }
+            mMesh.dispose();
+            mMesh = null;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        setMergedMesh(false);
+        super.dispose();
+    }
+
     public void restoreColors(String colors) {
         // TODO:
 //        int expectedLength = FACE_COUNT * mCubeSize * mCubeSize;
@@ -145,22 +203,32 @@ public class RubiksCube extends Cube {
      *
      * 1. Bring the cube to its base state
      * 2. Apply the moves made during scrambling
-     * 3. Create an Algorithm with those moves reversed
+     * 3. Create an Algorithm with those moves reversed, without the redundant ones
      * 4. Start executing the algorithm
      * */
     public void helpMe() {
-        if (mRandomizedMoves.size() == 0) {
+        if (mRandomizedCount == 0) {
             return;
         }
 
         reset();
-        for (Rotation r: mRandomizedMoves) {
-            rotate(r.axis, r.direction, r.startFace);
+        for (int i = 0; i < mRandomizedCount; i++) {
+            int move = mRandomizedMoves[i];
+            mFacelets.rotate(mScrambleTable.getAxis(move), MoveTable.getDirection(move),
+                    mScrambleTable.getLayer(move));
         }
+        updateSquareColors();
 
         Algorithm algorithm = new Algorithm();
-        for (int i = mRandomizedMoves.size() - 1; i >= 0; i--) {
-            algorithm.addStep(mRandomizedMoves.get(i).getReverse());
+        for (int i = mRandomizedCount - 1; i >= 0; i--) {
+            int move = MoveTable.inverse(mRandomizedMoves[i]);
+            algorithm.addStep(new Rotation(mScrambleTable.getAxis(move),
+                    MoveTable.getDirection(move), mScrambleTable.getLayer(move)));
+        }
+        algorithm = algorithm.optimize(getSizeX(), getSizeY(), getSizeZ(), true);
+        if (algorithm.size() == 0) {
+            // The scramble cancelled itself out
+            return;
         }
         mState = CubeState.HELPING;
         setAlgo(algorithm);
@@ -173,28 +241,55 @@ public class RubiksCube extends Cube {
      * @see public void randomize()
      * */
     public void randomize(int count) {
-        Rotation rotation = null;
-        Random random = new Random();
-        Axis[] axes = new Axis[] {Axis.X_AXIS, Axis.Y_AXIS, Axis.Z_AXIS};
-        mRandomizedMoves.clear();
+        mScrambleTable = mFacelets.getMoveTable();
+        if (mRandomizedMoves.length < count) {
+            mRandomizedMoves = new int[count];
+        }
+        mScrambleGenerator.generate(mScrambleTable, mRandomizedMoves, count);
+        mRandomizedCount = count;
+        mFacelets.rotate(mRandomizedMoves, count);
+        updateSquareColors();
 
-        for (int i = 0; i < count; i++) {
-            Axis axis = axes[Math.abs(random.nextInt(3))];
-            Direction direction = random.nextBoolean() ?
-                    Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
-            int size = getAxisSize(axis);
-            int startFace = Math.abs(random.nextInt(size));
-
-            // Avoid undo-ing moves
-            if (i > 0 && rotation.axis == axis && rotation.startFace == startFace &&
-                    rotation.direction != direction) {
-                i--;
-                continue;
+        mMoveCount = 0;
+        clearUndoStack();
+    }
+
+    /**
+     * Make the following scrambles the ones of @seed, so they can be played again
+     * */
+    public void setRandomSeed(long seed) {
+        mRandom.setSeed(seed);
+    }
+
+    /**
+     * The random numbers behind randomize(), for subclasses scrambling the cube differently
+     * */
+    protected SplitMix64 getRandom() {
+        return mRandom;
+    }
+
+    /**
+     * Apply the steps of @scramble at once, like randomize(int count) does with random turns,
+     * and keep them for helpMe()
+     * */
+    protected void scramble(Algorithm scramble) {
+        mScrambleTable = mFacelets.getMoveTable();
+        mRandomizedCount = 0;
+        while (!scramble.isDone()) {
+            Rotation rotation = scramble.getNextStep();
+            for (int face = rotation.startFace;
+                 face < rotation.startFace + rotation.faceCount;
+                 face++) {
+                if (mRandomizedCount == mRandomizedMoves.length) {
+                    mRandomizedMoves = Arrays.copyOf(mRandomizedMoves,
+                            Math.max(16, mRandomizedCount * 2));
+                }
+                int move = mScrambleTable.encode(rotation.axis, rotation.direction, face);
+                mFacelets.rotate(move);
+                mRandomizedMoves[mRandomizedCount++] = move;
             }
-            rotation = new Rotation(axis, direction, startFace);
-            rotate(axis, direction, startFace);
-            mRandomizedMoves.add(rotation);
         }
+        updateSquareColors();
 
         mMoveCount = 0;
         clearUndoStack();
@@ -212,6 +307,7 @@ public class RubiksCube extends Cube {
             return;
         }
         clearUndoStack();
+        mRandomMove = -1;
         rotateMode = RotateMode.RANDOM;
         mState = CubeState.RANDOMIZE;
         mRotation.start();
@@ -240,8 +336,117 @@ public class RubiksCube extends Cube {
         Log.w(tag, str);
     }
 
+    /**
+     * Solve a 2x2x2 cube in the fewest moves with the PocketCubeSolver, and a bigger NxNxN cube
+     * with the ReductionSolver, whose solution is long but found at once even for big cubes.
+     * Other cuboids are searched by the CuboidSolver. Only the 2x2x2 solves with a ready table
+     * stay on the render thread, the others run in the background.
+     * */
     public int solve() {
-        sendMessage("Robots can solve only 3x3 cubes right now");
+        if (mState != CubeState.IDLE) {
+            sendMessage("Invalid state to solve: " + mState);
+            return -1;
+        }
+        if (getSizeX() != getSizeY() || getSizeY() != getSizeZ()) {
+            return solveInBackground(new CuboidSolver(), "Searching for a solution");
+        }
+        // A new solver each time, so the result of a cancelled solve is told apart
+        if (getSizeX() > 2) {
+            return solveInBackground(new ReductionSolver(), TwoPhaseSolver.isInitialized() ?
+                    "Searching for a solution" : "Preparing the solver");
+        }
+        if (!PocketCubeSolver.isInitialized()) {
+            return solveInBackground(new PocketCubeSolver(forkJoinParallelism()),
+                    "Preparing the solver");
+        }
+        Algorithm solution;
+        try {
+            solution = mPocketCubeSolver.solve(mFacelets);
+        } catch (InvalidParameterException e) {
+            Log.w(tag, "Invalid cube: " + e.getMessage());
+            sendMessage("This cube can't be solved");
+            return -1;
+        }
+        if (solution.size() == 0) {
+            sendMessage("Cube is already solved");
+            return 0;
+        }
+        clearUndoStack();
+        mState = CubeState.SOLVING;
+        startSolving();
+        sendMessage("Solving in " + solution.size() + " moves");
+        setAlgo(solution);
+        return 0;
+    }
+
+    /**
+     * Run @solver on a background thread, so frames keep coming while it searches or builds
+     * its tables, and play the solution once found. cancelSolving() drops the result, and
+     * stops the search of a CancellableSolver.
+     * @message: shown while the solver runs
+     * */
+    private int solveInBackground(final CubeSolver solver, String message) {
+        clearUndoStack();
+        mState = CubeState.SOLVING;
+        startSolving();
+        sendMessage(message);
+
+        final FaceletCube cube = new FaceletCube(mFacelets);
+        mBackgroundSolver = solver;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Algorithm solution = null;
+                String error = "The search failed";
+                try {
+                    solution = solver.solve(cube);
+                    error = null;
+                } catch (InvalidParameterException e) {
+                    Log.w(tag, "Invalid cube: " + e.getMessage());
+                    error = "This cube can't be solved";
+                } catch (IllegalStateException e) {
+                    Log.w(tag, e.getMessage());
+                    error = "No solution found";
+                } catch (RuntimeException e) {
+                    Log.e(tag, "Search failed: " + e);
+                } finally {
+                    // Even on an Error, so the cube doesn't stay in the SOLVING state
+                    final Algorithm result = solution;
+                    final String text = error;
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            onBackgroundSolution(solver, result, text);
+                        }
+                    });
+                }
+            }
+        }, tag);
+        thread.setDaemon(true);
+        thread.start();
+        return 0;
+    }
+
+    private void onBackgroundSolution(CubeSolver solver, Algorithm solution, String error) {
+        if (solver != mBackgroundSolver || mState != CubeState.SOLVING) {
+            // Cancelled
+            return;
+        }
+        mBackgroundSolver = null;
+        if (solution == null || solution.size() == 0) {
+            mState = CubeState.IDLE;
+            sendMessage(solution == null ? error : "Cube is already solved");
+            return;
+        }
+        sendMessage("Solving in " + solution.size() + " moves");
+        setAlgo(solution);
+    }
+
+    /**
+     * Solve in the fewest possible moves, for comparing against the moves made by hand
+     * */
+    public int solveOptimal() {
+        sendMessage("Optimal solutions are available only for 3x3 cubes");
         return -1;
     }
 
@@ -285,7 +490,7 @@ public class RubiksCube extends Cube {
                     mRotation.reset();
                     updateAlgo();
                 } else {
-                    mRotation = mCurrentAlgo.getNextStep();
+                    mCurrentAlgo.getNextStep(mRotation);
                     mRotation.start();
                 }
                 break;
@@ -318,7 +523,8 @@ public class RubiksCube extends Cube {
         rotateMode = RotateMode.NONE;
         mRotation.reset();
         mCurrentAlgo = null;
-        if (mState == CubeState.TESTING || mState == CubeState.HELPING) {
+        if (mState == CubeState.TESTING || mState == CubeState.HELPING ||
+                mState == CubeState.SOLVING) {
             mState = CubeState.IDLE;
         }
     }
@@ -333,14 +539,11 @@ public class RubiksCube extends Cube {
      * */
     private void rotateRandom() {
         mRotation.reset();
-        Random random = new Random();
-        Axis[] axes = new Axis[] {Axis.X_AXIS,
-                Axis.Y_AXIS, Axis.Z_AXIS};
-        mRotation.setAxis(axes[Math.abs(random.nextInt(3))]);
-        mRotation.direction = random.nextBoolean() ?
-                Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
-        int size = getAxisSize(mRotation.axis);
-        mRotation.setStartFace(Math.abs(random.nextInt(size)));
+        MoveTable table = mFacelets.getMoveTable();
+        mRandomMove = mScrambleGenerator.nextMove(table, mRandomMove);
+        mRotation.setAxis(table.getAxis(mRandomMove));
+        mRotation.direction = MoveTable.getDirection(mRandomMove);
+        mRotation.setStartFace(table.getLayer(mRandomMove));
         mRotation.start();
     }
 
@@ -350,7 +553,37 @@ public class RubiksCube extends Cube {
         }
     }
 
+    private void drawMesh() {
+        if (rotateMode == RotateMode.NONE ||
+                mRotation.getStatus() == false) {
+            mMesh.clearRotation();
+        } else {
+            Axis axis = mRotation.axis;
+            mMesh.setRotation(getLayers(axis), mRotation.startFace, mRotation.faceCount,
+                    mRotation.angle, axis == Axis.X_AXIS ? 1 : 0, axis == Axis.Y_AXIS ? 1 : 0,
+                    axis == Axis.Z_AXIS ? 1 : 0);
+        }
+        mRenderer.drawMesh(mMesh);
+    }
+
+    private ArrayList<ArrayList<Piece>> getLayers(Axis axis) {
+        switch (axis) {
+            case X_AXIS:
+                return mXaxisLayers;
+            case Y_AXIS:
+                return mYaxisLayers;
+            case Z_AXIS:
+                return mZaxisLayers;
+            default:
+                throw new RuntimeException("What is " + axis);
+        }
+    }
+
     public void draw() {
+        if (mMesh != null) {
+            drawMesh();
+            return;
+        }
 
         if (rotateMode == RotateMode.NONE ||
                 mRotation.getStatus() == false) {
@@ -358,30 +591,13 @@ public class RubiksCube extends Cube {
             return;
         }
 
-        ArrayList<ArrayList<Piece>> faceList;
+        ArrayList<ArrayList<Piece>> faceList = getLayers(mRotation.axis);
         int axisSize = getAxisSize(mRotation.axis);
 
         float angle = mRotation.angle;
-        float angleX = 0;
-        float angleY = 0;
-        float angleZ = 0;
-
-        switch (mRotation.axis) {
-            case X_AXIS:
-                angleX = 1;
-                faceList = mXaxisLayers;
-                break;
-            case Y_AXIS:
-                angleY = 1;
-                faceList = mYaxisLayers;
-                break;
-            case Z_AXIS:
-                angleZ = 1;
-                faceList = mZaxisLayers;
-                break;
-            default:
-                throw new RuntimeException("What is " + mRotation.axis);
-        }
+        float angleX = mRotation.axis == Axis.X_AXIS ? 1 : 0;
+        float angleY = mRotation.axis == Axis.Y_AXIS ? 1 : 0;
+        float angleZ = mRotation.axis == Axis.Z_AXIS ? 1 : 0;
 
         try {
             for (int i = 0; i < mRotation.startFace; i++) {
@@ -417,47 +633,60 @@ public class RubiksCube extends Cube {
         }
     }
 
-    public void onNextFrame()
+    /**
+     * Whether a rotation is being animated, in which case the next frames differ from this one
+     * */
+    public boolean isAnimating() {
+        return rotateMode != RotateMode.NONE && mRotation.getStatus();
+    }
+
+    /**
+     * Advance the animation by @seconds, the time since the previous frame, at the speed set by
+     * setSpeed(). The rotations ending within that time are all finished, and the next ones
+     * started, so the duration of an algorithm doesn't depend on the frame rate.
+     *
+     * The first frame of an animation doesn't advance it: the time since the previous frame may
+     * include a long idle period.
+     * */
+    public void onNextFrame(float seconds)
     {
-        if (rotateMode == RotateMode.NONE ||
-                mRotation.getStatus() == false) {
+        if (!isAnimating()) {
+            mClockRunning = false;
             return;
         }
+        if (!mClockRunning) {
+            mClockRunning = true;
+            seconds = 0;
+        }
+
+        float degrees = Math.min(seconds, MAX_FRAME_SECONDS) * mDegreesPerSecond;
+        while (isAnimating()) {
+            float maxAngle = getMaxAngle();
+            float remaining = maxAngle - Math.abs(mRotation.angle);
+            if (degrees < remaining) {
+                mRotation.increment(degrees, maxAngle);
+                return;
+            }
+            degrees -= remaining;
+            finishRotation();
+        }
+        mClockRunning = false;
+    }
 
+    private float getMaxAngle() {
         int axisSize = getAxisSize(mRotation.axis);
-        boolean symmetric = isSymmetricAroundAxis(mRotation.axis);
-        float max_angle = symmetric ? 90f : 180f;
         if (mRotation.faceCount == axisSize) {
             /**
              * Even if it isn't symmetric, we can do half rotations if
              * we are rotating the whole cube. @finishRotation takes care of this.
              * */
-            max_angle = 90f;
-        }
-
-        if (Math.abs(mRotation.angle) > max_angle - 0.01f) {
-            finishRotation();
-        } else {
-            mRotation.increment(mAngleDelta, max_angle);
+            return 90f;
         }
-    }
-
-    private boolean checkFace(ArrayList<Square> squares) {
-        int centerColor = squares.get(squares.size()/2).getColor();
-        for (int i = 0; i < squares.size(); i++) {
-            if (squares.get(i).getColor() != centerColor)
-                return false;
-        }
-        return true;
+        return isSymmetricAroundAxis(mRotation.axis) ? 90f : 180f;
     }
 
     protected boolean isSolved() {
-        return checkFace(mTopSquares) &&
-                checkFace(mLeftSquares) &&
-                checkFace(mFrontSquares) &&
-                checkFace(mRightSquares) &&
-                checkFace(mBackSquares) &&
-                checkFace(mBottomSquares);
+        return mFacelets.isSolved();
     }
 
     protected void setAlgo(Algorithm algo) {
@@ -470,11 +699,55 @@ public class RubiksCube extends Cube {
             throw new IllegalStateException("Invalid state for algos: " + mState);
         }
         mCurrentAlgo = algo;
-        mRotation = algo.getNextStep();
         rotateMode = RotateMode.ALGORITHM;
+        if (mTurbo) {
+            applySteps(algo, algo.getRemainingSteps() - mTurboAnimatedSteps);
+            if (algo.isDone()) {
+                // Nothing left to animate, end the algorithm like finishRotation() does
+                mRotation.reset();
+                updateAlgo();
+                if (mListener != null) {
+                    mListener.handleRotationCompleted();
+                }
+                if (mState == CubeState.IDLE && isSolved() && mListener != null) {
+                    mListener.handleCubeSolved();
+                }
+                return;
+            }
+        }
+        mRotation = algo.getNextStep();
         mRotation.start();
     }
 
+    /**
+     * Play the next @count steps of @algo at once, without animation, counting the moves like
+     * finishRotation() does. The squares are updated once at the end.
+     * */
+    private void applySteps(Algorithm algo, int count) {
+        for (int i = 0; i < count; i++) {
+            algo.getNextStep(mTurboStep);
+            Axis axis = mTurboStep.axis;
+            Direction direction = mTurboStep.direction;
+            if (mTurboStep.faceCount == getAxisSize(axis)) {
+                if (!isSymmetricAroundAxis(axis)) {
+                    // Reorients the cube, squares included
+                    rotate(axis, direction);
+                    continue;
+                }
+            } else {
+                mMoveCount++;
+            }
+            for (int face = mTurboStep.startFace;
+                 face < mTurboStep.startFace + mTurboStep.faceCount;
+                 face++) {
+                mFacelets.rotate(axis, direction, face);
+            }
+        }
+        if (count > 0) {
+            updateSquareColors();
+        }
+    }
+
     public void rotate(Rotation rotation) {
         if (mState != CubeState.IDLE) {
             Log.w(tag, "Cannot rotate in state " + mState);
@@ -532,11 +805,32 @@ public class RubiksCube extends Cube {
         mUndoStack.clear();
     }
 
+    /**
+     * Threads for the searches and tables built in a ForkJoinPool: 1, for the calling thread
+     * only, where ForkJoinPool is missing (before Android 5.0)
+     * */
+    static int forkJoinParallelism() {
+        if (Gdx.app.getType() == Application.ApplicationType.Android &&
+                Gdx.app.getVersion() < 21) {
+            return 1;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     protected void startSolving() {
         mMoveCount = 0;
     }
 
     public int cancelSolving() {
+        if (mBackgroundSolver != null) {
+            // No rotation is running yet, so there is no finishRotation to reset the state
+            if (mBackgroundSolver instanceof CancellableSolver) {
+                ((CancellableSolver) mBackgroundSolver).cancel();
+            }
+            mBackgroundSolver = null;
+            mState = CubeState.IDLE;
+            return 0;
+        }
         if (mState == CubeState.SOLVING) {
             rotateMode = RotateMode.MANUAL;
             mCurrentAlgo = null;
@@ -550,26 +844,55 @@ public class RubiksCube extends Cube {
     private final int FAST = 2;
 
     private int mSpeed = MEDIUM;
-    private float mAngleDelta = ANGLE_DELTA_NORMAL;
+    private float mDegreesPerSecond = DEGREES_PER_SECOND_NORMAL;
+    // Whether the previous frame advanced the animation
+    private boolean mClockRunning = false;
     public void setSpeed(int speed) {
         mSpeed = speed;
         switch (speed) {
             case FAST:
-                mAngleDelta = ANGLE_DELTA_FAST; break;
+                mDegreesPerSecond = DEGREES_PER_SECOND_FAST; break;
             case MEDIUM:
-                mAngleDelta = ANGLE_DELTA_NORMAL; break;
+                mDegreesPerSecond = DEGREES_PER_SECOND_NORMAL; break;
             case SLOW:
-                mAngleDelta = ANGLE_DELTA_SLOW; break;
+                mDegreesPerSecond = DEGREES_PER_SECOND_SLOW; break;
         }
     }
 
+    // Algorithms are played at once but for their last mTurboAnimatedSteps steps, if mTurbo
+    private boolean mTurbo = false;
+    private int mTurboAnimatedSteps = 0;
+    private final Rotation mTurboStep = new Rotation();
+
+    /**
+     * Play algorithms without animating them: their steps are applied to the cube as soon as
+     * they start, except the last @animatedSteps ones, animated as usual. The move count and the
+     * CubeListener are updated once for the whole batch.
+     * */
+    public void setTurbo(boolean turbo, int animatedSteps) {
+        if (animatedSteps < 0) {
+            throw new InvalidParameterException("Invalid step count: " + animatedSteps);
+        }
+        mTurbo = turbo;
+        mTurboAnimatedSteps = animatedSteps;
+    }
+
+    /**
+     * Any other rotation speed than those of setSpeed()
+     * */
+    public void setDegreesPerSecond(float degrees) {
+        if (degrees <= 0) {
+            throw new InvalidParameterException("Invalid speed: " + degrees);
+        }
+        mDegreesPerSecond = degrees;
+    }
+
     /**
      * Sets the color of the whole cube
      * */
     public void setColor(int color) {
-        for (Square sq: mAllSquares) {
-            sq.setColor(color);
-        }
+        mFacelets.setColor(color);
+        updateSquareColors();
     }
 
     /**
@@ -578,9 +901,8 @@ public class RubiksCube extends Cube {
      * */
     public void setColor(int face, int color) {
         if (!(face >= 0 && face < FACE_COUNT)) throw new AssertionError("Face " + face);
-        for (Square sq: mAllFaces[face]) {
-            sq.setColor(color);
-        }
+        mFacelets.setFaceColor(face, color);
+        updateSquareColors();
     }
 
     /**
@@ -601,9 +923,11 @@ public class RubiksCube extends Cube {
         }
         for (Piece p: pieces) {
             for (Square sq: p.mSquares) {
-                sq.setColor(color);
+                int face = sq.getFace();
+                mFacelets.setColor(face, mAllFaces[face].indexOf(sq), color);
             }
         }
+        updateSquareColors();
     }
 
     public void setColor(int face, int row, int column, int color) {
@@ -0,0 +1,62 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.graphics.Axis;
+import com.mvr.rubik.graphics.Direction;
+
+/**
+ * Random turn scrambles of any cube or cuboid, written as MoveTable moves into a buffer of the
+ * caller, so millions of them can be generated without allocating. Every turn picks an axis,
+ * then a layer along it and a direction, and never undoes the turn before it.
+ *
+ * The same seed gives the same scrambles. split() gives a generator with an independent stream
+ * for another thread. Instances are not thread safe.
+ */
+public class ScrambleGenerator {
+
+    private static final Axis[] sAxes = Axis.values();
+
+    private final SplitMix64 mRandom;
+
+    public ScrambleGenerator() {
+        this(new SplitMix64());
+    }
+
+    public ScrambleGenerator(long seed) {
+        this(new SplitMix64(seed));
+    }
+
+    public ScrambleGenerator(SplitMix64 random) {
+        mRandom = random;
+    }
+
+    public ScrambleGenerator split() {
+        return new ScrambleGenerator(mRandom.split());
+    }
+
+    /**
+     * Write @count random moves of @table into @moves
+     * */
+    public void generate(MoveTable table, int[] moves, int count) {
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            previous = nextMove(table, previous);
+            moves[i] = previous;
+        }
+    }
+
+    /**
+     * @previous: the move played before, -1 for none
+     * @return a random move of @table other than the inverse of @previous
+     * */
+    public int nextMove(MoveTable table, int previous) {
+        int undo = previous < 0 ? -1 : MoveTable.inverse(previous);
+        while (true) {
+            Axis axis = sAxes[mRandom.nextInt(sAxes.length)];
+            int layer = mRandom.nextInt(table.getAxisSize(axis));
+            Direction direction = mRandom.nextBoolean() ?
+                    Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+            int move = table.encode(axis, direction, layer);
+            if (move != undo) return move;
+        }
+    }
+}
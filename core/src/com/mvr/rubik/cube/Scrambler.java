@@ -0,0 +1,64 @@
+package com.mvr.rubik.cube;
+
+import java.util.Random;
+
+/**
+ * Random state scrambles for 3x3x3 cubes. Every solvable state is drawn with the same
+ * probability, unlike random turns, which leave short scrambles close to solved. The moves
+ * that reach the state are the reverse of a TwoPhaseSolver solution, the first one found.
+ *
+ * Instances are not thread safe.
+ */
+public class Scrambler {
+
+    // Any solution will do, so the search stops at the first one
+    private static final int TARGET_LENGTH = 30;
+
+    private final Random mRandom;
+    private final TwoPhaseSolver mSolver = new TwoPhaseSolver();
+
+    public Scrambler() {
+        this(new Random());
+    }
+
+    public Scrambler(Random random) {
+        mRandom = random;
+        mSolver.setTargetLength(TARGET_LENGTH);
+    }
+
+    /**
+     * A uniformly random solvable state: random permutations of the same parity, random twist
+     * and flip, the last corner and edge following from the others
+     * */
+    public CubieCube randomState() {
+        CubieCube cube = new CubieCube();
+        CubieCube.setPermutation(mRandom.nextInt(CubieCube.N_CORNER_PERM), cube.cp, 0,
+                CubieCube.CORNER_COUNT);
+        shuffle(cube.ep);
+        // Every state of matching parities comes from two drawings, itself and with the swap
+        if (cube.cornerParity() != cube.edgeParity()) {
+            byte edge = cube.ep[CubieCube.EDGE_COUNT - 1];
+            cube.ep[CubieCube.EDGE_COUNT - 1] = cube.ep[CubieCube.EDGE_COUNT - 2];
+            cube.ep[CubieCube.EDGE_COUNT - 2] = edge;
+        }
+        cube.setTwist(mRandom.nextInt(CubieCube.N_TWIST));
+        cube.setFlip(mRandom.nextInt(CubieCube.N_FLIP));
+        return cube;
+    }
+
+    /**
+     * @return moves in CubieCube numbering that take a solved cube to a random state
+     * */
+    public int[] scramble() {
+        return CubieCube.inverseMoves(mSolver.solve(randomState()));
+    }
+
+    private void shuffle(byte[] perm) {
+        for (int i = perm.length - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            byte value = perm[i];
+            perm[i] = perm[j];
+            perm[j] = value;
+        }
+    }
+}
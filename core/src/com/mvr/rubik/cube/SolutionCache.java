@@ -0,0 +1,117 @@
+package com.mvr.rubik.cube;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solutions of recently solved 3x3x3 states, dropping the least recently used ones beyond the
+ * capacity.
+ *
+ * States are stored in their Symmetry.canonical() form, so a state hits the cache when any of
+ * its 48 conjugates was solved before: the stored moves are conjugated back. The key is the
+ * permutation and orientation coordinates of the corners and of the edges, 128 bits in all,
+ * as the 4.3 * 10^19 states don't fit in 64.
+ *
+ * Instances are thread safe and can be shared by several solvers.
+ */
+public class SolutionCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long N_EDGE_PERM = 479001600;
+
+    private static final class Key {
+        final long corners;
+        final long edges;
+
+        Key(CubieCube cube) {
+            corners = (long) cube.getCornerPerm() * CubieCube.N_TWIST + cube.getTwist();
+            edges = CubieCube.permutationIndex(cube.ep, 0, CubieCube.EDGE_COUNT) *
+                    (long) CubieCube.N_FLIP + cube.getFlip();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key that = (Key) obj;
+            return corners == that.corners && edges == that.edges;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = corners * N_EDGE_PERM * CubieCube.N_FLIP + edges;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private final LinkedHashMap<Key, int[]> mSolutions;
+    private long mHits;
+    private long mMisses;
+
+    public SolutionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SolutionCache(final int capacity) {
+        mSolutions = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the moves solving @cube in CubieCube numbering, or null if not in the cache
+     * */
+    public int[] get(CubieCube cube) {
+        int s = Symmetry.canonicalSymmetry(cube);
+        Key key = new Key(Symmetry.conjugate(cube, s));
+        int[] moves;
+        synchronized (this) {
+            moves = mSolutions.get(key);
+            if (moves == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+        // The stored moves solve the conjugate by s, map them back
+        int inverse = Symmetry.inverse(s);
+        int[] solution = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            solution[i] = Symmetry.conjugateMove(moves[i], inverse);
+        }
+        return solution;
+    }
+
+    public void put(CubieCube cube, int[] moves) {
+        int s = Symmetry.canonicalSymmetry(cube);
+        Key key = new Key(Symmetry.conjugate(cube, s));
+        int[] solution = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            solution[i] = Symmetry.conjugateMove(moves[i], s);
+        }
+        synchronized (this) {
+            mSolutions.put(key, solution);
+        }
+    }
+
+    public synchronized int size() {
+        return mSolutions.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized void clear() {
+        mSolutions.clear();
+        mHits = 0;
+        mMisses = 0;
+    }
+}
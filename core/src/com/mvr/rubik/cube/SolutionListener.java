@@ -0,0 +1,14 @@
+package com.mvr.rubik.cube;
+
+/**
+ * Receives the solutions of a search that keeps looking for shorter ones, as they are found.
+ * It is called on the thread running the search.
+ */
+public interface SolutionListener {
+
+    /**
+     * @moves: a solution shorter than all the ones before, in CubieCube numbering. The array
+     * belongs to the listener.
+     * */
+    void onSolution(int[] moves);
+}
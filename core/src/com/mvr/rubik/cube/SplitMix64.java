@@ -0,0 +1,123 @@
+package com.mvr.rubik.cube;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SplitMix64 pseudo random numbers: a 64 bit counter stepped by an odd gamma, each value
+ * scrambled by a mix function. One addition and a few multiplications per number, no locks, and
+ * the same seed always gives the same sequence, unlike java.util.Random across JDKs.
+ *
+ * split() returns a generator for another thread, seeded and with a gamma taken from this one,
+ * so both streams are independent and still follow from the first seed. It is a Random, so it
+ * can be given to Scrambler and the like. Instances are not thread safe.
+ */
+public class SplitMix64 extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final AtomicLong sDefaultSeeds = new AtomicLong(System.nanoTime());
+
+    private long mSeed;
+    private long mGamma;
+
+    public SplitMix64() {
+        this(mix64(sDefaultSeeds.getAndAdd(2 * GOLDEN_GAMMA)));
+    }
+
+    public SplitMix64(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(long seed, long gamma) {
+        super(seed);
+        mSeed = seed;
+        mGamma = gamma;
+    }
+
+    /**
+     * Restart the sequence of @seed, as a new SplitMix64(seed) would
+     * */
+    @Override
+    public void setSeed(long seed) {
+        // Called by the Random constructor too, which also clears its nextGaussian() state
+        super.setSeed(seed);
+        mSeed = seed;
+        mGamma = GOLDEN_GAMMA;
+    }
+
+    /**
+     * A new generator whose numbers are independent of the ones of this generator
+     * */
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong(), mixGamma(nextSeed()));
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (mix64(nextSeed()) >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    @Override
+    public int nextInt() {
+        return mix32(nextSeed());
+    }
+
+    /**
+     * @return a number from 0 to @bound - 1, all with the same probability
+     * */
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Invalid bound: " + bound);
+        }
+        int r = mix32(nextSeed());
+        int mask = bound - 1;
+        if ((bound & mask) == 0) {
+            return r & mask;
+        }
+        // Reject the values of the last incomplete range of @bound numbers
+        for (int u = r >>> 1; u + mask - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1) {
+        }
+        return r;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return mix32(nextSeed()) < 0;
+    }
+
+    private long nextSeed() {
+        mSeed += mGamma;
+        return mSeed;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    /**
+     * An odd gamma with enough bit transitions, as weak gammas give correlated streams
+     * */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -10,17 +10,38 @@ import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
 
 import com.mvr.rubik.graphics.Axis;
 import com.mvr.rubik.graphics.Point3D;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
 
+import java.util.Arrays;
+
+/**
+ * A sticker of the cube. All the squares of a cube share one rectangle Model, made by
+ * createModel(), placed by a transform of their own; their Material is taken from a palette
+ * holding one per color, so turning the cube changes pointers instead of allocating.
+ */
 public class Square {
     private static final String tag = "rubik-square";
 
+    // Colors and their Materials, shared by all squares. Cubes only use a handful of colors.
+    private static int[] sPaletteColors = {
+            Cube.Color_RED, Cube.Color_GREEN, Cube.Color_ORANGE, Cube.Color_WHITE,
+            Cube.Color_YELLOW, Cube.Color_BLUE, Cube.Color_GRAY
+    };
+    private static Material[] sPaletteMaterials = new Material[sPaletteColors.length];
+
     private int mFace;
     private Point3D mCenter;
     private int mColor;
+    private final float[] mVertices = new float[12];
     ModelInstance instance;
-    Model model;
+    // From the shared model to the place of this square on the cube
+    private final Matrix4 mPlacement = new Matrix4();
+
+    // Mesh showing this square too, if any, and the position of the square in it
+    private CubeMesh mMesh;
+    private int mMeshIndex;
 
 
     public void setFace(int face) {
@@ -31,12 +52,12 @@ public class Square {
         return mFace;
     }
 
-    public Square(float[] vertices, int color, int face) {
-        init(vertices, color, face);
+    public Square(Model model, float[] vertices, int color, int face) {
+        init(model, vertices, color, face);
     }
 
-    public Square(float[] vertices, int color) {
-        this(vertices, color, -1);
+    public Square(Model model, float[] vertices, int color) {
+        this(model, vertices, color, -1);
     }
 
     public Point3D getCenter() {
@@ -46,22 +67,52 @@ public class Square {
     private Vector3 centerVector = new Vector3();
     private float _radius;
 
-    public Square(float[] vertices) {
-        this(vertices, Cube.Color_GRAY);
+    public Square(Model model, float[] vertices) {
+        this(model, vertices, Cube.Color_GRAY);
     }
 
-    private void init(float[] vertices, int color, int face) {
-        ModelBuilder builder = new ModelBuilder();
-        Material material = new Material(ColorAttribute.createDiffuse(new Color(color)));
-        model = builder.createRect(
-                vertices[0], vertices[1], vertices[2],
-                vertices[3], vertices[4], vertices[5],
-                vertices[6], vertices[7], vertices[8],
-                vertices[9], vertices[10], vertices[11],
-                0, 0, 0, material, VertexAttributes.Usage.Position
+    /**
+     * The rectangle shared by the squares of a cube: @size by @size, centered on the origin and
+     * facing +z
+     * */
+    public static Model createModel(float size) {
+        float half = size / 2;
+        return new ModelBuilder().createRect(
+                -half, half, 0,
+                -half, -half, 0,
+                half, -half, 0,
+                half, half, 0,
+                0, 0, 0, getMaterial(Cube.Color_GRAY), VertexAttributes.Usage.Position
         );
+    }
+
+    /**
+     * The palette Material of @color, created the first time the color is used
+     * */
+    static Material getMaterial(int color) {
+        for (int i = 0; i < sPaletteColors.length; i++) {
+            if (sPaletteColors[i] == color) {
+                if (sPaletteMaterials[i] == null) {
+                    sPaletteMaterials[i] =
+                            new Material(ColorAttribute.createDiffuse(new Color(color)));
+                }
+                return sPaletteMaterials[i];
+            }
+        }
+        int count = sPaletteColors.length;
+        sPaletteColors = Arrays.copyOf(sPaletteColors, count + 1);
+        sPaletteMaterials = Arrays.copyOf(sPaletteMaterials, count + 1);
+        sPaletteColors[count] = color;
+        return getMaterial(color);
+    }
+
+    private void init(Model model, float[] vertices, int color, int face) {
         instance = new ModelInstance(model);
+        System.arraycopy(vertices, 0, mVertices, 0, mVertices.length);
+        setPlacement(vertices);
+        instance.transform.set(mPlacement);
         mColor = color;
+        setMaterial(getMaterial(color));
         mFace = face;
         mCenter = new Point3D();
         mCenter.setX((vertices[0] + vertices[3] + vertices[6] + vertices[9]) / 4);
@@ -82,14 +133,64 @@ public class Square {
 
     public float radius() { return _radius; }
 
-    public Square(Point3D[] points, int color) {
+    /**
+     * Map the corners of the shared model onto @vertices: x along the top edge, y along the
+     * left edge upwards, z the normal
+     * */
+    private void setPlacement(float[] vertices) {
+        Vector3 center = new Vector3(
+                (vertices[0] + vertices[3] + vertices[6] + vertices[9]) / 4,
+                (vertices[1] + vertices[4] + vertices[7] + vertices[10]) / 4,
+                (vertices[2] + vertices[5] + vertices[8] + vertices[11]) / 4);
+        Vector3 x = new Vector3(vertices[9] - vertices[0], vertices[10] - vertices[1],
+                vertices[11] - vertices[2]).nor();
+        Vector3 y = new Vector3(vertices[0] - vertices[3], vertices[1] - vertices[4],
+                vertices[2] - vertices[5]).nor();
+        Vector3 z = new Vector3(x).crs(y);
+        float[] values = mPlacement.val;
+        values[Matrix4.M00] = x.x;
+        values[Matrix4.M10] = x.y;
+        values[Matrix4.M20] = x.z;
+        values[Matrix4.M01] = y.x;
+        values[Matrix4.M11] = y.y;
+        values[Matrix4.M21] = y.z;
+        values[Matrix4.M02] = z.x;
+        values[Matrix4.M12] = z.y;
+        values[Matrix4.M22] = z.z;
+        values[Matrix4.M03] = center.x;
+        values[Matrix4.M13] = center.y;
+        values[Matrix4.M23] = center.z;
+    }
+
+    private void setMaterial(Material material) {
+        instance.materials.set(0, material);
+        instance.nodes.get(0).parts.get(0).material = material;
+    }
+
+    public Square(Model model, Point3D[] points, int color) {
         float[] vertices = new float[points.length * 3]; // x, y, z
         for (int i = 0; i < points.length; i++) {
             vertices[i*3] = points[i].getX();
             vertices[i*3 + 1] = points[i].getY();
             vertices[i*3 + 2] = points[i].getZ();
         }
-        init(vertices, color, -1);
+        init(model, vertices, color, -1);
+    }
+
+    /**
+     * Corners of the square, x, y and z of each
+     * */
+    float[] getVertices() {
+        return mVertices;
+    }
+
+    void attach(CubeMesh mesh, int index) {
+        mMesh = mesh;
+        mMeshIndex = index;
+    }
+
+    int getMeshIndex() {
+        return mMeshIndex;
     }
 
     public ModelInstance getModelInstance() {
@@ -107,11 +208,17 @@ public class Square {
     public void setColor(int value) {
         if (value == mColor) return;
         mColor = value;
-        instance.materials.get(0).set(ColorAttribute.createDiffuse(new Color(value)));
+        setMaterial(getMaterial(value));
+        if (mMesh != null) {
+            mMesh.setColor(mMeshIndex, value);
+        }
     }
 
-    public void rotateCoordinates(float x, float y, float z, int degrees) {
-        instance.transform.setToRotation(x, y, z, degrees);
+    /**
+     * Draw the square rotated by @degrees around the axis (@x, @y, @z) of the cube
+     * */
+    public void rotateCoordinates(float x, float y, float z, float degrees) {
+        instance.transform.setToRotation(x, y, z, degrees).mul(mPlacement);
     }
 
     public void rotateCoordinates(Axis axis, int angle) {
@@ -0,0 +1,228 @@
+package com.mvr.rubik.cube;
+
+/**
+ * The 48 symmetries of the 3x3x3 cube: the 24 whole cube rotations, each alone or followed by
+ * a mirror image through the plane between L and R. They are built from four basic ones:
+ * S_URF3 (120' around the URF-DBL diagonal), S_F2 (180' around F), S_U4 (90' around U) and
+ * S_LR2 (the mirror image). Symmetry 16 * urf3 + 8 * f2 + 2 * u4 + lr2 is
+ * S_URF3^urf3 * S_F2^f2 * S_U4^u4 * S_LR2^lr2, so the first 16 keep the UD axis in place.
+ *
+ * A symmetry S maps a cube A to its conjugate S * A * S^-1: the same state seen from another
+ * side or in a mirror, which is solved by the conjugates of the moves solving A. States that
+ * are conjugates of each other have the same distance to the solved cube, so a table keyed by
+ * canonical() holds up to 48 times fewer entries.
+ *
+ * Mirrored corners have orientations 3 to 5, only seen in the symmetry cubes: the conjugate of
+ * a cube is always a plain cube.
+ */
+public class Symmetry {
+
+    public static final int COUNT = 48;
+    // Symmetries that keep U and D on the UD axis
+    public static final int UD_COUNT = 16;
+
+    // Corners URF UFL ULB UBR DFR DLF DBL DRB, edges UR UF UL UB DR DF DL DB FR FL BL BR
+    private static final CubieCube S_URF3 = create(
+            new int[] {0, 4, 5, 1, 3, 7, 6, 2},
+            new int[] {1, 2, 1, 2, 2, 1, 2, 1},
+            new int[] {1, 8, 5, 9, 3, 11, 7, 10, 0, 4, 6, 2},
+            new int[] {1, 0, 1, 0, 1, 0, 1, 0, 1, 1, 1, 1});
+    private static final CubieCube S_F2 = create(
+            new int[] {5, 4, 7, 6, 1, 0, 3, 2},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0},
+            new int[] {6, 5, 4, 7, 2, 1, 0, 3, 9, 8, 11, 10},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    private static final CubieCube S_U4 = create(
+            new int[] {3, 0, 1, 2, 7, 4, 5, 6},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0},
+            new int[] {3, 0, 1, 2, 7, 4, 5, 6, 11, 8, 9, 10},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1});
+    private static final CubieCube S_LR2 = create(
+            new int[] {1, 0, 3, 2, 5, 4, 7, 6},
+            new int[] {3, 3, 3, 3, 3, 3, 3, 3},
+            new int[] {2, 1, 0, 3, 6, 5, 4, 7, 9, 8, 11, 10},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+
+    private static final CubieCube[] sSymmetries = new CubieCube[COUNT];
+    private static final int[] sInverse = new int[COUNT];
+
+    /**
+     * sMoveConjugate[s * CubieCube.MOVE_COUNT + m]: the move S_s * m * S_s^-1
+     * */
+    private static final int[] sMoveConjugate = new int[COUNT * CubieCube.MOVE_COUNT];
+
+    /**
+     * sTwistConjugate[twist * UD_COUNT + s]: twist of the conjugate by a UD symmetry. Other
+     * symmetries move U and D, which corner orientations refer to.
+     * */
+    private static char[] sTwistConjugate;
+
+    static {
+        CubieCube cube = new CubieCube();
+        for (int s = 0; s < COUNT; s++) {
+            sSymmetries[s] = new CubieCube(cube);
+            cube = multiply(cube, S_LR2);
+            if (s % 2 == 1) cube = multiply(cube, S_U4);
+            if (s % 8 == 7) cube = multiply(cube, S_F2);
+            if (s % 16 == 15) cube = multiply(cube, S_URF3);
+        }
+        for (int s = 0; s < COUNT; s++) {
+            sInverse[s] = -1;
+            for (int t = 0; t < COUNT && sInverse[s] < 0; t++) {
+                if (multiply(sSymmetries[s], sSymmetries[t]).isSolved()) {
+                    sInverse[s] = t;
+                }
+            }
+            if (sInverse[s] < 0) {
+                throw new AssertionError("No inverse for symmetry " + s);
+            }
+        }
+        for (int s = 0; s < COUNT; s++) {
+            for (int m = 0; m < CubieCube.MOVE_COUNT; m++) {
+                sMoveConjugate[s * CubieCube.MOVE_COUNT + m] =
+                        find(conjugate(CubieCube.sMoves[m], s));
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    /**
+     * @return S_s * @cube * S_s^-1
+     * */
+    public static CubieCube conjugate(CubieCube cube, int s) {
+        return multiply(multiply(sSymmetries[s], cube), sSymmetries[sInverse[s]]);
+    }
+
+    public static int inverse(int s) {
+        return sInverse[s];
+    }
+
+    /**
+     * The move doing to conjugate(cube, s) what @move does to cube
+     * */
+    public static int conjugateMove(int move, int s) {
+        return sMoveConjugate[s * CubieCube.MOVE_COUNT + move];
+    }
+
+    /**
+     * @s: one of the first UD_COUNT symmetries
+     * @return the twist of conjugate(cube, s) for a cube of twist @twist
+     * */
+    public static int conjugateTwist(int twist, int s) {
+        initTwistConjugate();
+        return sTwistConjugate[twist * UD_COUNT + s];
+    }
+
+    /**
+     * The same representative for all the conjugates of @cube: the smallest one, comparing
+     * corners first
+     * */
+    public static CubieCube canonical(CubieCube cube) {
+        return conjugate(cube, canonicalSymmetry(cube));
+    }
+
+    /**
+     * @return a symmetry s such that conjugate(@cube, s) is canonical(@cube)
+     * */
+    public static int canonicalSymmetry(CubieCube cube) {
+        CubieCube best = cube;
+        int bestSymmetry = 0;
+        for (int s = 1; s < COUNT; s++) {
+            CubieCube candidate = conjugate(cube, s);
+            if (compare(candidate, best) < 0) {
+                best = candidate;
+                bestSymmetry = s;
+            }
+        }
+        return bestSymmetry;
+    }
+
+    /**
+     * Number of symmetries that map @cube onto itself, 1 for most states
+     * */
+    public static int selfSymmetryCount(CubieCube cube) {
+        int count = 0;
+        for (int s = 0; s < COUNT; s++) {
+            if (conjugate(cube, s).equals(cube)) count++;
+        }
+        return count;
+    }
+
+    private static synchronized void initTwistConjugate() {
+        if (sTwistConjugate != null) return;
+        char[] table = new char[CubieCube.N_TWIST * UD_COUNT];
+        CubieCube cube = new CubieCube();
+        for (int twist = 0; twist < CubieCube.N_TWIST; twist++) {
+            cube.setTwist(twist);
+            for (int s = 0; s < UD_COUNT; s++) {
+                table[twist * UD_COUNT + s] = (char) conjugate(cube, s).getTwist();
+            }
+        }
+        sTwistConjugate = table;
+    }
+
+    private static int compare(CubieCube a, CubieCube b) {
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            if (a.cp[i] != b.cp[i]) return a.cp[i] - b.cp[i];
+            if (a.co[i] != b.co[i]) return a.co[i] - b.co[i];
+        }
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            if (a.ep[i] != b.ep[i]) return a.ep[i] - b.ep[i];
+            if (a.eo[i] != b.eo[i]) return a.eo[i] - b.eo[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Move equal to @cube
+     * */
+    private static int find(CubieCube cube) {
+        for (int m = 0; m < CubieCube.MOVE_COUNT; m++) {
+            if (CubieCube.sMoves[m].equals(cube)) return m;
+        }
+        throw new AssertionError("Conjugate is not a move: " + cube);
+    }
+
+    /**
+     * @a * @b, where the corners of either may be mirrored
+     * */
+    private static CubieCube multiply(CubieCube a, CubieCube b) {
+        CubieCube product = new CubieCube();
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            int oriA = a.co[b.cp[i]];
+            int oriB = b.co[i];
+            int ori;
+            if (oriA < 3 && oriB < 3) {
+                ori = (oriA + oriB) % 3;
+            } else if (oriA < 3) {
+                ori = (oriA + oriB) % 3 + 3;
+            } else if (oriB < 3) {
+                ori = (oriA - oriB + 3) % 3 + 3;
+            } else {
+                ori = (oriA - oriB + 3) % 3;
+            }
+            product.cp[i] = a.cp[b.cp[i]];
+            product.co[i] = (byte) ori;
+        }
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            product.ep[i] = a.ep[b.ep[i]];
+            product.eo[i] = (byte) ((a.eo[b.ep[i]] + b.eo[i]) & 1);
+        }
+        return product;
+    }
+
+    private static CubieCube create(int[] cp, int[] co, int[] ep, int[] eo) {
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            cube.cp[i] = (byte) cp[i];
+            cube.co[i] = (byte) co[i];
+        }
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            cube.ep[i] = (byte) ep[i];
+            cube.eo[i] = (byte) eo[i];
+        }
+        return cube;
+    }
+}
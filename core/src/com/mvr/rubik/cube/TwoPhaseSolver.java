@@ -0,0 +1,406 @@
+package com.mvr.rubik.cube;
+
+import com.mvr.rubik.Log;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Kociemba's two phase algorithm for 3x3x3 cubes.
+ *
+ * Phase 1 brings the cube into the subgroup <U, D, R2, L2, F2, B2>: all corners and edges are
+ * oriented and the middle layer edges are in the middle layer. Phase 2 solves the cube using
+ * only those moves. Both phases are IDA* searches over the coordinates of CubieCube, driven by
+ * move tables and pruning tables. The tables are built once and shared by all instances.
+ *
+ * Every phase 1 depth is searched for the cube seen along the three axes, and for its inverse:
+ * the moves solving any of these six cubes give a solution of the cube. Phase 2 is what takes
+ * time, and one of the six usually reaches a short phase 2 sooner than the cube alone.
+ *
+ * The search stops at the first solution of at most mTargetLength moves. Otherwise it keeps
+ * looking for shorter solutions until the deadline or the node limit, and returns the best one
+ * found. The first solution comes within a few milliseconds, so a deadline right away still
+ * gets a valid, if longer, solution; every shorter one is handed to the SolutionListener as it
+ * is found.
+ *
+ * Instances are not thread safe.
+ */
+public class TwoPhaseSolver implements CubeSolver {
+
+    private static final String tag = "rubik-2phase";
+
+    public static final int DEFAULT_TARGET_LENGTH = 22;
+    public static final long DEFAULT_TIME_LIMIT_MS = 200;
+
+    private static final int MAX_LENGTH = 31;
+    private static final int MAX_PHASE2_LENGTH = 18;
+    /**
+     * Phase 2 gets slow beyond this length, so the first solution is looked for with a longer
+     * phase 1 instead
+     * */
+    private static final int FIRST_PHASE2_LENGTH = 12;
+    private static final int N_MOVES = CubieCube.MOVE_COUNT;
+    private static final int DIRECTION_COUNT = 6;
+    // S_URF3, turning the UD axis into RL and then FB
+    private static final int AXIS_SYMMETRY = 16;
+
+    // U, U2, U', D, D2, D', R2, F2, L2, B2
+    private static final int[] phase2Moves = {0, 1, 2, 9, 10, 11, 4, 7, 13, 16};
+    private static final int N_PHASE2_MOVES = phase2Moves.length;
+
+    /**
+     * Move tables: new coordinate = table[coordinate * moveCount + move]
+     * Phase 2 tables are indexed by the position of the move in phase2Moves.
+     * */
+    private static char[] sTwistMove;
+    private static char[] sFlipMove;
+    private static char[] sSliceMove;
+    private static char[] sCornerPermMove;
+    private static char[] sUDEdgePermMove;
+    private static char[] sSlicePermMove;
+
+    /**
+     * Pruning tables: minimum number of moves to solve both coordinates,
+     * indexed by slice * N_OTHER + other. Kept by PruningTableStore.
+     * */
+    private static final int TABLE_VERSION = 1;
+    private static PruningTable sSliceTwistPrun;
+    private static PruningTable sSliceFlipPrun;
+    private static PruningTable sSliceCornerPrun;
+    private static PruningTable sSliceEdgePrun;
+
+    private static volatile boolean sInitialized = false;
+
+    private int mTargetLength = DEFAULT_TARGET_LENGTH;
+    private long mTimeLimit = DEFAULT_TIME_LIMIT_MS;
+    private long mNodeLimit = 0;
+    private SolutionListener mListener = null;
+
+    private final int[] mMoves = new int[MAX_LENGTH];
+    private final int[] mBest = new int[MAX_LENGTH];
+    private int mBestLength;
+
+    // The cube seen along each axis, and its inverse: a solution of any of them gives one of
+    // the cube, and the best direction for phase 1 changes from cube to cube
+    private final CubieCube[] mStarts = new CubieCube[DIRECTION_COUNT];
+    private final int[] mStartDepths = new int[DIRECTION_COUNT];
+    private CubieCube mStart;
+    private int mDirection;
+    private final byte[] mCp = new byte[CubieCube.CORNER_COUNT];
+    private final byte[] mEp = new byte[CubieCube.EDGE_COUNT];
+    private final byte[] mTemp = new byte[CubieCube.EDGE_COUNT];
+
+    private long mDeadline;
+    private boolean mStop;
+    // Whether the deadline or the node limit stopped the last search
+    private boolean mTruncated;
+    private long mNodes;
+
+    public TwoPhaseSolver() {
+    }
+
+    /**
+     * Stop searching as soon as a solution of at most @length moves (half turns count as one)
+     * is found.
+     * */
+    public void setTargetLength(int length) {
+        mTargetLength = length;
+    }
+
+    /**
+     * Give up looking for a solution within the target length after @millis, returning the
+     * shortest one found so far.
+     * */
+    public void setTimeLimit(long millis) {
+        mTimeLimit = millis;
+    }
+
+    /**
+     * Give up looking for a solution within the target length after visiting @nodes nodes,
+     * 0 for no limit. Unlike the time limit, the result doesn't depend on the machine.
+     * */
+    public void setNodeLimit(long nodes) {
+        mNodeLimit = nodes;
+    }
+
+    /**
+     * @listener gets every solution shorter than the ones before; null for none
+     * */
+    public void setSolutionListener(SolutionListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Whether the last search was cut short by the deadline or the node limit before finding a
+     * solution within the target length, so its solution may be longer than need be
+     * */
+    public boolean wasTruncated() {
+        return mTruncated;
+    }
+
+    /**
+     * Nodes visited by the last search
+     * */
+    public long getNodeCount() {
+        return mNodes;
+    }
+
+    @Override
+    public Algorithm solve(FaceletCube cube) {
+        int[] moves = solve(CubieCube.fromFacelets(cube));
+        return CubieCube.toAlgorithm(moves, moves.length);
+    }
+
+    /**
+     * @return the shortest solution found by @deadline, in System.currentTimeMillis() time
+     * */
+    public Algorithm solve(FaceletCube cube, long deadline) {
+        int[] moves = solve(CubieCube.fromFacelets(cube), deadline);
+        return CubieCube.toAlgorithm(moves, moves.length);
+    }
+
+    /**
+     * @return moves in CubieCube numbering
+     * */
+    public int[] solve(CubieCube cube) {
+        return solve(cube, System.currentTimeMillis() + mTimeLimit);
+    }
+
+    /**
+     * Search until a solution within the target length is found, @deadline or the node limit.
+     * The search goes on past them until a first solution is found.
+     * @return moves in CubieCube numbering
+     * */
+    public int[] solve(CubieCube cube, long deadline) {
+        int error = cube.verify();
+        if (error != 0) {
+            throw new InvalidParameterException("Unsolvable cube: " + error);
+        }
+        init();
+
+        mBestLength = MAX_LENGTH;
+        mStop = false;
+        mTruncated = false;
+        mNodes = 0;
+        mDeadline = deadline;
+
+        int minDepth = MAX_LENGTH;
+        for (int d = 0; d < DIRECTION_COUNT; d++) {
+            CubieCube start = d == 0 ? cube : Symmetry.conjugate(cube, AXIS_SYMMETRY * (d % 3));
+            mStarts[d] = d < 3 ? start : start.inverse();
+            mStartDepths[d] = phase1Distance(mStarts[d].getTwist(), mStarts[d].getFlip(),
+                    mStarts[d].getSlice());
+            minDepth = Math.min(minDepth, mStartDepths[d]);
+        }
+        for (int depth = minDepth; depth < mBestLength && !mStop; depth++) {
+            for (int d = 0; d < DIRECTION_COUNT && depth < mBestLength && !mStop; d++) {
+                if (mStartDepths[d] > depth) continue;
+                mStart = mStarts[d];
+                mDirection = d;
+                phase1(mStart.getTwist(), mStart.getFlip(), mStart.getSlice(), 0, depth);
+            }
+        }
+        mStart = null;
+        Arrays.fill(mStarts, null);
+        if (mBestLength == MAX_LENGTH) {
+            throw new AssertionError("No solution found");
+        }
+        return Arrays.copyOf(mBest, mBestLength);
+    }
+
+    /**
+     * A move is redundant after a move of the same face, or after a move of the opposite face
+     * if that one comes first in CubieCube order (U D is searched, D U is not).
+     * */
+    private static boolean isRedundant(int lastMove, int move) {
+        int lastFace = lastMove / 3;
+        int face = move / 3;
+        return face == lastFace || face == lastFace - 3;
+    }
+
+    private static boolean isPhase2Move(int move) {
+        int face = move / 3;
+        return face == CubieCube.U || face == CubieCube.D || move % 3 == 1;
+    }
+
+    private void phase1(int twist, int flip, int slice, int depth, int togo) {
+        if (togo == 0) {
+            // Solutions ending with a phase 2 move are found with a shorter phase 1
+            if (depth == 0 || !isPhase2Move(mMoves[depth - 1])) {
+                phase2Start(depth);
+            }
+            return;
+        }
+        if ((++mNodes & 0xFFF) == 0 && mBestLength < MAX_LENGTH &&
+                (System.currentTimeMillis() > mDeadline ||
+                        (mNodeLimit > 0 && mNodes > mNodeLimit))) {
+            mStop = true;
+            mTruncated = true;
+        }
+        for (int move = 0; move < N_MOVES && !mStop; move++) {
+            if (depth > 0 && isRedundant(mMoves[depth - 1], move)) continue;
+
+            int newTwist = sTwistMove[twist * N_MOVES + move];
+            int newFlip = sFlipMove[flip * N_MOVES + move];
+            int newSlice = sSliceMove[slice * N_MOVES + move];
+            if (phase1Distance(newTwist, newFlip, newSlice) >= togo) continue;
+
+            mMoves[depth] = move;
+            phase1(newTwist, newFlip, newSlice, depth + 1, togo - 1);
+        }
+    }
+
+    private static int phase1Distance(int twist, int flip, int slice) {
+        return Math.max(sSliceTwistPrun.get(slice * CubieCube.N_TWIST + twist),
+                sSliceFlipPrun.get(slice * CubieCube.N_FLIP + flip));
+    }
+
+    private void phase2Start(int depth1) {
+        int maxDepth2 = Math.min(mBestLength == MAX_LENGTH ? FIRST_PHASE2_LENGTH :
+                MAX_PHASE2_LENGTH, mBestLength - 1 - depth1);
+        if (maxDepth2 < 0) return;
+
+        // Phase 2 coordinates are only valid in the subgroup, so they are computed from
+        // the permutations reached at the end of phase 1.
+        System.arraycopy(mStart.cp, 0, mCp, 0, CubieCube.CORNER_COUNT);
+        System.arraycopy(mStart.ep, 0, mEp, 0, CubieCube.EDGE_COUNT);
+        for (int i = 0; i < depth1; i++) {
+            CubieCube move = CubieCube.sMoves[mMoves[i]];
+            for (int j = 0; j < CubieCube.CORNER_COUNT; j++) {
+                mTemp[j] = mCp[move.cp[j]];
+            }
+            System.arraycopy(mTemp, 0, mCp, 0, CubieCube.CORNER_COUNT);
+            for (int j = 0; j < CubieCube.EDGE_COUNT; j++) {
+                mTemp[j] = mEp[move.ep[j]];
+            }
+            System.arraycopy(mTemp, 0, mEp, 0, CubieCube.EDGE_COUNT);
+        }
+        int cornerPerm = CubieCube.permutationIndex(mCp, 0, CubieCube.CORNER_COUNT);
+        int edgePerm = CubieCube.permutationIndex(mEp, 0, CubieCube.FR);
+        int slicePerm = CubieCube.permutationIndex(mEp, CubieCube.FR,
+                CubieCube.EDGE_COUNT - CubieCube.FR);
+
+        int depth2 = phase2Distance(cornerPerm, edgePerm, slicePerm);
+        for (; depth2 <= maxDepth2; depth2++) {
+            if (phase2(cornerPerm, edgePerm, slicePerm, depth1, depth2)) {
+                mBestLength = depth1 + depth2;
+                setBest();
+                if (mListener != null) {
+                    mListener.onSolution(Arrays.copyOf(mBest, mBestLength));
+                }
+                if (mBestLength <= mTargetLength) {
+                    mStop = true;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Turn the moves found for the cube of mDirection into moves of the cube being solved
+     * */
+    private void setBest() {
+        boolean inverse = mDirection >= 3;
+        int symmetry = Symmetry.inverse(AXIS_SYMMETRY * (mDirection % 3));
+        for (int i = 0; i < mBestLength; i++) {
+            // Moves solving the inverse cube, reversed and inverted, solve the cube
+            int move = inverse ? mMoves[mBestLength - 1 - i] : mMoves[i];
+            if (inverse) {
+                move = move - move % 3 + 2 - move % 3;
+            }
+            mBest[i] = Symmetry.conjugateMove(move, symmetry);
+        }
+    }
+
+    private static int phase2Distance(int cornerPerm, int edgePerm, int slicePerm) {
+        return Math.max(sSliceCornerPrun.get(slicePerm * CubieCube.N_CORNER_PERM + cornerPerm),
+                sSliceEdgePrun.get(slicePerm * CubieCube.N_UD_EDGE_PERM + edgePerm));
+    }
+
+    private boolean phase2(int cornerPerm, int edgePerm, int slicePerm, int depth, int togo) {
+        if (togo == 0) {
+            return cornerPerm == 0 && edgePerm == 0 && slicePerm == 0;
+        }
+        mNodes++;
+        for (int i = 0; i < N_PHASE2_MOVES; i++) {
+            int move = phase2Moves[i];
+            if (depth > 0 && isRedundant(mMoves[depth - 1], move)) continue;
+
+            int newCorner = sCornerPermMove[cornerPerm * N_PHASE2_MOVES + i];
+            int newEdge = sUDEdgePermMove[edgePerm * N_PHASE2_MOVES + i];
+            int newSlice = sSlicePermMove[slicePerm * N_PHASE2_MOVES + i];
+            int dist = phase2Distance(newCorner, newEdge, newSlice);
+            if (dist >= togo) continue;
+
+            mMoves[depth] = move;
+            if (phase2(newCorner, newEdge, newSlice, depth + 1, togo - 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the tables are built, so a solve won't block on init()
+     * */
+    public static boolean isInitialized() {
+        return sInitialized;
+    }
+
+    /**
+     * Build the tables if not done yet. Takes a while the first time, so callers may want to
+     * do it in the background ahead of the first solve.
+     * */
+    public static synchronized void init() {
+        if (sInitialized) return;
+        long start = System.currentTimeMillis();
+
+        int[] allMoves = new int[N_MOVES];
+        for (int i = 0; i < N_MOVES; i++) {
+            allMoves[i] = i;
+        }
+        sTwistMove = CubieCube.Coordinate.TWIST.moveTable(allMoves);
+        sFlipMove = CubieCube.Coordinate.FLIP.moveTable(allMoves);
+        sSliceMove = CubieCube.Coordinate.SLICE.moveTable(allMoves);
+        sCornerPermMove = CubieCube.Coordinate.CORNER_PERM.moveTable(phase2Moves);
+        sUDEdgePermMove = CubieCube.Coordinate.UD_EDGE_PERM.moveTable(phase2Moves);
+        sSlicePermMove = CubieCube.Coordinate.SLICE_PERM.moveTable(phase2Moves);
+
+        sSliceTwistPrun = loadPruningTable("twophase-slice-twist", sSliceMove,
+                CubieCube.N_SLICE, sTwistMove, CubieCube.N_TWIST, N_MOVES);
+        sSliceFlipPrun = loadPruningTable("twophase-slice-flip", sSliceMove,
+                CubieCube.N_SLICE, sFlipMove, CubieCube.N_FLIP, N_MOVES);
+        sSliceCornerPrun = loadPruningTable("twophase-slice-corners", sSlicePermMove,
+                CubieCube.N_SLICE_PERM, sCornerPermMove, CubieCube.N_CORNER_PERM, N_PHASE2_MOVES);
+        sSliceEdgePrun = loadPruningTable("twophase-slice-edges", sSlicePermMove,
+                CubieCube.N_SLICE_PERM, sUDEdgePermMove, CubieCube.N_UD_EDGE_PERM,
+                N_PHASE2_MOVES);
+
+        sInitialized = true;
+        Log.w(tag, "Tables built in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Breadth first search from the solved state over the pair of coordinates
+     * */
+    private static PruningTable loadPruningTable(String name, final char[] sliceMove,
+                                                 int sliceCount, final char[] otherMove,
+                                                 final int otherCount, final int moveCount) {
+        return PruningTableStore.load(name, TABLE_VERSION, sliceCount * otherCount,
+                new PruningTableStore.Generator() {
+                    @Override
+                    public void generate(PruningTable table) {
+                        table.fill(0, new PruningTable.Expander() {
+                            @Override
+                            public int expand(int index, int[] next) {
+                                int slice = index / otherCount;
+                                int other = index % otherCount;
+                                for (int m = 0; m < moveCount; m++) {
+                                    next[m] = sliceMove[slice * moveCount + m] * otherCount +
+                                            otherMove[other * moveCount + m];
+                                }
+                                return moveCount;
+                            }
+                        }, moveCount);
+                    }
+                });
+    }
+}
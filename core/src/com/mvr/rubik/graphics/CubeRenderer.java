@@ -1,5 +1,6 @@
 package com.mvr.rubik.graphics;
 
+import com.mvr.rubik.cube.CubeMesh;
 import com.mvr.rubik.cube.Square;
 
 public interface CubeRenderer {
@@ -13,4 +14,9 @@ public interface CubeRenderer {
      * Rotate the square by angleDegrees along the axis (x, y, z)
      * */
     void drawSquare(Square square, float angleDegrees, float x, float y, float z);
+
+    /**
+     * Draw all the squares of a cube at once, the turning layer included
+     * */
+    void drawMesh(CubeMesh mesh);
 }
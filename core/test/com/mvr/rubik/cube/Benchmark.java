@@ -0,0 +1,286 @@
+package com.mvr.rubik.cube;
+
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Headless throughput of the solvers, without any cube or graphics objects. It is a tool of
+ * the test source set, so it doesn't ship with the app:
+ *
+ *   gradlew :core:benchmark -Pargs="scramble [count] [threads]"
+ *   gradlew :core:benchmark -Pargs="batch [count] [threads] [length]"
+ *   gradlew :core:benchmark -Pargs="optimal [count] [parallelism] [moves]"
+ *   gradlew :core:benchmark -Pargs="turns [count] [size]"
+ *
+ * The tables are built in memory before the clock starts, and WARM_UP runs of the same work
+ * let the JIT compile the search first. States come from fixed seeds, so runs
+ * on different machines or versions measure the same work.
+ */
+public class Benchmark {
+
+    private static final long SEED = 0x5eed;
+    private static final int WARM_UP = 200;
+    private static final int TURN_COUNT = 1000000;
+    private static final int TURN_PASSES = 4;
+
+    private Benchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        if (args[0].equals("turns")) {
+            turns(args.length > 1 ? Integer.parseInt(args[1]) : TURN_COUNT,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 3);
+            return;
+        }
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) :
+                Runtime.getRuntime().availableProcessors();
+        if (threads <= 0) {
+            throw new InvalidParameterException("Invalid thread count: " + threads);
+        }
+        if (args[0].equals("scramble")) {
+            scramble(count, threads);
+        } else if (args[0].equals("batch")) {
+            int length = args.length > 3 ? Integer.parseInt(args[3]) :
+                    TwoPhaseSolver.DEFAULT_TARGET_LENGTH;
+            batch(count, threads, length);
+        } else if (args[0].equals("optimal")) {
+            optimal(count, threads, args.length > 3 ? Integer.parseInt(args[3]) : 14);
+        } else {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Benchmark scramble [count] [threads]");
+        System.out.println("Benchmark batch [count] [threads] [target length]");
+        System.out.println("Benchmark optimal [count] [parallelism] [scramble moves]");
+        System.out.println("Benchmark turns [count] [cube size]");
+    }
+
+    /**
+     * Random state scrambles from one Scrambler per thread
+     * */
+    private static void scramble(final int count, int threads) throws InterruptedException {
+        TwoPhaseSolver.init();
+        final SplitMix64 seeds = new SplitMix64(SEED);
+        Scrambler warmUp = new Scrambler(seeds.split());
+        for (int i = 0; i < WARM_UP; i++) {
+            warmUp.scramble();
+        }
+
+        final long[] moves = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            final Scrambler scrambler = new Scrambler(seeds.split());
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        moves[index] += scrambler.scramble().length;
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long totalMoves = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            totalMoves += moves[t];
+        }
+        long nanos = System.nanoTime() - start;
+        int total = count * threads;
+        report("scramble", total, nanos, threads);
+        System.out.println(String.format(Locale.US, "  average length %.2f moves",
+                totalMoves / (double) total));
+    }
+
+    /**
+     * Random states solved by a BatchSolver, each search stopping at the first solution of
+     * at most @length moves
+     * */
+    private static void batch(int count, int threads, int length) throws InterruptedException {
+        BatchSolver solver = new BatchSolver(threads);
+        solver.setTargetLength(length);
+        // Only the length bounds the searches, whatever the speed of the machine
+        solver.setTimeLimit(Long.MAX_VALUE / 2);
+        solver.solve(randomStates(new Scrambler(new SplitMix64(SEED + 1)), WARM_UP),
+                new BatchSolver.ResultListener() {
+                    @Override
+                    public void onResult(BatchSolver.Result result) {
+                    }
+                });
+
+        final long[] moves = new long[1];
+        long start = System.nanoTime();
+        solver.solve(randomStates(new Scrambler(new SplitMix64(SEED)), count),
+                new BatchSolver.ResultListener() {
+                    @Override
+                    public void onResult(BatchSolver.Result result) {
+                        moves[0] += result.moves.length;
+                    }
+                });
+        long nanos = System.nanoTime() - start;
+        report("batch to " + length + " moves", count, nanos, threads);
+        System.out.println(String.format(Locale.US, "  average length %.2f moves",
+                moves[0] / (double) count));
+    }
+
+    /**
+     * The same scrambles of @moves random turns solved by the OptimalSolver, then by the
+     * ParallelOptimalSolver on 1 and on @parallelism threads. Random states are not used, as
+     * most of them take minutes to solve optimally.
+     *
+     * The threads don't expand the nodes in the same order as one thread, so they may search
+     * more or fewer nodes before the first solution. On @parallelism free cores the speedup
+     * is at most about @parallelism times the nodes of one thread over the nodes of all of
+     * them. That estimate is printed as well, as it doesn't depend on the cores of the machine
+     * running the benchmark.
+     * */
+    private static void optimal(int count, int parallelism, int moves) {
+        OptimalSolver.init();
+        SplitMix64 random = new SplitMix64(SEED);
+        CubieCube[] cubes = new CubieCube[count];
+        for (int i = 0; i < count; i++) {
+            cubes[i] = new CubieCube();
+            int previous = -1;
+            for (int j = 0; j < moves; j++) {
+                int move;
+                do {
+                    move = random.nextInt(CubieCube.MOVE_COUNT);
+                } while (previous >= 0 && move / 3 == previous / 3);
+                cubes[i].move(move);
+                previous = move;
+            }
+        }
+
+        long[] sequential = solveAll("optimal", new OptimalSolver(), cubes, 1);
+        long[] single = solveAll("parallel optimal", new ParallelOptimalSolver(1), cubes, 1);
+        long[] parallel = solveAll("parallel optimal", new ParallelOptimalSolver(parallelism),
+                cubes, parallelism);
+        System.out.println(String.format(Locale.US,
+                "%d threads: %.2fx 1 thread, %.2fx the optimal solver, on %d cores",
+                parallelism, single[0] / (double) parallel[0],
+                sequential[0] / (double) parallel[0],
+                Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format(Locale.US,
+                "  %.2fx the nodes of 1 thread, so up to about %.2fx on %d free cores",
+                parallel[1] / (double) single[1],
+                parallelism * single[1] / (double) parallel[1], parallelism));
+    }
+
+    /**
+     * @return the time taken by @solver to solve all of @cubes, after solving the first one
+     * to warm up, and the nodes it expanded
+     * */
+    private static long[] solveAll(String name, OptimalSolver solver, CubieCube[] cubes,
+                                   int threads) {
+        if (cubes.length > 0) {
+            solver.solve(cubes[0]);
+        }
+        long moves = 0;
+        long nodes = 0;
+        long start = System.nanoTime();
+        for (CubieCube cube : cubes) {
+            moves += solver.solve(cube).length;
+            nodes += solver.getNodeCount();
+        }
+        long nanos = System.nanoTime() - start;
+        report(name, cubes.length, nanos, threads);
+        System.out.println(String.format(Locale.US,
+                "  average length %.2f moves, %d nodes each", moves / (double) cubes.length,
+                nodes / Math.max(cubes.length, 1)));
+        return new long[] {nanos, nodes};
+    }
+
+    /**
+     * The same @count random layer turns of a @size cube played by FaceletCube.rotate, a gather
+     * pass over the MoveTable permutation, and by the reference ring rotation that turns used
+     * to copy through
+     * */
+    private static void turns(int count, int size) {
+        if (count <= 0 || size <= 0) {
+            throw new InvalidParameterException("Invalid count " + count + " or size " + size);
+        }
+        FaceletCube cube = new FaceletCube(size);
+        MoveTable table = cube.getMoveTable();
+        int[] moves = new int[count];
+        new ScrambleGenerator(SEED).generate(table, moves, count);
+        int[] cells = new int[table.getFaceletCount()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        FaceletCube solved = new FaceletCube(cube);
+
+        // The first pass warms up, the fastest of the others is kept
+        long gather = Long.MAX_VALUE;
+        long reference = Long.MAX_VALUE;
+        for (int pass = 0; pass < TURN_PASSES; pass++) {
+            long start = System.nanoTime();
+            cube.rotate(moves, count);
+            long nanos = System.nanoTime() - start;
+            gather = pass == 0 ? gather : Math.min(gather, nanos);
+
+            start = System.nanoTime();
+            for (int move : moves) {
+                table.applyReference(cells, move);
+            }
+            nanos = System.nanoTime() - start;
+            reference = pass == 0 ? reference : Math.min(reference, nanos);
+        }
+        for (int i = 0; i < cells.length; i++) {
+            if (cube.get(i) != solved.get(cells[i])) {
+                throw new AssertionError("The two paths differ at facelet " + i);
+            }
+        }
+        String name = size + "x" + size + "x" + size;
+        reportTurns(name + " move table", count, gather);
+        reportTurns(name + " ring rotation", count, reference);
+        System.out.println(String.format(Locale.US, "  %.1fx faster with the move table",
+                reference / (double) gather));
+    }
+
+    private static void reportTurns(String name, int count, long nanos) {
+        System.out.println(String.format(Locale.US, "%s: %d turns in %.3fs, %.2fM/s, %.1fns each",
+                name, count, nanos / 1e9, count * 1e3 / nanos, nanos / (double) count));
+    }
+
+    private static Iterator<CubieCube> randomStates(final Scrambler scrambler, final int count) {
+        return new Iterator<CubieCube>() {
+            private int mCount = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mCount < count;
+            }
+
+            @Override
+            public CubieCube next() {
+                mCount++;
+                return scrambler.randomState();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static void report(String name, long count, long nanos, int threads) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.US,
+                "%s: %d in %.2fs on %d threads, %.1f/s, %.3fms each per thread",
+                name, count, seconds, threads, count / seconds,
+                seconds * 1000 * threads / count));
+    }
+}
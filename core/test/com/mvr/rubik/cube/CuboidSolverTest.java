@@ -0,0 +1,47 @@
+package com.mvr.rubik.cube;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrambled 3x3x4 cuboids must be solved well within the solver's default time limit: about a
+ * second each on a single desktop core, so SOLVE_LIMIT_MS leaves room for slower machines.
+ */
+public class CuboidSolverTest {
+
+    private static final long SEED = 5;
+    private static final int SCRAMBLES = 20;
+    private static final int SCRAMBLE_MOVES = 60;
+    private static final long SOLVE_LIMIT_MS = 5000;
+
+    @Test
+    public void solves3x3x4ScramblesWithinLimit() {
+        CuboidSolver solver = new CuboidSolver();
+        // Builds the tables and warms up the search before the clock starts
+        solver.solve(new FaceletCube(3, 3, 4));
+
+        ScrambleGenerator generator = new ScrambleGenerator(SEED);
+        int[] moves = new int[SCRAMBLE_MOVES];
+        for (int i = 0; i < SCRAMBLES; i++) {
+            FaceletCube cube = new FaceletCube(3, 3, 4);
+            generator.generate(cube.getMoveTable(), moves, SCRAMBLE_MOVES);
+            cube.rotate(moves, SCRAMBLE_MOVES);
+
+            long start = System.currentTimeMillis();
+            Algorithm algo = solver.solve(cube);
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Scramble " + i + " took " + elapsed + "ms", elapsed < SOLVE_LIMIT_MS);
+
+            while (!algo.isDone()) {
+                Rotation rotation = algo.getNextStep();
+                for (int face = rotation.startFace;
+                     face < rotation.startFace + rotation.faceCount;
+                     face++) {
+                    cube.rotate(rotation.axis, rotation.direction, face);
+                }
+            }
+            assertTrue("Scramble " + i + " not solved", cube.isSolved());
+        }
+    }
+}